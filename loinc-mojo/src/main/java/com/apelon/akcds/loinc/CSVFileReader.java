@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.input.CountingInputStream;
 import au.com.bytecode.opencsv.CSVReader;
 
 /**
@@ -49,14 +50,21 @@ public class CSVFileReader extends LOINCReader
 	{
 		ConsoleUtil.println("Using the data file " + f.getAbsolutePath());
 		//Their new format includes the (optional) UTF-8 BOM, which chokes java for stupid legacy reasons.
-		reader = new CSVReader(new BufferedReader(new InputStreamReader(new BOMInputStream(new FileInputStream(f)))));
+		reader = new CSVReader(new BufferedReader(new InputStreamReader(new BOMInputStream(bytesRead_ = new CountingInputStream(new FileInputStream(f))))));
 		header = readLine();
 		
-		readReleaseNotes(f.getParentFile());
+		String[] notes = readReleaseNotes(f.getParentFile());
+		version = notes[0];
+		release = notes[1];
 	}
 	
-	private void readReleaseNotes(File dataFolder) throws IOException
+	/**
+	 * @return the version and the release date from the release notes file in the folder - nulls if it doesn't have them
+	 */
+	static String[] readReleaseNotes(File dataFolder) throws IOException
 	{
+		String version = null;
+		String release = null;
 		File relNotes  = null;
 		for (File f : dataFolder.listFiles())
 		{
@@ -94,6 +102,7 @@ public class CSVFileReader extends LOINCReader
 		{
 			ConsoleUtil.printErrorln("Couldn't find release notes file - can't read version or release date!");
 		}
+		return new String[] {version, release};
 	}
 	
 	@Override
@@ -118,6 +127,11 @@ public class CSVFileReader extends LOINCReader
 	public String[] readLine() throws IOException
 	{
 		String[] temp = reader.readNext();
+		while (temp != null && fieldCount_ > 0 && temp.length > fieldCount_)
+		{
+			tooManyFields(++rowNumber_, Arrays.toString(temp));
+			temp = reader.readNext();
+		}
 		if (temp != null)
 		{
 			if (fieldCount_ == 0)
@@ -130,16 +144,38 @@ public class CSVFileReader extends LOINCReader
 					fieldMap_.put(s, i++);
 				}
 			}
-			else if (temp.length < fieldCount_)
+			else
 			{
-				temp = Arrays.copyOf(temp, fieldCount_);
+				rowNumber_++;
+				if (temp.length < fieldCount_)
+				{
+					temp = Arrays.copyOf(temp, fieldCount_);
+				}
 			}
-			else if (temp.length > fieldCount_)
+		}
+		return temp;
+	}
+
+	@Override
+	public int readBatch(RowBatch batch) throws IOException
+	{
+		batch.clear();
+		while (!batch.isFull())
+		{
+			String[] temp = reader.readNext();
+			if (temp == null)
 			{
-				throw new RuntimeException("Data error - to many fields found on line: " + Arrays.toString(temp));
+				break;
 			}
+			rowNumber_++;
+			if (temp.length > fieldCount_)
+			{
+				tooManyFields(rowNumber_, Arrays.toString(temp));
+				continue;
+			}
+			batch.add(temp, temp.length, rowNumber_);
 		}
-		return temp;
+		return batch.size();
 	}
 
 	@Override
@@ -0,0 +1,53 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ *
+ * {@link ConceptGraph}
+ *
+ * A read only view of the concepts built so far, and the relationships between them, that doesn't care how a concept is held -
+ * as a full {@link org.ihtsdo.otf.tcc.dto.TtkConceptChronicle}, or as a {@link LiteConcept}.  Used to order the concepts for writing
+ * ({@link ConceptWriteOrder}) and to check their relationship targets ({@link ReferenceCheck}).
+ *
+ * Implementations must allow concurrent reads.
+ */
+public interface ConceptGraph
+{
+	/**
+	 * @return a snapshot of the UUIDs of all of the concepts
+	 */
+	public Set<UUID> getConcepts();
+
+	public boolean contains(UUID concept);
+
+	public int getRelationshipCount(UUID concept);
+
+	public UUID getRelationshipType(UUID concept, int index);
+
+	public UUID getRelationshipTarget(UUID concept, int index);
+
+	/**
+	 * @return the first description of the concept - "" if it has none
+	 */
+	public String getName(UUID concept);
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ *
+ * {@link ConceptWriteOrder}
+ *
+ * The order in which the data concepts are written to the jbin file.  Every ordering is deterministic - the same input
+ * always produces the same sequence of concepts (and therefore the same bytes), regardless of the JVM or hash seeds.  The ordering
+ * only looks at the {@link ConceptGraph}, and returns UUIDs, so the concepts needn't be built until they are written.
+ *
+ * <ul>
+ * <li>TOPOLOGICAL - relationship targets (parents, axis and class concepts, multi-axial parents) are written before the
+ * concepts that reference them.  Cycles, if any, are broken at the first concept visited.</li>
+ * <li>CLASS - concepts without a LOINC CLASS (metadata, axis, class and multi-axial concepts) first, in topological order,
+ * then one group per CLASS (ordered by class name), topologically ordered within the group.</li>
+ * <li>UUID - sorted by primordial UUID.</li>
+ * </ul>
+ */
+public enum ConceptWriteOrder
+{
+	TOPOLOGICAL, CLASS, UUID;
+
+	/**
+	 * @param concepts the concepts to order
+	 * @param classRelType the relationship type that links a LOINC code to its CLASS concept - only used by {@link #CLASS}
+	 * @return the concept UUIDs, in write order
+	 */
+	public List<UUID> order(ConceptGraph concepts, UUID classRelType)
+	{
+		switch (this)
+		{
+			case TOPOLOGICAL:
+				return topological(concepts, concepts.getConcepts());
+			case CLASS:
+				return byClass(concepts, classRelType);
+			case UUID:
+				return sortedKeys(concepts.getConcepts());
+			default :
+				throw new RuntimeException("Unhandled ordering " + this);
+		}
+	}
+
+	private static List<UUID> sortedKeys(Collection<UUID> keys)
+	{
+		ArrayList<UUID> sorted = new ArrayList<>(keys);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Depth first, post order walk over the relationship targets, restricted to the concepts in <code>subset</code>.
+	 * Iterative, as the multi-axial hierarchy can get deep enough to make a recursive walk uncomfortable.
+	 */
+	private static List<UUID> topological(ConceptGraph concepts, Set<UUID> subset)
+	{
+		ArrayList<UUID> result = new ArrayList<>(subset.size());
+		HashSet<UUID> visited = new HashSet<>(subset.size() * 2);
+		ArrayDeque<UUID> stack = new ArrayDeque<>();
+		ArrayDeque<Iterator<UUID>> targets = new ArrayDeque<>();
+
+		for (UUID start : sortedKeys(subset))
+		{
+			if (!visited.add(start))
+			{
+				continue;
+			}
+			stack.push(start);
+			targets.push(relationshipTargets(concepts, start).iterator());
+
+			while (!stack.isEmpty())
+			{
+				Iterator<UUID> it = targets.peek();
+				if (it.hasNext())
+				{
+					UUID target = it.next();
+					if (subset.contains(target) && visited.add(target))
+					{
+						stack.push(target);
+						targets.push(relationshipTargets(concepts, target).iterator());
+					}
+				}
+				else
+				{
+					targets.pop();
+					result.add(stack.pop());
+				}
+			}
+		}
+		return result;
+	}
+
+	private static List<UUID> byClass(ConceptGraph concepts, UUID classRelType)
+	{
+		HashSet<UUID> unclassified = new HashSet<>();
+		HashMap<UUID, Set<UUID>> byClass = new HashMap<>();
+
+		for (UUID concept : concepts.getConcepts())
+		{
+			UUID classUuid = null;
+			for (int i = 0; i < concepts.getRelationshipCount(concept); i++)
+			{
+				if (concepts.getRelationshipType(concept, i).equals(classRelType))
+				{
+					classUuid = concepts.getRelationshipTarget(concept, i);
+					break;
+				}
+			}
+			if (classUuid == null)
+			{
+				unclassified.add(concept);
+			}
+			else
+			{
+				Set<UUID> members = byClass.get(classUuid);
+				if (members == null)
+				{
+					members = new HashSet<>();
+					byClass.put(classUuid, members);
+				}
+				members.add(concept);
+			}
+		}
+
+		// Order the groups by the class name, with the UUID as a tie breaker, so the group order is stable too.
+		TreeMap<String, UUID> groupOrder = new TreeMap<>();
+		for (UUID classUuid : byClass.keySet())
+		{
+			String name = (concepts.contains(classUuid) ? concepts.getName(classUuid) : "");
+			groupOrder.put(name + "|" + classUuid, classUuid);
+		}
+
+		List<UUID> result = topological(concepts, unclassified);
+		for (UUID classUuid : groupOrder.values())
+		{
+			result.addAll(topological(concepts, byClass.get(classUuid)));
+		}
+		return result;
+	}
+
+	private static List<UUID> relationshipTargets(ConceptGraph concepts, UUID concept)
+	{
+		int count = concepts.getRelationshipCount(concept);
+		if (count == 0)
+		{
+			return Collections.emptyList();
+		}
+		ArrayList<UUID> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			result.add(concepts.getRelationshipTarget(concept, i));
+		}
+		return result;
+	}
+}
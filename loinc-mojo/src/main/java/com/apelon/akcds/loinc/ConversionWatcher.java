@@ -0,0 +1,219 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil;
+import gov.va.oia.terminology.converters.sharedUtils.stats.ConverterUUID;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Date;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ *
+ * {@link ConversionWatcher}
+ *
+ * Keeps a converter JVM running, and reconverts whenever one of the LOINC input files, or one of the class mapping files,
+ * changes - for curating the class mappings, or trying skip lists, without paying for a cold JVM and a full re-parse each time.
+ *
+ * Every conversion runs in a new {@link LoincToEConcepts}, with the same settings, and the shared library's static state is
+ * cleared first (see {@link #resetSharedState()}), so nothing carries over from the last run except the parsed inputs that are
+ * still valid (see {@link ParsedFileCache}), and the warm JIT.  A failed conversion is reported, and the watch goes on.
+ */
+public class ConversionWatcher
+{
+	// Editors (and unzips) often write a file in several steps - wait for the folder to go quiet before converting
+	private static final long QUIET_MILLIS = 500;
+
+	private final Map<String, String> settings_;
+	private final File inputDir_;
+	private final ParsedFileCache cache_;
+	private int runs_ = 0;
+
+	/**
+	 * @param settings the converter parameters, by name - see {@link LoincToEConcepts#configure(String, String)}.  Must include
+	 * inputFileLocation.
+	 * @param classMappingsDir a folder of classMappings files to use in place of the built in ones, and watch - null for none
+	 */
+	public ConversionWatcher(Map<String, String> settings, File classMappingsDir)
+	{
+		settings_ = settings;
+		inputDir_ = new File(settings.get("inputFileLocation"));
+		cache_ = new ParsedFileCache(classMappingsDir);
+	}
+
+	/**
+	 * Convert, then watch for changes and reconvert - until the thread is interrupted.
+	 */
+	public void run() throws IOException
+	{
+		try (WatchService watcher = FileSystems.getDefault().newWatchService())
+		{
+			register(watcher, inputDir_);
+			if (cache_.getClassMappingsDir() != null)
+			{
+				register(watcher, cache_.getClassMappingsDir());
+			}
+
+			convert("initial conversion");
+			while (true)
+			{
+				WatchKey key = watcher.take();
+				String changed = null;
+				while (key != null)
+				{
+					String c = relevantChange(key);
+					if (c != null)
+					{
+						changed = (changed == null ? c : changed + ", " + c);
+					}
+					key.reset();
+					key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				if (changed != null)
+				{
+					convert("changed: " + changed);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			ConsoleUtil.println("Watch stopped after " + runs_ + " conversions");
+		}
+	}
+
+	private void register(WatchService watcher, File dir) throws IOException
+	{
+		dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		ConsoleUtil.println("Watching " + dir.getAbsolutePath());
+	}
+
+	/**
+	 * @return the names of the files the converter reads that the key reports as changed, or null if there are none - so writing
+	 * the output into the input folder doesn't set off another conversion.
+	 */
+	private String relevantChange(WatchKey key)
+	{
+		Path dir = (Path) key.watchable();
+		boolean mappingsDir = (cache_.getClassMappingsDir() != null && dir.equals(cache_.getClassMappingsDir().toPath()));
+		String result = null;
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			String name;
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				name = "(events lost)";
+			}
+			else
+			{
+				name = ((Path) event.context()).getFileName().toString();
+				if (!mappingsDir && !isInputFile(name))
+				{
+					continue;
+				}
+			}
+			result = (result == null ? name : result + ", " + name);
+		}
+		return result;
+	}
+
+	private static boolean isInputFile(String name)
+	{
+		String n = name.toLowerCase();
+		return n.equals("loincdb.txt") || n.equals("loinc.csv") || n.equals("map_to.csv") || n.equals("source_organization.csv")
+				|| n.endsWith("multi-axial_hierarchy.csv") || n.equals("part.csv") || (n.startsWith("loincpartlink") && n.endsWith(".csv"))
+				|| n.equals("loinc_releasenotes.txt");
+	}
+
+	private void convert(String reason)
+	{
+		runs_++;
+		resetSharedState();
+		ConsoleUtil.println("Conversion " + runs_ + " (" + reason + ") " + new Date());
+		long start = System.currentTimeMillis();
+		LoincToEConcepts converter = new LoincToEConcepts();
+		for (Entry<String, String> setting : settings_.entrySet())
+		{
+			converter.configure(setting.getKey(), setting.getValue());
+		}
+		converter.setCache(cache_);
+		try
+		{
+			converter.execute();
+			ConsoleUtil.println("Conversion " + runs_ + " took " + (System.currentTimeMillis() - start) + " ms - " + cache_.getStatistics());
+		}
+		catch (MojoExecutionException | RuntimeException e)
+		{
+			ConsoleUtil.printErrorln("Conversion " + runs_ + " failed: " + e);
+			converter.getLog().error("Conversion " + runs_ + " failed", e);
+		}
+		ConsoleUtil.println("Waiting for changes...");
+	}
+
+	/**
+	 * Clear what the shared converter library keeps in static fields from one conversion to the next - the ConverterUUID map, which
+	 * would report every UUID of the next run as a duplicate (and dump every run's UUIDs), and the ConsoleUtil output buffer, which
+	 * would grow with every run, and be written out again in each ConsoleOutput.txt.  The library has no reset, so its fields are
+	 * cleared by name.
+	 * @throws IllegalStateException if the library doesn't have one of them - a library version that keeps its state elsewhere must
+	 *     be looked at, rather than carrying the state over without saying so
+	 */
+	static void resetSharedState()
+	{
+		ConverterUUID.disableUUIDMap_ = false;
+		((Map<?, ?>) staticField(ConverterUUID.class, "masterUUIDMap_", Map.class)).clear();
+		((StringBuilder) staticField(ConsoleUtil.class, "consoleOutputCache", StringBuilder.class)).setLength(0);
+	}
+
+	private static Object staticField(Class<?> c, String name, Class<?> type)
+	{
+		try
+		{
+			Field f = c.getDeclaredField(name);
+			if (Modifier.isStatic(f.getModifiers()))
+			{
+				f.setAccessible(true);
+				Object value = f.get(null);
+				if (type.isInstance(value))
+				{
+					return value;
+				}
+			}
+			throw new IllegalStateException("Can't reset " + c.getName() + "." + name + " between conversions - it isn't a static "
+					+ type.getSimpleName() + " in this version of the converter library");
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException("Can't reset " + c.getName() + "." + name + " between conversions - this version of the converter "
+					+ "library doesn't have it", e);
+		}
+	}
+}
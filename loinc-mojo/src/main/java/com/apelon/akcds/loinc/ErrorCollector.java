@@ -0,0 +1,156 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ *
+ * {@link ErrorCollector}
+ *
+ * Gathers the per row data problems, by category.  The first few examples of each category are printed as they happen, the rest
+ * are only counted - {@link #getSummary()} gives the totals.  Optionally, every occurrence is also written to a separate error file,
+ * so nothing is lost, without buffering it all in the console output.
+ *
+ * Thread safe.
+ */
+public class ErrorCollector implements Closeable
+{
+	private static class Category
+	{
+		int count;
+		ArrayList<String> examples = new ArrayList<>();
+	}
+
+	private final LinkedHashMap<String, Category> categories_ = new LinkedHashMap<>();
+	private final int examplesPerCategory_;
+	private final Writer errorFile_;
+	private int total_ = 0;
+	private IOException error_;
+
+	/**
+	 * @param examplesPerCategory how many occurrences of each category to print, and keep for the summary
+	 * @param errorFile where to write every occurrence - null for no file
+	 */
+	public ErrorCollector(int examplesPerCategory, File errorFile) throws IOException
+	{
+		examplesPerCategory_ = Math.max(0, examplesPerCategory);
+		errorFile_ = (errorFile == null ? null : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(errorFile), StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Count the error.  A failure writing the error file stops the file, and is thrown by {@link #close()}.
+	 * @param category a fixed description of the problem - the key the totals are kept under
+	 * @param detail the specifics of this occurrence (the code, the value...)
+	 */
+	public synchronized void add(String category, String detail)
+	{
+		Category c = categories_.get(category);
+		if (c == null)
+		{
+			c = new Category();
+			categories_.put(category, c);
+		}
+		c.count++;
+		total_++;
+		String message = (detail == null || detail.length() == 0 ? category : category + " " + detail);
+		if (c.count <= examplesPerCategory_)
+		{
+			c.examples.add(message);
+			ConsoleUtil.printErrorln(message);
+			if (c.count == examplesPerCategory_)
+			{
+				ConsoleUtil.printErrorln("(further '" + category + "' errors will only be counted)");
+			}
+		}
+		if (errorFile_ != null && error_ == null)
+		{
+			try
+			{
+				errorFile_.write(message);
+				errorFile_.write(System.lineSeparator());
+			}
+			catch (IOException e)
+			{
+				error_ = e;
+			}
+		}
+	}
+
+	/**
+	 * @return the total number of errors, in all categories
+	 */
+	public synchronized int getTotal()
+	{
+		return total_;
+	}
+
+	/**
+	 * @return the occurrences of the category so far
+	 */
+	public synchronized int getCount(String category)
+	{
+		Category c = categories_.get(category);
+		return c == null ? 0 : c.count;
+	}
+
+	/**
+	 * @return a table of the categories in the order they were first seen, with their counts, and the kept examples
+	 */
+	public synchronized List<String> getSummary()
+	{
+		ArrayList<String> result = new ArrayList<>();
+		result.add(String.format("%10s  %s", "Count", "Error"));
+		for (Entry<String, Category> entry : categories_.entrySet())
+		{
+			result.add(String.format("%10d  %s", entry.getValue().count, entry.getKey()));
+			for (String example : entry.getValue().examples)
+			{
+				result.add(String.format("%10s    e.g. %s", "", example));
+			}
+		}
+		result.add(String.format("%10d  %s", total_, "Total"));
+		return result;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (errorFile_ != null)
+		{
+			errorFile_.close();
+		}
+		if (error_ != null)
+		{
+			throw new IOException("Failed writing the error file", error_);
+		}
+	}
+}
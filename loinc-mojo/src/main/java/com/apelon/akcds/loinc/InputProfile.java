@@ -0,0 +1,243 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import org.apache.commons.io.input.BOMInputStream;
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ *
+ * {@link InputProfile}
+ *
+ * A quick pass over the input files, before the conversion, that counts the rows of each file and the distinct values of the
+ * axis and class columns - so the converter can create its maps and lists at the size they will end up, rather than growing
+ * them (and rehashing) all the way through a release.
+ *
+ * The scan only counts - it builds no concepts, and keeps nothing but the distinct values while it runs.
+ */
+public class InputProfile
+{
+	private int dataRows_ = 0;
+	private final LinkedHashMap<String, Integer> distinctValues_ = new LinkedHashMap<>();
+	private int multiAxialRows_ = 0;
+	private int multiAxialCodes_ = 0;
+	private int mapToRows_ = 0;
+	private int mapToCodes_ = 0;
+	private int mapToMaxFanOut_ = 0;
+	private int sourceOrgRows_ = 0;
+	private long scanMillis_;
+
+	/**
+	 * @param data the LOINC data file reader - read to the end, and closed
+	 * @param distinctColumns the data file columns to count distinct values of
+	 * @param multiAxial the multi-axial hierarchy reader - read to the end, and closed.  May be null.
+	 * @param mapTo the map_to.csv file - may be null
+	 * @param sourceOrg the source organization reader - read to the end, and closed.  May be null.
+	 */
+	public static InputProfile scan(LOINCReader data, Collection<String> distinctColumns, LOINCReader multiAxial, File mapTo, LOINCReader sourceOrg)
+			throws IOException
+	{
+		long start = System.currentTimeMillis();
+		InputProfile result = new InputProfile();
+
+		data.getHeader();  // the txt reader only maps the columns once it has read the header
+		ArrayList<Integer> columns = new ArrayList<>();
+		ArrayList<HashSet<String>> values = new ArrayList<>();
+		for (String column : distinctColumns)
+		{
+			Integer index = data.getFieldMap().get(column);
+			if (index != null)
+			{
+				columns.add(index);
+				values.add(new HashSet<String>());
+			}
+		}
+		RowBatch batch = data.newBatch(1000);
+		int read = data.readBatch(batch);
+		while (read > 0)
+		{
+			result.dataRows_ += read;
+			for (int c = 0; c < columns.size(); c++)
+			{
+				String[] column = batch.getColumn(columns.get(c));
+				HashSet<String> distinct = values.get(c);
+				for (int row = 0; row < read; row++)
+				{
+					if (column[row] != null && column[row].length() > 0)
+					{
+						distinct.add(column[row]);
+					}
+				}
+			}
+			read = data.readBatch(batch);
+		}
+		data.close();
+		for (int c = 0; c < columns.size(); c++)
+		{
+			result.distinctValues_.put(data.getFieldMapInverse().get(columns.get(c)), values.get(c).size());
+		}
+		values = null;
+
+		if (multiAxial != null)
+		{
+			// PATH_TO_ROOT,SEQUENCE,IMMEDIATE_PARENT,CODE,CODE_TEXT
+			HashSet<String> codes = new HashSet<>();
+			String[] line = multiAxial.readLine();
+			while (line != null)
+			{
+				result.multiAxialRows_++;
+				if (line.length > 3 && line[3] != null && line[3].length() > 0)
+				{
+					codes.add(line[3]);
+				}
+				line = multiAxial.readLine();
+			}
+			multiAxial.close();
+			result.multiAxialCodes_ = codes.size();
+		}
+
+		if (mapTo != null)
+		{
+			HashMap<String, Integer> fanOut = new HashMap<>();
+			CSVReader reader = new CSVReader(new BufferedReader(new InputStreamReader(new BOMInputStream(new FileInputStream(mapTo)))));
+			try
+			{
+				int keyColumn = Math.max(0, Arrays.asList(reader.readNext()).indexOf("LOINC"));
+				String[] line = reader.readNext();
+				while (line != null)
+				{
+					if (line.length > keyColumn && line[keyColumn] != null && line[keyColumn].length() > 0)
+					{
+						result.mapToRows_++;
+						Integer count = fanOut.get(line[keyColumn]);
+						count = (count == null ? 1 : count + 1);
+						fanOut.put(line[keyColumn], count);
+						result.mapToMaxFanOut_ = Math.max(result.mapToMaxFanOut_, count);
+					}
+					line = reader.readNext();
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+			result.mapToCodes_ = fanOut.size();
+		}
+
+		if (sourceOrg != null)
+		{
+			while (sourceOrg.readLine() != null)
+			{
+				result.sourceOrgRows_++;
+			}
+			sourceOrg.close();
+		}
+
+		result.scanMillis_ = System.currentTimeMillis() - start;
+		return result;
+	}
+
+	/**
+	 * @return the initial capacity for a hash map or set that will hold <code>expected</code> entries without resizing
+	 */
+	public static int capacity(int expected)
+	{
+		return (int) (Math.max(12, expected) / 0.75f) + 1;
+	}
+
+	public int getDataRows()
+	{
+		return dataRows_;
+	}
+
+	/**
+	 * @return the number of distinct values in the data file column - 0 if it wasn't counted
+	 */
+	public int getDistinctValues(String column)
+	{
+		Integer result = distinctValues_.get(column);
+		return result == null ? 0 : result;
+	}
+
+	/**
+	 * @return the total of the distinct values of all of the counted columns - each becomes an axis or class concept
+	 */
+	public int getTotalDistinctValues()
+	{
+		int result = 0;
+		for (int count : distinctValues_.values())
+		{
+			result += count;
+		}
+		return result;
+	}
+
+	public int getMultiAxialRows()
+	{
+		return multiAxialRows_;
+	}
+
+	public int getMultiAxialCodes()
+	{
+		return multiAxialCodes_;
+	}
+
+	public int getMapToRows()
+	{
+		return mapToRows_;
+	}
+
+	public int getMapToMaxFanOut()
+	{
+		return mapToMaxFanOut_;
+	}
+
+	public int getSourceOrgRows()
+	{
+		return sourceOrgRows_;
+	}
+
+	public List<String> getSummary()
+	{
+		ArrayList<String> result = new ArrayList<>();
+		result.add("Input profile (" + scanMillis_ + " ms):");
+		result.add("  Data rows: " + dataRows_);
+		for (Entry<String, Integer> entry : distinctValues_.entrySet())
+		{
+			result.add("  Distinct " + entry.getKey() + ": " + entry.getValue());
+		}
+		result.add("  Multi-axial rows: " + multiAxialRows_ + ", distinct codes: " + multiAxialCodes_);
+		result.add("  MAP_TO rows: " + mapToRows_ + " for " + mapToCodes_ + " codes, at most " + mapToMaxFanOut_ + " per code");
+		result.add("  Source organizations: " + sourceOrgRows_);
+		return result;
+	}
+}
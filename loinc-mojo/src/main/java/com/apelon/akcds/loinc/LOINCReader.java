@@ -20,6 +20,7 @@ package com.apelon.akcds.loinc;
 
 import java.io.IOException;
 import java.util.Hashtable;
+import org.apache.commons.io.input.CountingInputStream;
 
 /**
  * 
@@ -36,11 +37,29 @@ public abstract class LOINCReader
 	public abstract String getReleaseDate();
 	public abstract String[] getHeader();
 	public abstract String[] readLine() throws IOException;
+	/**
+	 * Clears the batch, and refills it with up to {@link RowBatch#capacity()} rows.
+	 * @return the number of rows read - 0 at the end of the file
+	 */
+	public abstract int readBatch(RowBatch batch) throws IOException;
 	public abstract void close() throws IOException;
 	
 	protected int fieldCount_ = 0;
 	protected Hashtable<String, Integer> fieldMap_ = new Hashtable<String, Integer>();
 	protected Hashtable<Integer, String> fieldMapInverse_ = new Hashtable<Integer, String>();
+	protected CountingInputStream bytesRead_;
+	// The data rows read so far, quarantined ones included - the header isn't counted
+	protected long rowNumber_ = 0;
+	private Quarantine quarantine_;
+	private String quarantineSource_;
+	
+	/**
+	 * @return the bytes read from the file so far - includes whatever the reader has buffered ahead.  -1 if not known.
+	 */
+	public long getBytesRead()
+	{
+		return bytesRead_ == null ? -1 : bytesRead_.getByteCount();
+	}
 	
 	public Hashtable<String, Integer> getFieldMap()
 	{
@@ -51,4 +70,35 @@ public abstract class LOINCReader
 	{
 		return fieldMapInverse_;
 	}
+	
+	/**
+	 * Quarantine the rows with more fields than the header, rather than failing on the first one.
+	 * @param source the name to report the rows under - the file name
+	 */
+	public void setQuarantine(Quarantine quarantine, String source)
+	{
+		quarantine_ = quarantine;
+		quarantineSource_ = source;
+	}
+
+	/**
+	 * Called by the readers for a row with more fields than the header, which they then skip.  Without a quarantine, this fails the
+	 * run, as it always has.
+	 */
+	protected void tooManyFields(long rowNumber, String row) throws IOException
+	{
+		if (quarantine_ == null)
+		{
+			throw new RuntimeException("Data error - to many fields found on line: " + row);
+		}
+		quarantine_.add(quarantineSource_, rowNumber, "Too many fields", null, row);
+	}
+
+	/**
+	 * @return a batch sized for the columns of this file
+	 */
+	public RowBatch newBatch(int capacity)
+	{
+		return new RowBatch(getHeader().length, capacity);
+	}
 }
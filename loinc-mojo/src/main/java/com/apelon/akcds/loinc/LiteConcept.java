@@ -0,0 +1,421 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import gov.va.oia.terminology.converters.sharedUtils.EConceptUtility;
+import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.Property;
+import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.ValuePropertyPair;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.UUID;
+import org.ihtsdo.otf.tcc.api.coordinate.Status;
+import org.ihtsdo.otf.tcc.dto.TtkConceptChronicle;
+import org.ihtsdo.otf.tcc.dto.component.relationship.TtkRelationshipChronicle;
+
+/**
+ *
+ * {@link LiteConcept}
+ *
+ * A compact stand in for the {@link TtkConceptChronicle} of a LOINC code, held from the data file parse until the concept is
+ * written.  Properties are indexes into a shared {@link Dictionary}, short values are interned, and UUIDs are pairs of longs -
+ * no description, annotation or relationship objects (each with its own UUIDs, and version lists) exist until
+ * {@link #materialize(EConceptUtility, Dictionary)} builds the full concept, just before it is written.
+ *
+ * Materializing makes the same {@link EConceptUtility} calls, in the same order, that building the concept directly would have,
+ * so the concept written is identical.
+ */
+public class LiteConcept
+{
+	private static final int[] NO_INTS = new int[0];
+	private static final long[] NO_LONGS = new long[0];
+	private static final String[] NO_STRINGS = new String[0];
+
+	/**
+	 * The properties used by the concepts, and the pool of interned values.  Not thread safe - only the parse adds to it.
+	 */
+	public static class Dictionary
+	{
+		private static final int MAX_INTERNED_LENGTH = 64;
+
+		private final ArrayList<Property> properties_ = new ArrayList<>();
+		private final HashMap<Property, Integer> propertyIds_ = new HashMap<>();
+		private final HashMap<String, String> values_;
+
+		public Dictionary()
+		{
+			this(0);
+		}
+
+		/**
+		 * @param expectedValues the number of distinct short values expected, if known - 0 if not
+		 */
+		public Dictionary(int expectedValues)
+		{
+			values_ = new HashMap<>((int) (Math.max(12, expectedValues) / 0.75f) + 1);
+		}
+
+		int getId(Property property)
+		{
+			Integer id = propertyIds_.get(property);
+			if (id == null)
+			{
+				id = properties_.size();
+				properties_.add(property);
+				propertyIds_.put(property, id);
+			}
+			return id;
+		}
+
+		Property getProperty(int id)
+		{
+			return properties_.get(id);
+		}
+
+		/**
+		 * Axis values, ranks, statuses and the like repeat across thousands of codes - keep one copy.  Long values (the names)
+		 * rarely repeat, so they aren't worth a pool entry.
+		 */
+		String intern(String value)
+		{
+			if (value == null || value.length() > MAX_INTERNED_LENGTH)
+			{
+				return value;
+			}
+			String existing = values_.get(value);
+			if (existing == null)
+			{
+				values_.put(value, value);
+				return value;
+			}
+			return existing;
+		}
+	}
+
+	/**
+	 * Gathers one concept at a time into reusable buffers, then copies them to an exactly sized {@link LiteConcept}.
+	 */
+	public static class Builder
+	{
+		private final Dictionary dictionary_;
+		private UUID uuid_;
+		private long time_;
+		private Status status_;
+		private String code_;
+		private final Buffer annotations_ = new Buffer();
+		private final Buffer relationships_ = new Buffer();
+		private final Buffer descriptions_ = new Buffer();
+		private long[] targets_ = new long[32];
+		private int[] commentProperties_ = new int[16];
+		private String[] comments_ = new String[16];
+		private boolean hasComments_;
+		private int built_ = 0;
+
+		public Builder(Dictionary dictionary)
+		{
+			dictionary_ = dictionary;
+		}
+
+		/**
+		 * Start a new concept, dropping anything gathered for the last one.
+		 */
+		public void start(UUID uuid, long time, Status status, String code)
+		{
+			uuid_ = uuid;
+			time_ = time;
+			status_ = status;
+			code_ = code;
+			annotations_.size = 0;
+			relationships_.size = 0;
+			descriptions_.size = 0;
+			hasComments_ = false;
+		}
+
+		/**
+		 * The annotation is active unless the property is disabled.
+		 */
+		public void addAnnotation(Property property, String value)
+		{
+			annotations_.add(dictionary_.getId(property), dictionary_.intern(value));
+		}
+
+		/**
+		 * @param byUuid true to add the relationship by the UUID of the property, rather than by the property itself - these are
+		 * distinct {@link EConceptUtility} calls
+		 */
+		public void addRelationship(Property type, boolean byUuid, UUID target)
+		{
+			int index = relationships_.size;
+			relationships_.add(encodeType(dictionary_.getId(type), byUuid), null);
+			if (targets_.length < (index + 1) * 2)
+			{
+				targets_ = Arrays.copyOf(targets_, targets_.length * 2);
+				commentProperties_ = Arrays.copyOf(commentProperties_, targets_.length / 2);
+				comments_ = Arrays.copyOf(comments_, targets_.length / 2);
+			}
+			targets_[index * 2] = target.getMostSignificantBits();
+			targets_[index * 2 + 1] = target.getLeastSignificantBits();
+			comments_[index] = null;
+		}
+
+		/**
+		 * Annotate the relationship added last.
+		 */
+		public void setRelationshipComment(Property type, String comment)
+		{
+			int index = relationships_.size - 1;
+			commentProperties_[index] = dictionary_.getId(type);
+			comments_[index] = comment;
+			hasComments_ = true;
+		}
+
+		public void addDescription(Property type, String value)
+		{
+			descriptions_.add(dictionary_.getId(type), value);
+		}
+
+		public int getDescriptionCount()
+		{
+			return descriptions_.size;
+		}
+
+		public LiteConcept build()
+		{
+			LiteConcept result = new LiteConcept();
+			result.index_ = built_++;
+			result.msb_ = uuid_.getMostSignificantBits();
+			result.lsb_ = uuid_.getLeastSignificantBits();
+			result.time_ = time_;
+			result.status_ = status_;
+			result.code_ = code_;
+			result.annotationProperties_ = annotations_.ids();
+			result.annotationValues_ = annotations_.values();
+			result.relationshipTypes_ = relationships_.ids();
+			result.relationshipTargets_ = (relationships_.size == 0 ? NO_LONGS : Arrays.copyOf(targets_, relationships_.size * 2));
+			if (hasComments_)
+			{
+				result.commentProperties_ = Arrays.copyOf(commentProperties_, relationships_.size);
+				result.comments_ = Arrays.copyOf(comments_, relationships_.size);
+			}
+			result.descriptionProperties_ = descriptions_.ids();
+			result.descriptionValues_ = descriptions_.values();
+			return result;
+		}
+	}
+
+	private static class Buffer
+	{
+		int size = 0;
+		int[] ids = new int[32];
+		String[] values = new String[32];
+
+		void add(int id, String value)
+		{
+			if (size == ids.length)
+			{
+				ids = Arrays.copyOf(ids, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			ids[size] = id;
+			values[size++] = value;
+		}
+
+		int[] ids()
+		{
+			return size == 0 ? NO_INTS : Arrays.copyOf(ids, size);
+		}
+
+		String[] values()
+		{
+			return size == 0 ? NO_STRINGS : Arrays.copyOf(values, size);
+		}
+	}
+
+	private int index_;
+	private long msb_, lsb_;
+	private long time_;
+	private Status status_;
+	private String code_;
+	private int[] annotationProperties_;
+	private String[] annotationValues_;
+	// Property id, or ~id for a relationship added by the property UUID
+	private int[] relationshipTypes_;
+	// Target msb, lsb pairs
+	private long[] relationshipTargets_;
+	// null unless a relationship has a comment
+	private int[] commentProperties_;
+	private String[] comments_;
+	private int[] descriptionProperties_;
+	private String[] descriptionValues_;
+
+	private LiteConcept()
+	{
+	}
+
+	private static int encodeType(int propertyId, boolean byUuid)
+	{
+		return byUuid ? ~propertyId : propertyId;
+	}
+
+	private static int decodeType(int type)
+	{
+		return type < 0 ? ~type : type;
+	}
+
+	/**
+	 * @return the order this concept was built in, by its builder, from 0 - a dense index over the concepts, for bitmaps
+	 */
+	public int getIndex()
+	{
+		return index_;
+	}
+
+	public UUID getUuid()
+	{
+		return new UUID(msb_, lsb_);
+	}
+
+	public String getCode()
+	{
+		return code_;
+	}
+
+	public Status getStatus()
+	{
+		return status_;
+	}
+
+	/**
+	 * @return the first description value, as {@link ConceptGraph#getName(UUID)} - the code if there are none
+	 */
+	public String getName()
+	{
+		return descriptionValues_.length > 0 ? descriptionValues_[0] : code_;
+	}
+
+	public int getRelationshipCount()
+	{
+		return relationshipTypes_.length;
+	}
+
+	public UUID getRelationshipType(Dictionary dictionary, int index)
+	{
+		return dictionary.getProperty(decodeType(relationshipTypes_[index])).getUUID();
+	}
+
+	public UUID getRelationshipTarget(int index)
+	{
+		return new UUID(relationshipTargets_[index * 2], relationshipTargets_[index * 2 + 1]);
+	}
+
+	public boolean hasRelationshipTo(UUID target)
+	{
+		long msb = target.getMostSignificantBits();
+		long lsb = target.getLeastSignificantBits();
+		for (int i = 0; i < relationshipTargets_.length; i += 2)
+		{
+			if (relationshipTargets_[i] == msb && relationshipTargets_[i + 1] == lsb)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Add a relationship after the concept is built - for the multi-axial links, which come from a different file.  Copies the
+	 * relationship arrays, so should be rare.
+	 */
+	public void addRelationship(Dictionary dictionary, Property type, boolean byUuid, UUID target)
+	{
+		int count = relationshipTypes_.length;
+		relationshipTypes_ = Arrays.copyOf(relationshipTypes_, count + 1);
+		relationshipTypes_[count] = encodeType(dictionary.getId(type), byUuid);
+		relationshipTargets_ = Arrays.copyOf(relationshipTargets_, (count + 1) * 2);
+		relationshipTargets_[count * 2] = target.getMostSignificantBits();
+		relationshipTargets_[count * 2 + 1] = target.getLeastSignificantBits();
+		if (comments_ != null)
+		{
+			commentProperties_ = Arrays.copyOf(commentProperties_, count + 1);
+			comments_ = Arrays.copyOf(comments_, count + 1);
+		}
+	}
+
+	/**
+	 * Build the full concept.  The result isn't kept - write it, and let it go.
+	 */
+	public TtkConceptChronicle materialize(EConceptUtility conceptUtility, Dictionary dictionary)
+	{
+		return materialize(conceptUtility, dictionary, Collections.<Property>emptySet());
+	}
+
+	/**
+	 * Build the full concept, leaving out the annotations and relationships of the omitted properties - for the output variants.
+	 */
+	public TtkConceptChronicle materialize(EConceptUtility conceptUtility, Dictionary dictionary, Set<Property> omit)
+	{
+		TtkConceptChronicle concept = conceptUtility.createConcept(getUuid(), time_, status_);
+		for (int i = 0; i < annotationProperties_.length; i++)
+		{
+			Property p = dictionary.getProperty(annotationProperties_[i]);
+			if (omit.contains(p))
+			{
+				continue;
+			}
+			conceptUtility.addStringAnnotation(concept, annotationValues_[i], p.getUUID(), (p.isDisabled() ? Status.INACTIVE : Status.ACTIVE));
+		}
+		for (int i = 0; i < relationshipTypes_.length; i++)
+		{
+			Property type = dictionary.getProperty(decodeType(relationshipTypes_[i]));
+			if (omit.contains(type))
+			{
+				continue;
+			}
+			TtkRelationshipChronicle r;
+			if (relationshipTypes_[i] < 0)
+			{
+				r = conceptUtility.addRelationship(concept, getRelationshipTarget(i), type.getUUID(), null);
+			}
+			else
+			{
+				r = conceptUtility.addRelationship(concept, getRelationshipTarget(i), type, null);
+			}
+			if (comments_ != null && comments_[i] != null)
+			{
+				conceptUtility.addStringAnnotation(r, comments_[i], dictionary.getProperty(commentProperties_[i]).getUUID(), Status.ACTIVE);
+			}
+		}
+		if (descriptionProperties_.length == 0)
+		{
+			conceptUtility.addFullySpecifiedName(concept, code_);
+		}
+		else
+		{
+			ArrayList<ValuePropertyPair> descriptions = new ArrayList<>(descriptionProperties_.length);
+			for (int i = 0; i < descriptionProperties_.length; i++)
+			{
+				descriptions.add(new ValuePropertyPair(descriptionValues_[i], dictionary.getProperty(descriptionProperties_[i])));
+			}
+			conceptUtility.addDescriptions(concept, descriptions);
+		}
+		return concept;
+	}
+}
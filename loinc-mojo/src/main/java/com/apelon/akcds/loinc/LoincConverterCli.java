@@ -0,0 +1,184 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ *
+ * {@link LoincConverterCli}
+ *
+ * Runs the converter without maven - the main class of the runnable jar built by the "cli" profile.  With --watch, it keeps
+ * running, and reconverts on every change to the inputs - see {@link ConversionWatcher}.  Startup (JVM start to the
+ * converter starting) is reported with the phase timing, to show what the class data sharing archive saves.
+ */
+public class LoincConverterCli
+{
+	// Loaded (not run) by --warmup, so the build can record them into the class data sharing archive
+	private static final String[] WARMUP_CLASSES = new String[] {
+		"com.apelon.akcds.loinc.LoincToEConcepts",
+		"com.apelon.akcds.loinc.CSVFileReader",
+		"com.apelon.akcds.loinc.ParallelCSVFileReader",
+		"com.apelon.akcds.loinc.TxtFileReader",
+		"com.apelon.akcds.loinc.RowBatch",
+		"com.apelon.akcds.loinc.PhaseScheduler",
+		"com.apelon.akcds.loinc.ConceptWriteOrder",
+		"com.apelon.akcds.loinc.LiteConcept",
+		"com.apelon.akcds.loinc.ErrorCollector",
+		"com.apelon.akcds.loinc.NameMap",
+		"com.apelon.akcds.loinc.ParsedFileCache",
+		"com.apelon.akcds.loinc.index.LoincIndex",
+		"com.apelon.akcds.loinc.index.NameSearchIndex",
+		"com.apelon.akcds.loinc.index.MultiAxialClosure",
+		"com.apelon.akcds.loinc.jbin.JbinIndexWriter",
+		"com.apelon.akcds.loinc.export.ColumnarWriter",
+		"com.apelon.akcds.loinc.util.CompanionFileJoin",
+		"com.apelon.akcds.loinc.util.ExternalSorter",
+		"com.apelon.akcds.loinc.util.UuidDebugSink",
+		"gov.va.oia.terminology.converters.sharedUtils.EConceptUtility",
+		"gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil",
+		"gov.va.oia.terminology.converters.sharedUtils.stats.ConverterUUID",
+		"org.ihtsdo.otf.tcc.dto.TtkConceptChronicle",
+		"au.com.bytecode.opencsv.CSVReader"};
+
+	private static void usage()
+	{
+		System.err.println("Usage: java -jar loinc-mojo-cli.jar -i inputDir -o outputDir [options]");
+		System.err.println("  -i, --input dir              the folder holding the LOINC release files");
+		System.err.println("  -o, --output dir             where to write the jbin and the other outputs");
+		System.err.println("  -s, --skip-list a,b,c        annotations to leave out");
+		System.err.println("  --result-version v           the converter result version recorded in the content");
+		System.err.println("  --loader-version v           the loader version recorded in the content");
+		System.err.println("  -p, --param name=value       any other converter parameter (outputOrder, phaseThreads, writeNameIndex...)");
+		System.err.println("  -w, --watch                  keep running, and reconvert whenever an input or class mapping file changes");
+		System.err.println("  -c, --class-mappings dir     read the classMappings files from this folder (and watch it), not the jar");
+		System.err.println("  --warmup                     load the converter classes and exit - used to build the class data sharing archive");
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		long startup = ManagementFactory.getRuntimeMXBean().getUptime();
+		// Kept by name, so watch mode can apply the same settings to a new converter for each run
+		LinkedHashMap<String, String> settings = new LinkedHashMap<>();
+		settings.put("converterResultVersion", "cli");
+		settings.put("loaderVersion", "cli");
+		boolean watch = false;
+		File classMappingsDir = null;
+		LoincToEConcepts converter = new LoincToEConcepts();
+
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				String arg = args[i];
+				if (arg.equals("--warmup"))
+				{
+					for (String c : WARMUP_CLASSES)
+					{
+						Class.forName(c, false, LoincConverterCli.class.getClassLoader());
+					}
+					return;
+				}
+				if (arg.equals("-w") || arg.equals("--watch"))
+				{
+					watch = true;
+					continue;
+				}
+				if (i + 1 >= args.length)
+				{
+					throw new IllegalArgumentException("Missing value for " + arg);
+				}
+				String value = args[++i];
+				if (arg.equals("-i") || arg.equals("--input"))
+				{
+					settings.put("inputFileLocation", value);
+				}
+				else if (arg.equals("-o") || arg.equals("--output"))
+				{
+					settings.put("outputDirectory", value);
+				}
+				else if (arg.equals("-s") || arg.equals("--skip-list"))
+				{
+					settings.put("annotationSkipList", value);
+				}
+				else if (arg.equals("--result-version"))
+				{
+					settings.put("converterResultVersion", value);
+				}
+				else if (arg.equals("--loader-version"))
+				{
+					settings.put("loaderVersion", value);
+				}
+				else if (arg.equals("-p") || arg.equals("--param"))
+				{
+					int split = value.indexOf('=');
+					if (split <= 0)
+					{
+						throw new IllegalArgumentException("Expected name=value, found " + value);
+					}
+					settings.put(value.substring(0, split), value.substring(split + 1));
+				}
+				else if (arg.equals("-c") || arg.equals("--class-mappings"))
+				{
+					classMappingsDir = new File(value);
+					if (!classMappingsDir.isDirectory())
+					{
+						throw new IllegalArgumentException("Not a folder: " + value);
+					}
+				}
+				else
+				{
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if (!settings.containsKey("inputFileLocation") || !settings.containsKey("outputDirectory"))
+			{
+				throw new IllegalArgumentException("The input and output folders are required");
+			}
+			// Fail on a bad parameter now, rather than at the first conversion
+			for (Entry<String, String> setting : settings.entrySet())
+			{
+				converter.configure(setting.getKey(), setting.getValue());
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			usage();
+			System.exit(1);
+		}
+
+		converter.setStartupMillis(startup);
+		if (watch)
+		{
+			new ConversionWatcher(settings, classMappingsDir).run();
+		}
+		else
+		{
+			if (classMappingsDir != null)
+			{
+				converter.setCache(new ParsedFileCache(classMappingsDir));
+			}
+			converter.execute();
+		}
+	}
+}
@@ -26,37 +26,68 @@ import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.Property;
 import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.PropertyType;
 import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.ValuePropertyPair;
 import gov.va.oia.terminology.converters.sharedUtils.stats.ConverterUUID;
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.ihtsdo.otf.tcc.api.coordinate.Status;
 import org.ihtsdo.otf.tcc.api.metadata.binding.Taxonomies;
 import org.ihtsdo.otf.tcc.dto.TtkConceptChronicle;
 import org.ihtsdo.otf.tcc.dto.component.relationship.TtkRelationshipChronicle;
+import com.apelon.akcds.loinc.export.ColumnarTable;
+import com.apelon.akcds.loinc.export.ColumnarWriter;
+import com.apelon.akcds.loinc.index.LoincIndex;
+import com.apelon.akcds.loinc.index.MultiAxialClosure;
+import com.apelon.akcds.loinc.index.NameSearchIndex;
+import com.apelon.akcds.loinc.jbin.JbinChunker;
+import com.apelon.akcds.loinc.jbin.JbinIndexWriter;
+import com.apelon.akcds.loinc.jbin.JbinReader;
+import com.apelon.akcds.loinc.jfr.ConceptCreatedEvent;
+import com.apelon.akcds.loinc.jfr.FlushRecordingOutputStream;
+import com.apelon.akcds.loinc.jfr.PathEdgesEvent;
+import com.apelon.akcds.loinc.jfr.RowBatchEvent;
+import com.apelon.akcds.loinc.util.CompanionFileJoin;
+import com.apelon.akcds.loinc.util.UuidDebugSink;
 import com.apelon.akcds.loinc.propertyTypes.PT_Annotations;
 import com.apelon.akcds.loinc.propertyTypes.PT_ContentVersion;
 import com.apelon.akcds.loinc.propertyTypes.PT_Descriptions;
+import com.apelon.akcds.loinc.propertyTypes.PT_PartRelations;
 import com.apelon.akcds.loinc.propertyTypes.PT_Refsets;
 import com.apelon.akcds.loinc.propertyTypes.PT_Relations;
 import com.apelon.akcds.loinc.propertyTypes.PT_SkipAxis;
 import com.apelon.akcds.loinc.propertyTypes.PT_SkipClass;
+import com.apelon.akcds.loinc.propertyTypes.PT_SkipPart;
 import com.apelon.akcds.loinc.propertyTypes.PT_SkipOther;
 
 /**
@@ -84,7 +115,18 @@ public class LoincToEConcepts extends ConverterBaseMojo
 	protected Hashtable<String, Integer> fieldMap_;
 	protected Hashtable<Integer, String> fieldMapInverse_;
 	
-	private HashMap<String, HashMap<String, String>> mapToData = new HashMap<>();
+	// MAP_TO moved to a different file in 2.42 - joined to the data file as it is read
+	private CompanionFileJoin mapTo_;
+	private static final int COMPANION_SORT_BUFFER = 100000;
+
+	// The Part file and the LoincPartLink file(s), from the accessory files of the newer releases.  The parts are written as the
+	// Part file is read, and the links are joined to the data file as it is read, like MAP_TO - neither is held in memory.
+	private File partFile_;
+	private final ArrayList<File> partLinkFiles_ = new ArrayList<>();
+	private final ArrayList<PartLinks> partLinks_ = new ArrayList<>();
+	private LOINCReader partData_;
+	private TreeSet<String> partTypes_;
+	private PT_SkipPart pt_SkipPart_;
 
 	// Various caches for performance reasons
 	private Hashtable<String, PropertyType> propertyToPropertyType_ = new Hashtable<String, PropertyType>();
@@ -93,10 +135,216 @@ public class LoincToEConcepts extends ConverterBaseMojo
 
 	Hashtable<UUID, TtkConceptChronicle> concepts_ = new Hashtable<UUID, TtkConceptChronicle>();
 
+	// The LOINC codes themselves - by far the most concepts - are held compactly until they are written
+	private HashMap<UUID, LiteConcept> dataConcepts_ = new HashMap<>();
+	private LiteConcept.Dictionary liteDictionary_ = new LiteConcept.Dictionary();
+	private LiteConcept.Builder liteConcept_ = new LiteConcept.Builder(liteDictionary_);
+	private final ConceptGraph graph_ = new ConverterGraph();
+
 	private NameMap classMapping_;
 	
 	private int skippedDeletedItems = 0;
 
+	/**
+	 * The order the data concepts are written to the jbin file in - one of TOPOLOGICAL, CLASS or UUID.  
+	 * See {@link ConceptWriteOrder}.  All choices are deterministic.
+	 */
+	@Parameter (required = false, defaultValue = "TOPOLOGICAL")
+	protected ConceptWriteOrder outputOrder = ConceptWriteOrder.TOPOLOGICAL;
+
+	/**
+	 * Write the random access index (loincEConcepts.jbin.idx) beside the jbin file.  See {@link com.apelon.akcds.loinc.jbin.JbinIndex}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean writeJbinIndex = false;
+
+	/**
+	 * Write the code / axis / class lookup index (loincIndex.bin).  See {@link LoincIndex}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean writeLookupIndex = false;
+
+	private LoincIndex.Builder loincIndex_;
+
+	/**
+	 * Write the full text name search index (loincNameIndex.bin).  See {@link NameSearchIndex}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean writeNameIndex = false;
+
+	private NameSearchIndex.Builder nameIndex_;
+
+	/**
+	 * Write the columnar export of the LOINC table (loincColumns.bin) - axis, class, status, rank and description columns.
+	 * See {@link ColumnarTable}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean writeColumnarExport = false;
+
+	private ColumnarWriter columnar_;
+	private int[] columnarSource_;
+	private String[] columnarRow_;
+
+	/**
+	 * Write the multi-axial ancestor / descendant closure index (loincMultiAxialClosure.bin).  See {@link MultiAxialClosure}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean writeMultiAxialClosure = false;
+
+	private CountingOutputStream jbinPosition_;
+	private JbinIndexWriter jbinIndex_;
+
+	/**
+	 * Also split the jbin into content defined chunks (loincEConcepts.jbin.chunks, named by their SHA-256), with a manifest
+	 * (loincEConcepts.jbin.manifest), so a site only has to fetch the chunks that changed since the last build.  See {@link JbinChunker}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean writeChunkedJbin = false;
+
+	/**
+	 * The average chunk size to aim for, in bytes, when writeChunkedJbin is set.
+	 */
+	@Parameter (required = false, defaultValue = "262144")
+	protected int jbinChunkSize = 262144;
+
+	private JbinChunker jbinChunker_;
+
+	/**
+	 * The threads to parse each of the CSV release files with - the file is split into record aligned ranges that are parsed at
+	 * once, and handed back in order.  1 reads the file sequentially.  See {@link ParallelCSVFileReader}.
+	 */
+	@Parameter (required = false, defaultValue = "1")
+	protected int parseThreads = 1;
+
+	/**
+	 * The most conversion phases to run at once.  The input files are parsed in parallel with each other, and with the metadata
+	 * load - 1 runs every phase in turn.  See {@link PhaseScheduler}.
+	 */
+	@Parameter (required = false, defaultValue = "4")
+	protected int phaseThreads = 4;
+
+	/**
+	 * 0 (the default) writes each refset concept - "All LOINC Concepts", and the rule refsets - as a single record, with every
+	 * member, at the end.  Otherwise, the most members a refset concept holds in memory: when it fills, the refset concept is
+	 * written with the members gathered so far, and they are released.  That saves heap, but the jbin then has several records for
+	 * each refset concept, each with its descriptions - so it relies on the loader merging the records that share a UUID, and the
+	 * jbin index and JbinDiff see several records for the concept.
+	 */
+	@Parameter (required = false, defaultValue = "0")
+	protected int refsetChunkSize = 0;
+
+	/**
+	 * A rules file defining more refsets, by conditions on the data file columns - evaluated as the rows are read.  Read from the
+	 * file system, or else the class path: refsetRules.txt is built in, with refsets by CLASSTYPE, by STATUS, and for the common
+	 * test and order ranks.  Empty for no extra refsets.  See {@link RefsetRule}.
+	 */
+	@Parameter (required = false, defaultValue = "")
+	protected String refsetRules = "";
+
+	private List<RefsetRule> refsetRules_ = new ArrayList<>();
+
+	/**
+	 * How to produce the UUID to seed string debug map - FULL (the default - every mapping held in memory, and dumped at the end),
+	 * STREAM (loincUuidDebugMap.txt.gz, written as the UUIDs are made) or NONE.  See {@link UuidDebugSink}.
+	 *
+	 * STREAM only has the concept level seeds the converter makes itself - the LOINC codes, axis and class values, parts,
+	 * multi-axial nodes and the metadata root.  The property metadata concepts, and the description, relationship, annotation and
+	 * refset member UUIDs, are made inside the shared library, and are only in the FULL dump.
+	 *
+	 * FULL keeps the shared ConverterUUID map, which is also what catches two different seeds making the same UUID - the
+	 * converter's guard against seed collisions.  STREAM and NONE turn the map off, saving one of the biggest things in the heap,
+	 * but the run is then not checked for duplicate UUIDs.  Use them for builds whose seeds have already been checked by a FULL run.
+	 */
+	@Parameter (required = false, defaultValue = "FULL")
+	protected UuidDebugSink.Mode uuidDebugMode = UuidDebugSink.Mode.FULL;
+
+	private UuidDebugSink uuidDebug_;
+
+	/**
+	 * How many examples of each kind of data error to print - the rest are only counted, and summarized at the end.
+	 */
+	@Parameter (required = false, defaultValue = "10")
+	protected int errorExamples = 10;
+
+	/**
+	 * Also write every data error to loincErrors.txt.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean writeErrorFile = false;
+
+	private ErrorCollector errors_;
+
+	/**
+	 * Skip the rows that can't be converted - too many fields, an unparseable date, a missing STATUS... - writing them to
+	 * loincQuarantine.txt, rather than failing the run on the first one.  See {@link Quarantine}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean quarantineBadRows = false;
+
+	/**
+	 * With quarantineBadRows, the most rows that may be skipped before the run fails anyway.  -1 for no limit.
+	 */
+	@Parameter (required = false, defaultValue = "100")
+	protected int maxQuarantinedRows = 100;
+
+	private Quarantine quarantine_;
+	// The axis and class concepts first seen on the row being converted - created only once the whole row has converted
+	private final LinkedHashMap<UUID, StagedConcept> stagedConcepts_ = new LinkedHashMap<>();
+
+	/**
+	 * Check every relationship target against the built concepts (in parallel with the jbin write), and report the dangling ones
+	 * to loincDanglingReferences.txt.  See {@link ReferenceCheck}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean verifyReferences = false;
+
+	private ReferenceCheck referenceCheck_;
+	private final ArrayList<UUID> writtenSeparately_ = new ArrayList<>();
+
+	/**
+	 * Extra jbin files to write from the same parse - variants/loincEConcepts-&lt;name&gt;.jbin, apart from the main jbin, so the
+	 * assembly doesn't pick them up - each with its own annotationSkipList, and with or without the deprecated codes and the
+	 * multi-axial hierarchy.  The data file is read once, keeping every column some output needs.  See {@link OutputVariant}.
+	 */
+	@Parameter (required = false)
+	protected List<OutputVariant> outputVariants;
+
+	// The concepts the multi-axial file created (not the LOINC codes it places), the main jbin's concept order, and the length of
+	// its metadata, source organizations and parts - which every variant shares
+	private final HashSet<UUID> multiAxialConcepts_ = new HashSet<>();
+	private List<UUID> writeOrder_;
+	private long sharedPrefixLength_;
+	private long releaseTime_;
+
+	/**
+	 * Scan the input files before converting, counting rows and distinct axis / class values, so the converter's maps and lists can
+	 * be created at their final size.  The profile is printed with the phase timing.  See {@link InputProfile}.
+	 */
+	@Parameter (required = false, defaultValue = "false")
+	protected boolean profileInputs = false;
+
+	// The PT_SkipAxis and PT_SkipClass columns - each distinct value becomes a concept
+	private static final List<String> PROFILED_COLUMNS = Arrays.asList("COMPONENT", "PROPERTY", "TIME_ASPCT", "SYSTEM", "SCALE_TYP",
+			"METHOD_TYP", "CLASS");
+	private InputProfile profile_;
+
+	private long startupMillis_ = -1;
+	private ParsedFileCache cache_;
+
+	// State handed from one phase to the next
+	private LOINCReader loincData_, sourceOrg_, loincMultiData_;
+	private String loincDataFileName_;
+	private File mapToFile_;
+	private File binaryOutputFile_;
+	private String version_;
+	private UUID metaDataRoot_;
+	private TtkConceptChronicle rootConcept_;
+	private TtkConceptChronicle loincRefset_;
+	private List<String[]> sourceOrgRows_;
+	private List<String[]> multiAxialRows_;
+	// The LP codes that are both in the part file and in the multi-axial hierarchy - the hierarchy node links to the part
+	private final HashSet<String> sharedParts_ = new HashSet<>();
+
 	/**
 	 * Used for debug. Sets up the same paths that maven would use.... allow the code to be run standalone.
 	 */
@@ -110,6 +358,118 @@ public class LoincToEConcepts extends ConverterBaseMojo
 		loincConverter.execute();
 	}
 	
+	/**
+	 * Set a mojo parameter by name, for running outside of maven - see {@link LoincConverterCli}.
+	 * @throws IllegalArgumentException for an unknown name, or a value that doesn't fit the parameter
+	 */
+	void configure(String name, String value)
+	{
+		switch (name)
+		{
+			case "inputFileLocation":
+				inputFileLocation = new File(value);
+				break;
+			case "outputDirectory":
+				outputDirectory = new File(value);
+				break;
+			case "converterResultVersion":
+				converterResultVersion = value;
+				break;
+			case "loaderVersion":
+				loaderVersion = value;
+				break;
+			case "annotationSkipList":
+				annotationSkipList = new ArrayList<>();
+				for (String s : value.split(","))
+				{
+					if (s.trim().length() > 0)
+					{
+						annotationSkipList.add(s.trim());
+					}
+				}
+				break;
+			case "outputOrder":
+				outputOrder = ConceptWriteOrder.valueOf(value.toUpperCase());
+				break;
+			case "uuidDebugMode":
+				uuidDebugMode = UuidDebugSink.Mode.valueOf(value.toUpperCase());
+				break;
+			case "phaseThreads":
+				phaseThreads = Integer.parseInt(value);
+				break;
+			case "refsetRules":
+				refsetRules = value;
+				break;
+			case "refsetChunkSize":
+				refsetChunkSize = Integer.parseInt(value);
+				break;
+			case "errorExamples":
+				errorExamples = Integer.parseInt(value);
+				break;
+			case "writeJbinIndex":
+				writeJbinIndex = Boolean.parseBoolean(value);
+				break;
+			case "writeLookupIndex":
+				writeLookupIndex = Boolean.parseBoolean(value);
+				break;
+			case "writeNameIndex":
+				writeNameIndex = Boolean.parseBoolean(value);
+				break;
+			case "writeColumnarExport":
+				writeColumnarExport = Boolean.parseBoolean(value);
+				break;
+			case "writeMultiAxialClosure":
+				writeMultiAxialClosure = Boolean.parseBoolean(value);
+				break;
+			case "quarantineBadRows":
+				quarantineBadRows = Boolean.parseBoolean(value);
+				break;
+			case "maxQuarantinedRows":
+				maxQuarantinedRows = Integer.parseInt(value);
+				break;
+			case "writeErrorFile":
+				writeErrorFile = Boolean.parseBoolean(value);
+				break;
+			case "verifyReferences":
+				verifyReferences = Boolean.parseBoolean(value);
+				break;
+			case "writeChunkedJbin":
+				writeChunkedJbin = Boolean.parseBoolean(value);
+				break;
+			case "jbinChunkSize":
+				jbinChunkSize = Integer.parseInt(value);
+				break;
+			case "profileInputs":
+				profileInputs = Boolean.parseBoolean(value);
+				break;
+			case "parseThreads":
+				parseThreads = Integer.parseInt(value);
+				break;
+			case "outputVariants":
+				outputVariants = OutputVariant.parseList(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown parameter " + name);
+		}
+	}
+
+	/**
+	 * Set by launchers that know when the JVM started - reported with the phase timing.
+	 */
+	void setStartupMillis(long startupMillis)
+	{
+		startupMillis_ = startupMillis;
+	}
+
+	/**
+	 * Read the input files through the cache, rather than straight from disk - for repeated conversions in one JVM.
+	 * See {@link ConversionWatcher}.
+	 */
+	void setCache(ParsedFileCache cache)
+	{
+		cache_ = cache;
+	}
+
 	@Override
 	protected boolean supportsAnnotationSkipList()
 	{
@@ -119,7 +479,8 @@ public class LoincToEConcepts extends ConverterBaseMojo
 	private void initProperties()
 	{
 		// Can't init these till we know the data version
-		propertyTypes_.add(new PT_Annotations(annotationSkipList));
+		List<String> skipList = parseSkipList();
+		propertyTypes_.add(new PT_Annotations(skipList));
 		propertyTypes_.add(new PT_Descriptions());
 		propertyTypes_.add(pt_SkipAxis_);
 		propertyTypes_.add(pt_SkipClass_);
@@ -134,23 +495,98 @@ public class LoincToEConcepts extends ConverterBaseMojo
 			r.addProperty("Has_" + s);
 		}
 		propertyTypes_.add(r);
-		propertyTypes_.add(new PT_SkipOther(annotationSkipList));
+		if (partTypes_ != null)
+		{
+			pt_SkipPart_ = new PT_SkipPart(partTypes_);
+			propertyTypes_.add(pt_SkipPart_);
+		}
+		if (partTypes_ != null || partLinks_.size() > 0)
+		{
+			TreeSet<String> linkProperties = new TreeSet<>();
+			for (PartLinks links : partLinks_)
+			{
+				linkProperties.addAll(links.join.getDistinctValues(links.typeColumn));
+			}
+			propertyTypes_.add(new PT_PartRelations(linkProperties));
+		}
+		propertyTypes_.add(new PT_SkipOther(skipList));
 
 		propertyTypes_.add(contentVersion_);
 		
 		pt_refsets_ = new PT_Refsets();
+		for (RefsetRule rule : refsetRules_)
+		{
+			rule.setProperty(pt_refsets_.addRefset(rule.getName()));
+		}
 		propertyTypes_.add(pt_refsets_);
 	}
 
+	/**
+	 * @return the columns no output wants - the annotationSkipList, less any column an output variant keeps.  The rest of each
+	 * output's skip list is left out as it is written.
+	 */
+	private List<String> parseSkipList()
+	{
+		if (outputVariants == null || outputVariants.size() == 0)
+		{
+			return annotationSkipList;
+		}
+		ArrayList<String> result = new ArrayList<>();
+		if (annotationSkipList != null)
+		{
+			result.addAll(annotationSkipList);
+		}
+		for (OutputVariant variant : outputVariants)
+		{
+			result.retainAll(variant.getAnnotationSkipList());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the properties to leave out of the LOINC codes of an output - the annotations in its skip list, and the multi-axial
+	 * links, if it doesn't have the multi-axial hierarchy
+	 */
+	private Set<Property> omittedProperties(List<String> skipList, boolean includeMultiAxial)
+	{
+		HashSet<Property> result = new HashSet<>();
+		if (skipList != null)
+		{
+			for (String name : skipList)
+			{
+				PropertyType pt = propertyToPropertyType_.get(name);
+				if (pt instanceof PT_Annotations)
+				{
+					result.add(pt.getProperty(name));
+				}
+			}
+		}
+		if (!includeMultiAxial)
+		{
+			result.add(propertyToPropertyType_.get("Multiaxial Child Of").getProperty("Multiaxial Child Of"));
+			if (propertyToPropertyType_.containsKey(PT_PartRelations.SAME_AS_PART))
+			{
+				result.add(propertyToPropertyType_.get(PT_PartRelations.SAME_AS_PART).getProperty(PT_PartRelations.SAME_AS_PART));
+			}
+		}
+		return result;
+	}
+
 	@Override
 	public void execute() throws MojoExecutionException
 	{
+		// The Flight Recorder events are created whether or not a recording is running - a JVM without JFR can't run the converter
+		try
+		{
+			Class.forName("jdk.jfr.Event");
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new MojoExecutionException("The LOINC converter needs a JVM with Flight Recorder (jdk.jfr) - 8u262 or later, or 11+.  This one is "
+					+ System.getProperty("java.version"));
+		}
+
 		ConsoleUtil.println("LOINC Processing Begins " + new Date().toString());
-		
-		LOINCReader loincData = null;
-		LOINCReader mapTo = null;
-		LOINCReader sourceOrg = null;
-		LOINCReader loincMultiData = null;
 
 		try
 		{
@@ -161,356 +597,1165 @@ public class LoincToEConcepts extends ConverterBaseMojo
 				throw new MojoExecutionException("LoincDataFiles must point to a directory containing the 3 required loinc data files");
 			}
 			
+			if (outputVariants != null)
+			{
+				OutputVariant.validate(outputVariants);
+			}
+
+			if (quarantineBadRows)
+			{
+				quarantine_ = new Quarantine(new File(outputDirectory, "loincQuarantine.txt"), maxQuarantinedRows);
+			}
 
+			File loincDataFile = null, sourceOrgFile = null, loincMultiDataFile = null;
 			for (File f : inputFileLocation.listFiles())
 			{
 				if (f.getName().toLowerCase().equals("loincdb.txt"))
 				{
-					loincData = new TxtFileReader(f);
+					loincData_ = openReader(f, false);
+					loincDataFile = f;
+					loincDataFileName_ = f.getName();
 				}
 				else if (f.getName().toLowerCase().equals("loinc.csv"))
 				{
-					loincData = new CSVFileReader(f);
+					loincData_ = openReader(f, true);
+					loincDataFile = f;
+					loincDataFileName_ = f.getName();
 				}
 				else if (f.getName().toLowerCase().equals("map_to.csv"))
 				{
-					mapTo = new CSVFileReader(f);
+					ConsoleUtil.println("Using the data file " + f.getAbsolutePath());
+					mapToFile_ = f;
 				}
 				else if (f.getName().toLowerCase().equals("source_organization.csv"))
 				{
-					sourceOrg = new CSVFileReader(f);
+					sourceOrg_ = openReader(f, true);
+					sourceOrgFile = f;
 				}
 				else if (f.getName().toLowerCase().endsWith("multi-axial_hierarchy.csv"))
 				{
-					loincMultiData = new CSVFileReader(f);
+					loincMultiData_ = openReader(f, true);
+					loincMultiDataFile = f;
+				}
+				else if (f.getName().toLowerCase().equals("part.csv"))
+				{
+					partData_ = openReader(f, true);
+					partFile_ = f;
+				}
+				else if (f.getName().toLowerCase().startsWith("loincpartlink") && f.getName().toLowerCase().endsWith(".csv"))
+				{
+					ConsoleUtil.println("Using the data file " + f.getAbsolutePath());
+					partLinkFiles_.add(f);
 				}
 			}
 
-			if (loincData == null)
+			if (loincData_ == null)
 			{
 				throw new MojoExecutionException("Could not find the loinc data file in " + inputFileLocation.getAbsolutePath());
 			}
-			if (loincMultiData == null)
+			if (loincMultiData_ == null)
 			{
 				throw new MojoExecutionException("Could not find the multi-axial file in " + inputFileLocation.getAbsolutePath());
 			}
-			
-			SimpleDateFormat dateReader = new SimpleDateFormat("MMMMMMMMMMMMM yyyy"); //Parse things like "June 2014"
-			Date releaseDate = dateReader.parse(loincData.getReleaseDate());
-			
-			File binaryOutputFile = new File(outputDirectory, "loincEConcepts.jbin");
-			dos_ = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryOutputFile)));
-			conceptUtility_ = new EConceptUtility(loincNamespaceBaseSeed_, "LOINC Path", dos_, releaseDate.getTime());
-			
-			contentVersion_ = new PT_ContentVersion();
-			pt_SkipAxis_ = new PT_SkipAxis();
-			pt_SkipClass_ = new PT_SkipClass();
-			
-			String version = loincData.getVersion() ;
-			//String releaseDate = ;
-			fieldMap_ = loincData.getFieldMap();
-			fieldMapInverse_ = loincData.getFieldMapInverse();
 
-			String mapFileName = null;
+			if (profileInputs)
+			{
+				profileInputs(loincDataFile, loincMultiDataFile, sourceOrgFile);
+			}
 
-			if (version.contains("2.36"))
+			// Only FULL keeps the shared UUID map - it is one of the biggest things in the heap, but it is also the duplicate UUID check
+			ConverterUUID.disableUUIDMap_ = (uuidDebugMode != UuidDebugSink.Mode.FULL);
+			if (uuidDebugMode == UuidDebugSink.Mode.STREAM)
 			{
-				PropertyType.setSourceVersion(1);
-				mapFileName = "classMappings-2.36.txt";
+				uuidDebug_ = new UuidDebugSink(new File(outputDirectory, "loincUuidDebugMap.txt.gz"));
 			}
-			else if (version.contains("2.38"))
+
+			errors_ = new ErrorCollector(errorExamples, (writeErrorFile ? new File(outputDirectory, "loincErrors.txt") : null));
+
+			// The parse phases only read their own file into memory - they must not print, or touch the shared converter state.
+			// Everything that does runs in the chain that starts with "metadata", one phase at a time.
+			PhaseScheduler phases = new PhaseScheduler(phaseThreads);
+			phases.add("prepare map_to join", new PhaseScheduler.Phase()
 			{
-				PropertyType.setSourceVersion(2);
-				mapFileName = "classMappings-2.36.txt";  // Yes, wrong one, never made the file for 2.38
+				@Override
+				public void run() throws Exception
+				{
+					if (mapToFile_ != null)
+					{
+						mapTo_ = new CompanionFileJoin(mapToFile_, "LOINC", COMPANION_SORT_BUFFER, outputDirectory);
+					}
+				}
+			});
+			phases.add("prepare part link join", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					Collections.sort(partLinkFiles_);
+					for (File f : partLinkFiles_)
+					{
+						partLinks_.add(new PartLinks(f, outputDirectory));
+					}
+				}
+			});
+			phases.add("scan part types", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					partTypes_ = readPartTypes(partData_);
+					partData_ = null;
+				}
+			});
+			phases.add("parse source organizations", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					sourceOrgRows_ = readAll(sourceOrg_, (profile_ == null ? 0 : profile_.getSourceOrgRows()));
+				}
+			});
+			phases.add("parse multi-axial", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					multiAxialRows_ = readAll(loincMultiData_, (profile_ == null ? 0 : profile_.getMultiAxialRows()));
+				}
+			});
+			phases.add("metadata", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					loadMetadata();
+				}
+			}, "scan part types", "prepare part link join");
+			phases.add("write source organizations", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					writeSourceOrganizations();
+				}
+			}, "metadata", "parse source organizations");
+			phases.add("load data", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					loadData();
+				}
+			}, "prepare map_to join", "prepare part link join", "write source organizations");
+			phases.add("write parts", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					writeParts();
+				}
+			}, "load data", "parse multi-axial");
+			phases.add("multi-axial", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					processMultiAxial();
+				}
+			}, "write parts", "parse multi-axial");
+			phases.add("write jbin", new PhaseScheduler.Phase()
+			{
+				@Override
+				public void run() throws Exception
+				{
+					writeJbin();
+				}
+			}, "multi-axial");
+			if (verifyReferences)
+			{
+				// Only reads the finished concepts, so it can overlap the write.  Reports after the phases are done.
+				phases.add("verify references", new PhaseScheduler.Phase()
+				{
+					@Override
+					public void run() throws Exception
+					{
+						verifyReferences();
+					}
+				}, "multi-axial");
 			}
-			else if (version.contains("2.40"))
+			if (outputVariants != null && outputVariants.size() > 0)
 			{
-				PropertyType.setSourceVersion(3);
-				mapFileName = "classMappings-2.40.txt";
+				phases.add("write variants", new PhaseScheduler.Phase()
+				{
+					@Override
+					public void run() throws Exception
+					{
+						// Materializing the codes again makes the same UUIDs as the main jbin - which the duplicate check would fail on
+						boolean uuidMapDisabled = ConverterUUID.disableUUIDMap_;
+						ConverterUUID.disableUUIDMap_ = true;
+						try
+						{
+							for (OutputVariant variant : outputVariants)
+							{
+								writeVariant(variant);
+							}
+						}
+						finally
+						{
+							ConverterUUID.disableUUIDMap_ = uuidMapDisabled;
+						}
+					}
+				}, (verifyReferences ? new String[] {"write jbin", "verify references"} : new String[] {"write jbin"}));
 			}
-			else if (version.contains("2.44"))
+
+			phases.run();
+
+			if (referenceCheck_ != null)
 			{
-				PropertyType.setSourceVersion(4);
-				mapFileName = "classMappings-2.44.txt";
+				TreeMap<String, Integer> counts = referenceCheck_.getCountsByType();
+				ConsoleUtil.println("Checked " + referenceCheck_.getRelationshipsChecked() + " relationships - " + (counts.size() == 0 ? "no dangling references" : 
+					"dangling references written to loincDanglingReferences.txt:"));
+				for (Entry<String, Integer> count : counts.entrySet())
+				{
+					ConsoleUtil.println("  " + count.getKey() + ": " + count.getValue());
+				}
 			}
-			else if (version.contains("2.46"))
+
+			if (profile_ != null)
 			{
-				PropertyType.setSourceVersion(4);
-				mapFileName = "classMappings-2.46.txt";
+				for (String s : profile_.getSummary())
+				{
+					ConsoleUtil.println(s);
+				}
 			}
-			else if (version.contains("2.48"))
+			ConsoleUtil.println("Phase timing:");
+			if (startupMillis_ >= 0)
 			{
-				PropertyType.setSourceVersion(4);
-				mapFileName = "classMappings-2.48.txt";
+				ConsoleUtil.println("  JVM startup: " + startupMillis_ + " ms");
 			}
-			else
+			for (String s : phases.getTimingSummary())
 			{
-				ConsoleUtil.printErrorln("ERROR: UNTESTED VERSION - NO TESTED PROPERTY MAPPING EXISTS!");
-				PropertyType.setSourceVersion(4);
-				mapFileName = "classMappings-2.48.txt";
+				ConsoleUtil.println("  " + s);
 			}
+			ConsoleUtil.println("LOINC Processing Completes " + new Date().toString());
+			ConsoleUtil.writeOutputToFile(new File(outputDirectory, "ConsoleOutput.txt").toPath());
+		}
+		catch (Exception ex)
+		{
+			throw new MojoExecutionException(ex.getLocalizedMessage(), ex);
+		}
+		finally
+		{
+			try
+			{
+				if (dos_ != null)
+				{
+					dos_.flush();
+					dos_.close();
+				}
+				for (LOINCReader reader : new LOINCReader[] {loincData_, loincMultiData_, sourceOrg_, partData_})
+				{
+					if (reader != null)
+					{
+						reader.close();
+					}
+				}
+				if (mapTo_ != null)
+				{
+					mapTo_.close();
+				}
+				for (PartLinks links : partLinks_)
+				{
+					links.join.close();
+				}
+				if (uuidDebug_ != null)
+				{
+					uuidDebug_.close();
+				}
+				if (quarantine_ != null)
+				{
+					quarantine_.close();
+				}
+				if (errors_ != null)
+				{
+					errors_.close();
+				}
+			}
+			catch (IOException e)
+			{
+				throw new MojoExecutionException(e.getLocalizedMessage(), e);
+			}
+		}
+	}
 
-			classMapping_ = new NameMap(mapFileName);
-			
-			if (mapTo != null)
+	/**
+	 * Read the rest of the file into memory, and close it.  Empty if the reader is null.
+	 */
+	private ArrayList<String[]> readAll(LOINCReader reader, int expectedRows) throws IOException
+	{
+		ArrayList<String[]> result = new ArrayList<>(Math.max(10, expectedRows));
+		if (reader != null)
+		{
+			String[] line = reader.readLine();
+			while (line != null)
 			{
-				String[] line = mapTo.readLine();
-				while (line != null)
+				result.add(line);
+				line = reader.readLine();
+			}
+			reader.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Count the inputs with fresh readers (through the cache, if there is one), then size the concept maps to fit.
+	 */
+	private void profileInputs(File loincDataFile, File loincMultiDataFile, File sourceOrgFile) throws Exception
+	{
+		boolean csv = loincDataFile.getName().toLowerCase().endsWith(".csv");
+		profile_ = InputProfile.scan(openReader(loincDataFile, csv), PROFILED_COLUMNS, openReader(loincMultiDataFile, true), mapToFile_,
+				(sourceOrgFile == null ? null : openReader(sourceOrgFile, true)));
+
+		// Metadata, and the axis / class groupings, add a few hundred more full concepts
+		concepts_ = new Hashtable<>(InputProfile.capacity(profile_.getTotalDistinctValues() + profile_.getMultiAxialCodes() + 500));
+		dataConcepts_ = new HashMap<>(InputProfile.capacity(profile_.getDataRows()));
+		liteDictionary_ = new LiteConcept.Dictionary(profile_.getTotalDistinctValues());
+		liteConcept_ = new LiteConcept.Builder(liteDictionary_);
+	}
+
+	private LOINCReader openReader(File f, boolean csv) throws Exception
+	{
+		LOINCReader result;
+		if (cache_ != null)
+		{
+			result = cache_.open(f, csv);
+		}
+		else if (csv && parseThreads > 1)
+		{
+			result = new ParallelCSVFileReader(f, parseThreads);
+		}
+		else
+		{
+			result = (csv ? new CSVFileReader(f) : new TxtFileReader(f));
+		}
+		if (quarantine_ != null)
+		{
+			result.setQuarantine(quarantine_, f.getName());
+		}
+		return result;
+	}
+
+	/**
+	 * Read the distinct part types from the Part file, and close it - null if there is no Part file.
+	 */
+	private TreeSet<String> readPartTypes(LOINCReader reader) throws IOException
+	{
+		if (reader == null)
+		{
+			return null;
+		}
+		TreeSet<String> result = new TreeSet<>();
+		Integer typeColumn = reader.getFieldMap().get("PartTypeName");
+		if (typeColumn != null)
+		{
+			RowBatch batch = reader.newBatch(1000);
+			int read = reader.readBatch(batch);
+			while (read > 0)
+			{
+				for (int row = 0; row < read; row++)
 				{
-					if (line.length > 0)
+					String type = batch.get(row, typeColumn);
+					if (type != null && type.length() > 0)
 					{
-						HashMap<String, String> nestedData = mapToData.get(line[0]);
-						if (nestedData == null)
-						{
-							nestedData = new HashMap<>();
-							mapToData.put(line[0], nestedData);
-						}
-						if (nestedData.put(line[1], line[2]) != null)
-						{
-							throw new Exception("Oops - " + line[0] + " " + line[1] + " " + line[2]);
-						}
+						result.add(type);
 					}
-					line = mapTo.readLine();
 				}
+				read = reader.readBatch(batch);
 			}
+		}
+		reader.close();
+		return result;
+	}
 
-			initProperties();
+	/**
+	 * Stream the Part file a second time, writing a concept for each part, under the grouping concept of its part type.  Parts that
+	 * are also nodes of the multi-axial hierarchy are noted in sharedParts_, for the hierarchy to link to.
+	 */
+	private void writeParts() throws Exception
+	{
+		if (partFile_ == null)
+		{
+			return;
+		}
+		ConsoleUtil.println("Processing part file");
+		LOINCReader reader = openReader(partFile_, true);
+		Integer numberColumn = reader.getFieldMap().get("PartNumber");
+		Integer typeColumn = reader.getFieldMap().get("PartTypeName");
+		Integer nameColumn = reader.getFieldMap().get("PartName");
+		Integer displayNameColumn = reader.getFieldMap().get("PartDisplayName");
+		Integer statusColumn = reader.getFieldMap().get("Status");
+		if (numberColumn == null || typeColumn == null || nameColumn == null)
+		{
+			reader.close();
+			throw new IOException("The part file " + partFile_.getName() + " doesn't have the PartNumber, PartTypeName and PartName columns");
+		}
+		UUID code = propertyToPropertyType_.get("CODE").getProperty("CODE").getUUID();
 
-			ConsoleUtil.println("Loading Metadata");
+		HashSet<String> multiAxialCodes = new HashSet<>();
+		if (multiAxialRows_ != null)
+		{
+			for (String[] line : multiAxialRows_)
+			{
+				if (line.length > 3 && line[3].startsWith("LP"))
+				{
+					multiAxialCodes.add(line[3]);
+				}
+			}
+		}
 
-			// Set up a meta-data root concept
-			UUID archRoot = Taxonomies.WB_AUX.getUuids()[0];
-			UUID metaDataRoot = ConverterUUID.createNamespaceUUIDFromString("metadata");
-			conceptUtility_.createAndStoreMetaDataConcept(metaDataRoot, "LOINC Metadata", archRoot, null, dos_);
+		int parts = 0;
+		RowBatch batch = reader.newBatch(1000);
+		int read = reader.readBatch(batch);
+		while (read > 0)
+		{
+			for (int row = 0; row < read; row++)
+			{
+				String partNumber = batch.get(row, numberColumn);
+				String type = batch.get(row, typeColumn);
+				String name = batch.get(row, nameColumn);
+				if (partNumber == null || partNumber.length() == 0 || type == null || type.length() == 0)
+				{
+					errors_.add("Part with no part number or type:", name);
+					continue;
+				}
+				String status = (statusColumn == null ? null : batch.get(row, statusColumn));
+				TtkConceptChronicle part = conceptUtility_.createConcept(buildPartUUID(partNumber), conceptUtility_.defaultTime_,
+						("INACTIVE".equals(status) ? Status.INACTIVE : (status == null || status.length() == 0 ? Status.ACTIVE : mapStatus(status))));
+				conceptUtility_.addDescription(part, (name == null || name.length() == 0 ? partNumber : name), DescriptionType.FSN, true, null, null, Status.ACTIVE);
+				String displayName = (displayNameColumn == null ? null : batch.get(row, displayNameColumn));
+				if (displayName != null && displayName.length() > 0 && !displayName.equals(name))
+				{
+					conceptUtility_.addDescription(part, displayName, DescriptionType.SYNONYM, true, null, null, Status.ACTIVE);
+				}
+				conceptUtility_.addStringAnnotation(part, partNumber, code, Status.ACTIVE);
+				conceptUtility_.addRelationship(part, pt_SkipPart_.getProperty(PT_SkipPart.getPropertyName(type)).getUUID());
+				writeConcept(part);
+				if (verifyReferences)
+				{
+					writtenSeparately_.add(part.getPrimordialUuid());
+				}
+				if (multiAxialCodes.contains(partNumber))
+				{
+					sharedParts_.add(partNumber);
+				}
+				parts++;
+				if (parts % 1000 == 0)
+				{
+					ConsoleUtil.showProgress();
+				}
+			}
+			read = reader.readBatch(batch);
+		}
+		reader.close();
+		ConsoleUtil.println("Wrote " + parts + " parts, " + sharedParts_.size() + " of them also in the multi-axial hierarchy");
+	}
 
-			conceptUtility_.loadMetaDataItems(propertyTypes_, metaDataRoot, dos_);
+	/**
+	 * Parts are seeded apart from the LOINC codes - the LP codes of the multi-axial hierarchy are built from their bare code.  An LP code
+	 * in both files is two concepts - the part, and its place in the hierarchy - and the hierarchy node gets a Same_As_Part
+	 * relationship to the part, so the two can be found from each other.
+	 */
+	private UUID buildPartUUID(String partNumber)
+	{
+		return buildUUID("LOINC Part:" + partNumber);
+	}
+
+	/**
+	 * One LoincPartLink file, joined by LOINC code.  The link type is the Property column - the PartTypeName, in files without it.
+	 */
+	private static class PartLinks
+	{
+		final File file;
+		final CompanionFileJoin join;
+		final String typeColumn;
+		final int partNumberColumn, typeColumnIndex;
 
-			// Load up the propertyType map for speed, perform basic sanity check
-			for (PropertyType pt : propertyTypes_)
+		PartLinks(File file, File tempDir) throws IOException
+		{
+			this.file = file;
+			join = new CompanionFileJoin(file, "LoincNumber", COMPANION_SORT_BUFFER, tempDir, "Property", "PartTypeName");
+			List<String> header = Arrays.asList(join.getHeader());
+			typeColumn = (header.contains("Property") ? "Property" : "PartTypeName");
+			partNumberColumn = header.indexOf("PartNumber");
+			typeColumnIndex = header.indexOf(typeColumn);
+			if (partNumberColumn < 0 || typeColumnIndex < 0)
 			{
-				for (String propertyName : pt.getPropertyNames())
+				join.close();
+				throw new IOException("The part link file " + file.getName() + " doesn't have the PartNumber and Property (or PartTypeName) columns");
+			}
+		}
+	}
+
+	private void loadMetadata() throws Exception
+	{
+		SimpleDateFormat dateReader = new SimpleDateFormat("MMMMMMMMMMMMM yyyy"); //Parse things like "June 2014"
+		Date releaseDate = dateReader.parse(loincData_.getReleaseDate());
+		releaseTime_ = releaseDate.getTime();
+		
+		binaryOutputFile_ = new File(outputDirectory, "loincEConcepts.jbin");
+		jbinPosition_ = new CountingOutputStream(new BufferedOutputStream(new FlushRecordingOutputStream(new FileOutputStream(binaryOutputFile_))));
+		dos_ = new DataOutputStream(jbinPosition_);
+		jbinIndex_ = (writeJbinIndex ? (profile_ == null ? new JbinIndexWriter() : new JbinIndexWriter(profile_.getDataRows()
+				+ profile_.getTotalDistinctValues() + profile_.getMultiAxialCodes() + 500,
+				profile_.getDataRows() + profile_.getMultiAxialCodes())) : null);
+		jbinChunker_ = (writeChunkedJbin ? new JbinChunker(jbinChunkSize) : null);
+		conceptUtility_ = new EConceptUtility(loincNamespaceBaseSeed_, "LOINC Path", dos_, releaseTime_);
+		
+		contentVersion_ = new PT_ContentVersion();
+		pt_SkipAxis_ = new PT_SkipAxis();
+		pt_SkipClass_ = new PT_SkipClass();
+		
+		version_ = loincData_.getVersion() ;
+		//String releaseDate = ;
+		fieldMap_ = loincData_.getFieldMap();
+		fieldMapInverse_ = loincData_.getFieldMapInverse();
+
+		String mapFileName = null;
+
+		if (version_.contains("2.36"))
+		{
+			PropertyType.setSourceVersion(1);
+			mapFileName = "classMappings-2.36.txt";
+		}
+		else if (version_.contains("2.38"))
+		{
+			PropertyType.setSourceVersion(2);
+			mapFileName = "classMappings-2.36.txt";  // Yes, wrong one, never made the file for 2.38
+		}
+		else if (version_.contains("2.40"))
+		{
+			PropertyType.setSourceVersion(3);
+			mapFileName = "classMappings-2.40.txt";
+		}
+		else if (version_.contains("2.44"))
+		{
+			PropertyType.setSourceVersion(4);
+			mapFileName = "classMappings-2.44.txt";
+		}
+		else if (version_.contains("2.46"))
+		{
+			PropertyType.setSourceVersion(4);
+			mapFileName = "classMappings-2.46.txt";
+		}
+		else if (version_.contains("2.48"))
+		{
+			PropertyType.setSourceVersion(4);
+			mapFileName = "classMappings-2.48.txt";
+		}
+		else
+		{
+			ConsoleUtil.printErrorln("ERROR: UNTESTED VERSION - NO TESTED PROPERTY MAPPING EXISTS!");
+			PropertyType.setSourceVersion(4);
+			mapFileName = "classMappings-2.48.txt";
+		}
+
+		classMapping_ = (cache_ == null ? new NameMap(mapFileName) : cache_.getNameMap(mapFileName));
+
+		if (refsetRules != null && refsetRules.length() > 0)
+		{
+			refsetRules_ = RefsetRule.read(refsetRules);
+		}
+
+		initProperties();
+
+		if (writeLookupIndex)
+		{
+			ArrayList<String> dimensions = new ArrayList<>(pt_SkipAxis_.getPropertyNames());
+			dimensions.addAll(pt_SkipClass_.getPropertyNames());
+			loincIndex_ = new LoincIndex.Builder(dimensions, (profile_ == null ? 0 : profile_.getDataRows()));
+		}
+		if (writeNameIndex)
+		{
+			nameIndex_ = new NameSearchIndex.Builder(profile_ == null ? 0 : profile_.getDataRows());
+		}
+
+		ConsoleUtil.println("Loading Metadata");
+
+		// Set up a meta-data root concept
+		UUID archRoot = Taxonomies.WB_AUX.getUuids()[0];
+		metaDataRoot_ = ConverterUUID.createNamespaceUUIDFromString("metadata");
+		recordUuid(metaDataRoot_, "metadata");
+		conceptUtility_.createAndStoreMetaDataConcept(metaDataRoot_, "LOINC Metadata", archRoot, null, dos_);
+
+		conceptUtility_.loadMetaDataItems(propertyTypes_, metaDataRoot_, dos_);
+
+		// Load up the propertyType map for speed, perform basic sanity check
+		for (PropertyType pt : propertyTypes_)
+		{
+			for (String propertyName : pt.getPropertyNames())
+			{
+				if (propertyToPropertyType_.containsKey(propertyName))
+				{
+					ConsoleUtil.printErrorln("ERROR: Two different property types each contain " + propertyName);
+				}
+				propertyToPropertyType_.put(propertyName, pt);
+			}
+		}
+	}
+
+	private void writeSourceOrganizations() throws Exception
+	{
+		if (sourceOrg_ != null)
+		{
+			TtkConceptChronicle sourceOrgConcept = conceptUtility_.createAndStoreMetaDataConcept("Source Organization", metaDataRoot_, dos_);
+			for (String[] line : sourceOrgRows_)
+			{
+				//﻿"COPYRIGHT_ID","NAME","COPYRIGHT","TERMS_OF_USE","URL"
+				if (line.length > 0)
+				{
+					TtkConceptChronicle c = conceptUtility_.createConcept(line[0], sourceOrgConcept.getPrimordialUuid());
+					conceptUtility_.addDescription(c, line[1], DescriptionType.SYNONYM, true, propertyToPropertyType_.get("NAME").getProperty("NAME").getUUID(), null, Status.ACTIVE);
+					conceptUtility_.addStringAnnotation(c, line[2], propertyToPropertyType_.get("COPYRIGHT").getProperty("COPYRIGHT").getUUID(), Status.ACTIVE);
+					conceptUtility_.addStringAnnotation(c, line[3], propertyToPropertyType_.get("TERMS_OF_USE").getProperty("TERMS_OF_USE").getUUID(), Status.ACTIVE);
+					conceptUtility_.addStringAnnotation(c, line[4], propertyToPropertyType_.get("URL").getProperty("URL").getUUID(), Status.ACTIVE);
+					writeConcept(c);
+					writtenSeparately_.add(c.getPrimordialUuid());
+				}
+			}
+		}
+		sourceOrgRows_ = null;
+	}
+
+	private void loadData() throws Exception
+	{
+		// write this at the end
+		loincRefset_ = pt_refsets_.getConcept(PT_Refsets.Refsets.ALL.getProperty());
+
+		// The next line of the file is the header.
+		String[] headerFields = loincData_.getHeader();
+
+		// validate that we are configured to map all properties properly
+		checkForLeftoverPropertyTypes(headerFields);
+
+		for (RefsetRule rule : refsetRules_)
+		{
+			List<String> missing = rule.bind(fieldMap_);
+			if (missing.size() > 0)
+			{
+				ConsoleUtil.printErrorln("The data file has no " + missing + " column - the refset '" + rule.getName() + "' will be empty");
+			}
+		}
+		
+		ConsoleUtil.println("Metadata summary:");
+		for (String s : conceptUtility_.getLoadStats().getSummary())
+		{
+			ConsoleUtil.println("  " + s);
+		}
+		conceptUtility_.clearLoadStats();
+
+		// Root
+		rootConcept_ = conceptUtility_.createConcept("LOINC");
+		conceptUtility_.addDescription(rootConcept_, "LOINC", DescriptionType.SYNONYM, true, null, null, Status.ACTIVE);
+		conceptUtility_.addDescription(rootConcept_, "Logical Observation Identifiers Names and Codes", DescriptionType.SYNONYM, false, null, null, Status.ACTIVE);
+		ConsoleUtil.println("Root concept FSN is 'LOINC' and the UUID is " + rootConcept_.getPrimordialUuid());
+
+		conceptUtility_.addStringAnnotation(rootConcept_, version_, contentVersion_.getProperty("Source Version").getUUID(), Status.ACTIVE);
+		conceptUtility_.addStringAnnotation(rootConcept_, loincData_.getReleaseDate(), contentVersion_.getProperty("Release Date").getUUID(), Status.ACTIVE);
+		conceptUtility_.addStringAnnotation(rootConcept_, converterResultVersion, contentVersion_.RELEASE.getUUID(), Status.ACTIVE);
+		conceptUtility_.addStringAnnotation(rootConcept_, loaderVersion, contentVersion_.LOADER_VERSION.getUUID(), Status.ACTIVE);
+
+		concepts_.put(rootConcept_.getPrimordialUuid(), rootConcept_);
+
+		// Build up the Class metadata
+
+		TtkConceptChronicle classConcept = conceptUtility_.createConcept(pt_SkipClass_.getPropertyTypeUUID(), pt_SkipClass_.getPropertyTypeDescription(),
+				rootConcept_.getPrimordialUuid());
+		concepts_.put(classConcept.getPrimordialUuid(), classConcept);
+
+		for (String property : pt_SkipClass_.getPropertyNames())
+		{
+			TtkConceptChronicle temp = conceptUtility_.createConcept(pt_SkipClass_.getProperty(property).getUUID(), property, classConcept.getPrimordialUuid());
+			concepts_.put(temp.getPrimordialUuid(), temp);
+		}
+
+		// And the axis metadata
+		TtkConceptChronicle axisConcept = conceptUtility_.createConcept(pt_SkipAxis_.getPropertyTypeUUID(), pt_SkipAxis_.getPropertyTypeDescription(),
+				rootConcept_.getPrimordialUuid());
+		concepts_.put(axisConcept.getPrimordialUuid(), axisConcept);
+
+		for (String property : pt_SkipAxis_.getPropertyNames())
+		{
+			TtkConceptChronicle temp = conceptUtility_.createConcept(pt_SkipAxis_.getProperty(property).getUUID(), property, axisConcept.getPrimordialUuid());
+			concepts_.put(temp.getPrimordialUuid(), temp);
+		}
+
+		// And the part types, if there is a Part file
+		if (pt_SkipPart_ != null)
+		{
+			TtkConceptChronicle partConcept = conceptUtility_.createConcept(pt_SkipPart_.getPropertyTypeUUID(), pt_SkipPart_.getPropertyTypeDescription(),
+					rootConcept_.getPrimordialUuid());
+			concepts_.put(partConcept.getPrimordialUuid(), partConcept);
+
+			for (String property : pt_SkipPart_.getPropertyNames())
+			{
+				TtkConceptChronicle temp = conceptUtility_.createConcept(pt_SkipPart_.getProperty(property).getUUID(), property, partConcept.getPrimordialUuid());
+				concepts_.put(temp.getPrimordialUuid(), temp);
+			}
+		}
+
+		if (writeColumnarExport)
+		{
+			initColumnarExport();
+		}
+
+		// load the data
+		ConsoleUtil.println("Reading data file into memory.");
+
+		int dataRows = 0;
+		{
+			RowBatch batch = loincData_.newBatch(1000);
+			RowBatchEvent event = new RowBatchEvent();
+			event.begin();
+			long bytesRead = 0;
+			int read = loincData_.readBatch(batch);
+			while (read > 0)
+			{
+				for (int row = 0; row < read; row++)
 				{
-					if (propertyToPropertyType_.containsKey(propertyName))
+					try
+					{
+						processDataLine(batch, row);
+					}
+					catch (ParseException | RuntimeException e)
 					{
-						ConsoleUtil.printErrorln("ERROR: Two different property types each contain " + propertyName);
+						if (quarantine_ == null)
+						{
+							throw e;
+						}
+						quarantineDataLine(batch, row, e);
 					}
-					propertyToPropertyType_.put(propertyName, pt);
 				}
+				dataRows += read;
+				if (event.shouldCommit())
+				{
+					event.file = loincDataFileName_;
+					event.rows = read;
+					event.bytesRead = loincData_.getBytesRead() - bytesRead;
+					event.commit();
+				}
+				bytesRead = loincData_.getBytesRead();
+				ConsoleUtil.showProgress();
+				event = new RowBatchEvent();
+				event.begin();
+				read = loincData_.readBatch(batch);
 			}
-			
-			if (sourceOrg != null)
+		}
+		loincData_.close();
+
+		ConsoleUtil.println("Read " + dataRows + " data lines from file");
+		if (mapTo_ != null)
+		{
+			ConsoleUtil.println("Joined " + mapTo_.getRowCount() + " map_to rows" + (mapTo_.wasSorted() ? " (map_to had to be sorted first)" : ""));
+		}
+		for (PartLinks links : partLinks_)
+		{
+			ConsoleUtil.println("Joined " + links.join.getRowCount() + " " + links.file.getName() + " rows" + (links.join.wasSorted() ? " (it had to be sorted first)" : ""));
+		}
+
+		if (loincIndex_ != null)
+		{
+			LoincIndex index = loincIndex_.build();
+			index.write(new File(outputDirectory, "loincIndex.bin"));
+			ConsoleUtil.println("Wrote loincIndex.bin - " + index.getCodeCount() + " codes");
+			loincIndex_ = null;
+		}
+		if (columnar_ != null)
+		{
+			columnar_.write(new File(outputDirectory, "loincColumns.bin"));
+			ConsoleUtil.println("Wrote loincColumns.bin - " + columnar_.getRowCount() + " rows, " + columnarSource_.length + " columns");
+			columnar_ = null;
+		}
+		if (nameIndex_ != null)
+		{
+			nameIndex_.write(new File(outputDirectory, "loincNameIndex.bin"));
+			ConsoleUtil.println("Wrote loincNameIndex.bin - " + nameIndex_.getCodeCount() + " codes");
+			nameIndex_ = null;
+		}
+	}
+
+	private void verifyReferences() throws IOException
+	{
+		HashMap<UUID, String> typeNames = new HashMap<>();
+		for (PropertyType pt : propertyTypes_)
+		{
+			for (String propertyName : pt.getPropertyNames())
+			{
+				typeNames.put(pt.getProperty(propertyName).getUUID(), propertyName);
+			}
+		}
+		ArrayList<UUID> alsoKnown = new ArrayList<>(writtenSeparately_);
+		alsoKnown.add(metaDataRoot_);
+		ReferenceCheck check = new ReferenceCheck(graph_, alsoKnown, typeNames);
+		check.run(Runtime.getRuntime().availableProcessors());
+		File report = new File(outputDirectory, "loincDanglingReferences.txt");
+		if (check.getCountsByType().size() > 0)
+		{
+			check.writeReport(report);
+		}
+		else
+		{
+			report.delete();
+		}
+		referenceCheck_ = check;
+	}
+
+	private void processMultiAxial() throws Exception
+	{
+		ConsoleUtil.println("Processing multi-axial file");
+
+		// header - PATH_TO_ROOT,SEQUENCE,IMMEDIATE_PARENT,CODE,CODE_TEXT
+		int lineCount = 0;
+		MultiAxialClosure.Builder closure = (writeMultiAxialClosure ? new MultiAxialClosure.Builder() : null);
+		for (String[] line : multiAxialRows_)
+		{
+			lineCount++;
+			if (line.length > 0)
 			{
-				TtkConceptChronicle sourceOrgConcept = conceptUtility_.createAndStoreMetaDataConcept("Source Organization", metaDataRoot, dos_);
-				String[] line = sourceOrg.readLine();
-				while (line != null)
+				processMultiAxialData(rootConcept_.getPrimordialUuid(), line);
+				if (closure != null && line[3] != null && line[3].length() > 0)
 				{
-					//﻿"COPYRIGHT_ID","NAME","COPYRIGHT","TERMS_OF_USE","URL"
-					if (line.length > 0)
+					closure.addOccurrence(line[0], line[3], line[1]);
+				}
+			}
+			if (lineCount % 1000 == 0)
+			{
+				ConsoleUtil.showProgress();
+			}
+		}
+		multiAxialRows_ = null;
+		ConsoleUtil.println("Read " + lineCount + " data lines from file");
+
+		if (closure != null)
+		{
+			MultiAxialClosure index = closure.build();
+			index.write(new File(outputDirectory, "loincMultiAxialClosure.bin"));
+			ConsoleUtil.println("Wrote loincMultiAxialClosure.bin - " + index.getCodeCount() + " codes in " + index.getOccurrenceCount() + " places");
+		}
+	}
+
+	private void writeJbin() throws Exception
+	{
+		ConsoleUtil.println("Writing jbin file in " + outputOrder + " order");
+
+		int conCounter = 0;
+		int refsetChunks = 0;
+		// The rule refsets only know their members by index - they become refset members as the concepts are written
+		TtkConceptChronicle[] ruleRefsets = new TtkConceptChronicle[refsetRules_.size()];
+		for (int i = 0; i < ruleRefsets.length; i++)
+		{
+			ruleRefsets[i] = pt_refsets_.getConcept(refsetRules_.get(i).getProperty());
+		}
+		// Columns only kept for an output variant
+		Set<Property> omit = omittedProperties(annotationSkipList, true);
+		writeOrder_ = outputOrder.order(graph_, propertyToPropertyType_.get("Has_CLASS").getProperty("Has_CLASS").getUUID());
+		dos_.flush();
+		sharedPrefixLength_ = jbinPosition_.getByteCount();
+		for (UUID uuid : writeOrder_)
+		{
+			TtkConceptChronicle concept = concepts_.get(uuid);
+			if (concept == null)
+			{
+				LiteConcept lite = dataConcepts_.get(uuid);
+				concept = lite.materialize(conceptUtility_, liteDictionary_, omit);
+				for (int i = 0; i < ruleRefsets.length; i++)
+				{
+					if (refsetRules_.get(i).isMember(lite.getIndex()))
 					{
-						TtkConceptChronicle c = conceptUtility_.createConcept(line[0], sourceOrgConcept.getPrimordialUuid());
-						conceptUtility_.addDescription(c, line[1], DescriptionType.SYNONYM, true, propertyToPropertyType_.get("NAME").getProperty("NAME").getUUID(), null, Status.ACTIVE);
-						conceptUtility_.addStringAnnotation(c, line[2], propertyToPropertyType_.get("COPYRIGHT").getProperty("COPYRIGHT").getUUID(), Status.ACTIVE);
-						conceptUtility_.addStringAnnotation(c, line[3], propertyToPropertyType_.get("TERMS_OF_USE").getProperty("TERMS_OF_USE").getUUID(), Status.ACTIVE);
-						conceptUtility_.addStringAnnotation(c, line[4], propertyToPropertyType_.get("URL").getProperty("URL").getUUID(), Status.ACTIVE);
-						c.writeExternal(dos_);
+						conceptUtility_.addDynamicRefsetMember(ruleRefsets[i], uuid, null, Status.ACTIVE, null);
+						if (refsetChunkSize > 0 && ruleRefsets[i].getRefsetMembersDynamic().size() >= refsetChunkSize)
+						{
+							writeConcept(ruleRefsets[i]);
+							ruleRefsets[i].getRefsetMembersDynamic().clear();
+						}
 					}
-					line = sourceOrg.readLine();
 				}
 			}
+			conceptUtility_.addDynamicRefsetMember(loincRefset_, concept.getPrimordialUuid(), null, Status.ACTIVE, null);
+			writeConcept(concept);
+			conCounter++;
 
-			// write this at the end
-			TtkConceptChronicle loincRefset = pt_refsets_.getConcept(PT_Refsets.Refsets.ALL.getProperty());
-
-			// The next line of the file is the header.
-			String[] headerFields = loincData.getHeader();
+			if (refsetChunkSize > 0 && loincRefset_.getRefsetMembersDynamic().size() >= refsetChunkSize)
+			{
+				// Write the refset in pieces, rather than holding every member until storeRefsetConcepts
+				writeConcept(loincRefset_);
+				loincRefset_.getRefsetMembersDynamic().clear();
+				refsetChunks++;
+			}
 
-			// validate that we are configured to map all properties properly
-			checkForLeftoverPropertyTypes(headerFields);
-			
-			ConsoleUtil.println("Metadata summary:");
-			for (String s : conceptUtility_.getLoadStats().getSummary())
+			if (conCounter % 10 == 0)
 			{
-				ConsoleUtil.println("  " + s);
+				ConsoleUtil.showProgress();
+			}
+			if ((conCounter % 10000) == 0)
+			{
+				ConsoleUtil.println("Processed: " + conCounter + " - just completed " + concept.getDescriptions().get(0).getText());
 			}
-			conceptUtility_.clearLoadStats();
+		}
+		
+		ConsoleUtil.println("Processed " + conCounter + " concepts total");
+		if (refsetChunks > 0)
+		{
+			ConsoleUtil.println("Wrote the " + PT_Refsets.Refsets.ALL.getProperty().getSourcePropertyNameFSN() + " refset in " + (refsetChunks + 1) + " records");
+		}
+		for (RefsetRule rule : refsetRules_)
+		{
+			ConsoleUtil.println("Refset '" + rule.getName() + "': " + rule.getMembers().getCardinality() + " members, tracked in "
+					+ rule.getMembers().getSizeInBytes() + " bytes");
+		}
 
-			// Root
-			TtkConceptChronicle rootConcept = conceptUtility_.createConcept("LOINC");
-			conceptUtility_.addDescription(rootConcept, "LOINC", DescriptionType.SYNONYM, true, null, null, Status.ACTIVE);
-			conceptUtility_.addDescription(rootConcept, "Logical Observation Identifiers Names and Codes", DescriptionType.SYNONYM, false, null, null, Status.ACTIVE);
-			ConsoleUtil.println("Root concept FSN is 'LOINC' and the UUID is " + rootConcept.getPrimordialUuid());
+		conceptUtility_.storeRefsetConcepts(pt_refsets_, dos_);
+		dos_.flush();
 
-			conceptUtility_.addStringAnnotation(rootConcept, version, contentVersion_.getProperty("Source Version").getUUID(), Status.ACTIVE);
-			conceptUtility_.addStringAnnotation(rootConcept, loincData.getReleaseDate(), contentVersion_.getProperty("Release Date").getUUID(), Status.ACTIVE);
-			conceptUtility_.addStringAnnotation(rootConcept, converterResultVersion, contentVersion_.RELEASE.getUUID(), Status.ACTIVE);
-			conceptUtility_.addStringAnnotation(rootConcept, loaderVersion, contentVersion_.LOADER_VERSION.getUUID(), Status.ACTIVE);
+		if (jbinIndex_ != null)
+		{
+			ConsoleUtil.println("Writing jbin index");
+			File indexFile = jbinIndex_.write(binaryOutputFile_);
+			ConsoleUtil.println("Wrote " + indexFile.getName());
+		}
 
-			concepts_.put(rootConcept.getPrimordialUuid(), rootConcept);
+		if (jbinChunker_ != null)
+		{
+			ConsoleUtil.println("Writing jbin chunks");
+			File manifest = jbinChunker_.write(binaryOutputFile_);
+			ConsoleUtil.println("Wrote " + manifest.getName() + " - " + jbinChunker_.getChunkCount() + " chunks, " + jbinChunker_.getChunksWritten()
+					+ " of them new");
+			jbinChunker_ = null;
+		}
 
-			// Build up the Class metadata
+		ConsoleUtil.println("Data Load Summary:");
+		for (String s : conceptUtility_.getLoadStats().getSummary())
+		{
+			ConsoleUtil.println("  " + s);
+		}
 
-			TtkConceptChronicle classConcept = conceptUtility_.createConcept(pt_SkipClass_.getPropertyTypeUUID(), pt_SkipClass_.getPropertyTypeDescription(),
-					rootConcept.getPrimordialUuid());
-			concepts_.put(classConcept.getPrimordialUuid(), classConcept);
+		ConsoleUtil.println("Skipped " + skippedDeletedItems + " Loinc codes because they were flagged as DELETED and they had no desriptions.");
 
-			for (String property : pt_SkipClass_.getPropertyNames())
+		if (errors_.getTotal() > 0)
+		{
+			ConsoleUtil.println("Data Error Summary:");
+			for (String s : errors_.getSummary())
 			{
-				TtkConceptChronicle temp = conceptUtility_.createConcept(pt_SkipClass_.getProperty(property).getUUID(), property, classConcept.getPrimordialUuid());
-				concepts_.put(temp.getPrimordialUuid(), temp);
+				ConsoleUtil.println("  " + s);
 			}
+		}
+		errors_.close();
+		errors_ = null;
 
-			// And the axis metadata
-			TtkConceptChronicle axisConcept = conceptUtility_.createConcept(pt_SkipAxis_.getPropertyTypeUUID(), pt_SkipAxis_.getPropertyTypeDescription(),
-					rootConcept.getPrimordialUuid());
-			concepts_.put(axisConcept.getPrimordialUuid(), axisConcept);
-
-			for (String property : pt_SkipAxis_.getPropertyNames())
+		if (quarantine_ != null && quarantine_.getCount() > 0)
+		{
+			ConsoleUtil.println("Quarantined " + quarantine_.getCount() + " rows to " + quarantine_.getFile().getName() + ":");
+			for (String s : quarantine_.getSummary())
 			{
-				TtkConceptChronicle temp = conceptUtility_.createConcept(pt_SkipAxis_.getProperty(property).getUUID(), property, axisConcept.getPrimordialUuid());
-				concepts_.put(temp.getPrimordialUuid(), temp);
+				ConsoleUtil.println("  " + s);
 			}
+		}
+		
+		// this could be removed from final release. Just added to help debug editor problems.
+		if (uuidDebugMode == UuidDebugSink.Mode.FULL)
+		{
+			ConsoleUtil.println("Dumping UUID Debug File");
+			ConverterUUID.dump(outputDirectory, "loincUuid");
+		}
+		else if (uuidDebug_ != null)
+		{
+			uuidDebug_.close();
+			ConsoleUtil.println("Wrote " + uuidDebug_.getCount() + " UUIDs to " + uuidDebug_.getFile().getName());
+			uuidDebug_ = null;
+		}
+	}
+
+	/**
+	 * Write one output variant - a copy of the main jbin's metadata, source organizations and parts, then the concepts in the
+	 * same order, filtered, and rebuilt from the lite concepts without the omitted properties.  Has its own load stats.
+	 */
+	private void writeVariant(OutputVariant variant) throws Exception
+	{
+		File folder = new File(outputDirectory, "variants");
+		folder.mkdirs();
+		File file = new File(folder, "loincEConcepts-" + variant.getName() + ".jbin");
+		ConsoleUtil.println("Writing output variant " + file.getName());
+
+		Set<Property> omit = omittedProperties(variant.getAnnotationSkipList(), variant.isIncludeMultiAxial());
+		HashSet<UUID> omittedMetadata = new HashSet<>();
+		for (Property p : omit)
+		{
+			omittedMetadata.add(p.getUUID());
+		}
+		// The path concepts it writes on creation are already in the shared part
+		EConceptUtility conceptUtility = new EConceptUtility(loincNamespaceBaseSeed_, "LOINC Path", new DataOutputStream(new NullOutputStream()),
+				releaseTime_);
 
-			// load the data
-			ConsoleUtil.println("Reading data file into memory.");
+		// The refset concepts are shared with the main jbin, which has written their members
+		for (String name : pt_refsets_.getPropertyNames())
+		{
+			TtkConceptChronicle refset = pt_refsets_.getConcept(pt_refsets_.getProperty(name));
+			if (refset.getRefsetMembersDynamic() != null)
+			{
+				refset.getRefsetMembersDynamic().clear();
+			}
+		}
+		TtkConceptChronicle[] ruleRefsets = new TtkConceptChronicle[refsetRules_.size()];
+		for (int i = 0; i < ruleRefsets.length; i++)
+		{
+			ruleRefsets[i] = pt_refsets_.getConcept(refsetRules_.get(i).getProperty());
+		}
 
-			int dataRows = 0;
+		int conCounter = 0;
+		int skippedDeprecated = 0;
+		int skippedMultiAxial = 0;
+		int skippedMetadata = 0;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			if (omittedMetadata.size() == 0)
 			{
-				String[] line = loincData.readLine();
-				dataRows++;
-				while (line != null)
+				// The variant has all of the main jbin's properties, so it has the same metadata - byte for byte
+				try (InputStream in = new FileInputStream(binaryOutputFile_))
 				{
-					if (line.length > 0)
-					{
-						processDataLine(line);
-					}
-					line = loincData.readLine();
-					dataRows++;
-					if (dataRows % 1000 == 0)
+					IOUtils.copyLarge(in, out, 0, sharedPrefixLength_);
+				}
+			}
+			else
+			{
+				// Concept by concept, leaving out the metadata concepts of the properties this variant doesn't have
+				CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(binaryOutputFile_)));
+				try (DataInputStream in = new DataInputStream(counting))
+				{
+					while (counting.getByteCount() < sharedPrefixLength_)
 					{
-						ConsoleUtil.showProgress();
+						TtkConceptChronicle concept = JbinReader.readConcept(in);
+						if (omittedMetadata.contains(concept.getPrimordialUuid()))
+						{
+							skippedMetadata++;
+						}
+						else
+						{
+							concept.writeExternal(out);
+						}
 					}
 				}
 			}
-			loincData.close();
-
-			ConsoleUtil.println("Read " + dataRows + " data lines from file");
-
-			ConsoleUtil.println("Processing multi-axial file");
 
+			for (UUID uuid : writeOrder_)
 			{
-				// header - PATH_TO_ROOT,SEQUENCE,IMMEDIATE_PARENT,CODE,CODE_TEXT
-				int lineCount = 0;
-				String[] line = loincMultiData.readLine();
-				while (line != null)
+				TtkConceptChronicle concept = concepts_.get(uuid);
+				if (concept == null)
 				{
-					lineCount++;
-					if (line.length > 0)
+					LiteConcept lite = dataConcepts_.get(uuid);
+					if (!variant.isIncludeDeprecated() && lite.getStatus() == Status.INACTIVE)
 					{
-						processMultiAxialData(rootConcept.getPrimordialUuid(), line);
+						skippedDeprecated++;
+						continue;
 					}
-					line = loincMultiData.readLine();
-					if (lineCount % 1000 == 0)
+					concept = lite.materialize(conceptUtility, liteDictionary_, omit);
+					for (int i = 0; i < ruleRefsets.length; i++)
 					{
-						ConsoleUtil.showProgress();
+						if (refsetRules_.get(i).isMember(lite.getIndex()))
+						{
+							conceptUtility.addDynamicRefsetMember(ruleRefsets[i], uuid, null, Status.ACTIVE, null);
+							if (refsetChunkSize > 0 && ruleRefsets[i].getRefsetMembersDynamic().size() >= refsetChunkSize)
+							{
+								ruleRefsets[i].writeExternal(out);
+								ruleRefsets[i].getRefsetMembersDynamic().clear();
+							}
+						}
 					}
 				}
-				loincMultiData.close();
-				ConsoleUtil.println("Read " + lineCount + " data lines from file");
-			}
-
-			ConsoleUtil.println("Writing jbin file");
-
-			int conCounter = 0;
-			for (TtkConceptChronicle concept : concepts_.values())
-			{
-				conceptUtility_.addDynamicRefsetMember(loincRefset, concept.getPrimordialUuid(), null, Status.ACTIVE, null);
-				concept.writeExternal(dos_);
+				else if (!variant.isIncludeMultiAxial() && multiAxialConcepts_.contains(uuid))
+				{
+					skippedMultiAxial++;
+					continue;
+				}
+				conceptUtility.addDynamicRefsetMember(loincRefset_, uuid, null, Status.ACTIVE, null);
+				concept.writeExternal(out);
 				conCounter++;
 
-				if (conCounter % 10 == 0)
+				if (refsetChunkSize > 0 && loincRefset_.getRefsetMembersDynamic().size() >= refsetChunkSize)
 				{
-					ConsoleUtil.showProgress();
+					loincRefset_.writeExternal(out);
+					loincRefset_.getRefsetMembersDynamic().clear();
 				}
-				if ((conCounter % 10000) == 0)
+
+				if (conCounter % 10 == 0)
 				{
-					ConsoleUtil.println("Processed: " + conCounter + " - just completed " + concept.getDescriptions().get(0).getText());
+					ConsoleUtil.showProgress();
 				}
 			}
-			
-			ConsoleUtil.println("Processed " + conCounter + " concepts total");
-
-			conceptUtility_.storeRefsetConcepts(pt_refsets_, dos_);
-
-			ConsoleUtil.println("Data Load Summary:");
-			for (String s : conceptUtility_.getLoadStats().getSummary())
-			{
-				ConsoleUtil.println("  " + s);
-			}
 
-			ConsoleUtil.println("Skipped " + skippedDeletedItems + " Loinc codes because they were flagged as DELETED and they had no desriptions.");
-			
-			// this could be removed from final release. Just added to help debug editor problems.
-			ConsoleUtil.println("Dumping UUID Debug File");
-			ConverterUUID.dump(outputDirectory, "loincUuid");
-			ConsoleUtil.println("LOINC Processing Completes " + new Date().toString());
-			ConsoleUtil.writeOutputToFile(new File(outputDirectory, "ConsoleOutput.txt").toPath());
+			conceptUtility.storeRefsetConcepts(pt_refsets_, out);
 		}
-		catch (Exception ex)
+
+		ConsoleUtil.println("Wrote " + conCounter + " concepts to " + file.getName()
+				+ (variant.isIncludeDeprecated() ? "" : " - left out " + skippedDeprecated + " deprecated codes")
+				+ (variant.isIncludeMultiAxial() ? "" : " - left out " + skippedMultiAxial + " multi-axial concepts")
+				+ (skippedMetadata == 0 ? "" : " - left out " + skippedMetadata + " metadata concepts of the properties it doesn't have"));
+		ConsoleUtil.println("Data Load Summary (" + variant.getName() + ", LOINC codes only):");
+		for (String s : conceptUtility.getLoadStats().getSummary())
 		{
-			throw new MojoExecutionException(ex.getLocalizedMessage(), ex);
+			ConsoleUtil.println("  " + s);
 		}
-		finally
+	}
+
+	/**
+	 * An axis or class value, new on the row being converted.
+	 */
+	private static class StagedConcept
+	{
+		final boolean axis;
+		final String property;
+		final String value;
+
+		StagedConcept(boolean axis, String property, String value)
 		{
-			if (dos_ != null)
-			{
-				try
-				{
-					dos_.flush();
-					dos_.close();
-					loincData.close();
-					loincMultiData.close();
-					if (mapTo != null)
-					{
-						mapTo.close();
-					}
-					if (sourceOrg != null)
-					{
-						sourceOrg.close();
-					}
-				}
-				catch (IOException e)
-				{
-					throw new MojoExecutionException(e.getLocalizedMessage(), e);
-				}
-			}
+			this.axis = axis;
+			this.property = property;
+			this.value = value;
 		}
 	}
 
-	private void processDataLine(String[] fields) throws ParseException, IOException
+	private void processDataLine(RowBatch batch, int row) throws ParseException, IOException
 	{
+		stagedConcepts_.clear();
 		Integer index = fieldMap_.get("DT_LAST_CH");
 		if (index == null)
 		{
 			index = fieldMap_.get("DATE_LAST_CHANGED");  // They changed this in 2.38 release
 		}
-		String lastChanged = fields[index];
+		String lastChanged = batch.get(row, index);
 		long time = (StringUtils.isBlank(lastChanged) ? conceptUtility_.defaultTime_ : sdf_.parse(lastChanged).getTime());
 
-		Status status = mapStatus(fields[fieldMap_.get("STATUS")]);
+		Status status = mapStatus(batch.get(row, fieldMap_.get("STATUS")));
 
-		String code = fields[fieldMap_.get("LOINC_NUM")];
+		String code = batch.get(row, fieldMap_.get("LOINC_NUM"));
 
-		TtkConceptChronicle concept = conceptUtility_.createConcept(buildUUID(code), time, status);
-		ArrayList<ValuePropertyPair> descriptions = new ArrayList<>();
+		liteConcept_.start(buildUUID(code), time, status, code);
+		if (loincIndex_ != null)
+		{
+			loincIndex_.startCode(code);
+		}
+		if (nameIndex_ != null)
+		{
+			nameIndex_.startCode(code);
+		}
 
-		for (int fieldIndex = 0; fieldIndex < fields.length; fieldIndex++)
+		for (int fieldIndex = 0; fieldIndex < batch.getColumnCount(); fieldIndex++)
 		{
-			if (fields[fieldIndex] != null && fields[fieldIndex].length() > 0)
+			String value = batch.get(row, fieldIndex);
+			if (value != null && value.length() > 0)
 			{
 				PropertyType pt = propertyToPropertyType_.get(fieldMapInverse_.get(fieldIndex));
 				if (pt == null)
 				{
-					ConsoleUtil.printErrorln("ERROR: No property type mapping for the property " + fieldMapInverse_.get(fieldIndex) + ":" + fields[fieldIndex]);
+					errors_.add("ERROR: No property type mapping for the property", fieldMapInverse_.get(fieldIndex) + ":" + value);
 					continue;
 				}
 
@@ -519,13 +1764,13 @@ public class LoincToEConcepts extends ConverterBaseMojo
 				if (pt instanceof PT_Annotations)
 				{
 					if ((p.getSourcePropertyNameFSN().equals("COMMON_TEST_RANK") || p.getSourcePropertyNameFSN().equals("COMMON_ORDER_RANK") 
-							|| p.getSourcePropertyNameFSN().equals("COMMON_SI_TEST_RANK")) && fields[fieldIndex].equals("0"))
+							|| p.getSourcePropertyNameFSN().equals("COMMON_SI_TEST_RANK")) && value.equals("0"))
 					{
 						continue;  //Skip attributes of these types when the value is 0
 					}
 					else if (p.getSourcePropertyNameFSN().equals("RELATEDNAMES2") || p.getSourcePropertyNameFSN().equals("RELAT_NMS"))
 					{
-						String[] values = fields[fieldIndex].split(";");
+						String[] values = value.split(";");
 						TreeSet<String> uniqueValues = new TreeSet<>();
 						for (String s : values)
 						{
@@ -537,65 +1782,70 @@ public class LoincToEConcepts extends ConverterBaseMojo
 						}
 						for (String s : uniqueValues)
 						{
-							conceptUtility_.addStringAnnotation(concept, s, p.getUUID(), (p.isDisabled() ? Status.INACTIVE : Status.ACTIVE));
+							liteConcept_.addAnnotation(p, s);
+							if (nameIndex_ != null)
+							{
+								nameIndex_.addName(p.getSourcePropertyNameFSN(), s);
+							}
 						}
 					}
 					else
 					{
-						conceptUtility_.addStringAnnotation(concept, fields[fieldIndex], p.getUUID(), (p.isDisabled() ? Status.INACTIVE : Status.ACTIVE));
+						liteConcept_.addAnnotation(p, value);
 					}
 				}
 				else if (pt instanceof PT_Descriptions)
 				{
 					//Gather for later
-					descriptions.add(new ValuePropertyPair(fields[fieldIndex], p));
+					liteConcept_.addDescription(p, value);
+					if (nameIndex_ != null)
+					{
+						nameIndex_.addName(p.getSourcePropertyNameFSN(), value);
+					}
 				}
 				else if (pt instanceof PT_SkipAxis)
 				{
 					// See if this class object exists yet.
-					UUID potential = ConverterUUID.createNamespaceUUIDFromString(pt_SkipAxis_.getPropertyTypeDescription() + ":" +
-							fieldMapInverse_.get(fieldIndex) + ":" + fields[fieldIndex], true);
+					UUID potential = buildUUID(pt_SkipAxis_.getPropertyTypeDescription() + ":" + fieldMapInverse_.get(fieldIndex) + ":" + value);
 
-					TtkConceptChronicle axisConcept = concepts_.get(potential);
-					if (axisConcept == null)
+					if (loincIndex_ != null)
 					{
-						axisConcept = conceptUtility_.createConcept(potential, fields[fieldIndex]);
-						conceptUtility_.addRelationship(axisConcept, pt_SkipAxis_.getProperty(fieldMapInverse_.get(fieldIndex)).getUUID());
-						concepts_.put(axisConcept.getPrimordialUuid(), axisConcept);
+						loincIndex_.addValue(fieldMapInverse_.get(fieldIndex), value);
+					}
+
+					if (!concepts_.containsKey(potential) && !stagedConcepts_.containsKey(potential))
+					{
+						stagedConcepts_.put(potential, new StagedConcept(true, fieldMapInverse_.get(fieldIndex), value));
 					}
 					// We changed these from attributes to relations
 					// conceptUtility_.addAnnotation(concept, axisConcept, pt_SkipAxis_.getPropertyUUID(fieldMapInverse_.get(fieldIndex)));
 					String relTypeName = "Has_" + fieldMapInverse_.get(fieldIndex);
 					PropertyType relType = propertyToPropertyType_.get(relTypeName);
-					conceptUtility_.addRelationship(concept, axisConcept.getPrimordialUuid(), relType.getProperty(relTypeName).getUUID(), null);
+					liteConcept_.addRelationship(relType.getProperty(relTypeName), true, potential);
 				}
 				else if (pt instanceof PT_SkipClass)
 				{
 					// See if this class object exists yet.
-					UUID potential = ConverterUUID.createNamespaceUUIDFromString(pt_SkipClass_.getPropertyTypeDescription() + ":" +
-							fieldMapInverse_.get(fieldIndex) + ":" + fields[fieldIndex], true);
+					UUID potential = buildUUID(pt_SkipClass_.getPropertyTypeDescription() + ":" + fieldMapInverse_.get(fieldIndex) + ":" + value);
 
-					TtkConceptChronicle classConcept = concepts_.get(potential);
-					if (classConcept == null)
+					if (loincIndex_ != null)
 					{
-						classConcept = conceptUtility_.createConcept(potential, classMapping_.getMatchValue(fields[fieldIndex]));
-						if (classMapping_.hasMatch(fields[fieldIndex]))
-						{
-							conceptUtility_.addStringAnnotation(classConcept, fields[fieldIndex], propertyToPropertyType_.get("ABBREVIATION").getProperty("ABBREVIATION")
-									.getUUID(), Status.ACTIVE);
-						}
-						conceptUtility_.addRelationship(classConcept, pt_SkipClass_.getProperty(fieldMapInverse_.get(fieldIndex)).getUUID());
-						concepts_.put(classConcept.getPrimordialUuid(), classConcept);
+						loincIndex_.addValue(fieldMapInverse_.get(fieldIndex), value);
+					}
+
+					if (!concepts_.containsKey(potential) && !stagedConcepts_.containsKey(potential))
+					{
+						stagedConcepts_.put(potential, new StagedConcept(false, fieldMapInverse_.get(fieldIndex), value));
 					}
 					// We changed these from attributes to relations
 					// conceptUtility_.addAnnotation(concept, classConcept, pt_SkipClass_.getPropertyUUID(fieldMapInverse_.get(fieldIndex)));
 					String relTypeName = "Has_" + fieldMapInverse_.get(fieldIndex);
 					PropertyType relType = propertyToPropertyType_.get(relTypeName);
-					conceptUtility_.addRelationship(concept, classConcept.getPrimordialUuid(), relType.getProperty(relTypeName).getUUID(), null);
+					liteConcept_.addRelationship(relType.getProperty(relTypeName), true, potential);
 				}
 				else if (pt instanceof PT_Relations)
 				{
-					conceptUtility_.addRelationship(concept, buildUUID(fields[fieldIndex]), pt.getProperty(fieldMapInverse_.get(fieldIndex)), null);
+					liteConcept_.addRelationship(pt.getProperty(fieldMapInverse_.get(fieldIndex)), false, buildUUID(value));
 				}
 				else if (pt instanceof PT_SkipOther)
 				{
@@ -603,52 +1853,205 @@ public class LoincToEConcepts extends ConverterBaseMojo
 				}
 				else
 				{
-					ConsoleUtil.printErrorln("oops - unexpected property type: " + pt);
+					errors_.add("oops - unexpected property type:", pt.toString());
 				}
 			}
 		}
 		
 		//MAP_TO moved to a different file in 2.42.
-		HashMap<String, String> mappings = mapToData.get(code);
-		if (mappings != null)
+		if (mapTo_ != null)
 		{
-			for (Entry<String, String> mapping : mappings.entrySet())
+			HashSet<String> targets = new HashSet<>();
+			for (String[] mapping : mapTo_.get(code))
 			{
-				String target = mapping.getKey();
-				String comment = mapping.getValue();
-				TtkRelationshipChronicle r = conceptUtility_.addRelationship(concept, buildUUID(target), propertyToPropertyType_.get("MAP_TO").getProperty("MAP_TO"), null);
+				String target = mapping[1];
+				String comment = mapping[2];
+				if (!targets.add(target))
+				{
+					throw new IOException(mapToFile_.getName() + " maps " + code + " to " + target + " more than once - the repeated row is "
+							+ StringUtils.join(mapping, ",") + " (joined to row " + batch.getRowNumber(row) + " of " + loincDataFileName_ + ")");
+				}
+				liteConcept_.addRelationship(propertyToPropertyType_.get("MAP_TO").getProperty("MAP_TO"), false, buildUUID(target));
 				if (comment != null && comment.length() > 0)
 				{
-					conceptUtility_.addStringAnnotation(r, comment, propertyToPropertyType_.get("COMMENT").getProperty("COMMENT").getUUID(), Status.ACTIVE);
+					liteConcept_.setRelationshipComment(propertyToPropertyType_.get("COMMENT").getProperty("COMMENT"), comment);
 				}
 			}
 		}
 		
+		// The part links - the same part is often linked more than once with the same property (as a Primary and a DetailedModel
+		// link, say), which is a single relationship here
+		if (partLinks_.size() > 0)
+		{
+			HashSet<String> linked = new HashSet<>();
+			for (PartLinks links : partLinks_)
+			{
+				for (String[] link : links.join.get(code))
+				{
+					String partNumber = link[links.partNumberColumn];
+					String type = link[links.typeColumnIndex];
+					if (partNumber == null || partNumber.length() == 0 || type == null || type.length() == 0)
+					{
+						errors_.add("Part link with no part number or type for", code);
+						continue;
+					}
+					String relTypeName = PT_PartRelations.getPropertyName(type);
+					if (linked.add(relTypeName + ":" + partNumber))
+					{
+						liteConcept_.addRelationship(propertyToPropertyType_.get(relTypeName).getProperty(relTypeName), false, buildPartUUID(partNumber));
+					}
+				}
+			}
+		}
+
+		// Nothing past here fails a row - it is safe to create its new axis and class concepts
+		createStagedConcepts();
+
 		//Now add all the descriptions
-		if (descriptions.size() == 0)
+		if (liteConcept_.getDescriptionCount() == 0)
 		{
-			if ("DEL".equals(fields[fieldMap_.get("CHNG_TYPE")]))
+			if ("DEL".equals(batch.get(row, fieldMap_.get("CHNG_TYPE"))))
 			{
 				//They put a bunch of these in 2.44... leaving out most of the important info... just makes a mess.  Don't load them.
 				skippedDeletedItems++;
+				if (loincIndex_ != null)
+				{
+					loincIndex_.discard();
+				}
+				if (nameIndex_ != null)
+				{
+					nameIndex_.discard();
+				}
 				return;
 			}
 			else
 			{
-				ConsoleUtil.printErrorln("ERROR: no name for " + code);
-				conceptUtility_.addFullySpecifiedName(concept, code);
+				// The code becomes the FSN, when the concept is materialized
+				errors_.add("ERROR: no name for", code);
 			}
 		}
-		else
+
+		LiteConcept concept = liteConcept_.build();
+		for (RefsetRule rule : refsetRules_)
 		{
-			conceptUtility_.addDescriptions(concept, descriptions);
+			if (rule.matches(batch, row))
+			{
+				rule.addMember(concept.getIndex());
+			}
 		}
-
-		TtkConceptChronicle current = concepts_.put(concept.getPrimordialUuid(), concept);
+		LiteConcept current = dataConcepts_.put(concept.getUuid(), concept);
 		if (current != null)
 		{
-			ConsoleUtil.printErrorln("Duplicate LOINC code (LOINC_NUM):" + code);
+			errors_.add("Duplicate LOINC code (LOINC_NUM):", code);
+		}
+		if (jbinIndex_ != null)
+		{
+			jbinIndex_.addCode(code, concept.getUuid());
+		}
+		if (loincIndex_ != null)
+		{
+			loincIndex_.commit();
+		}
+		if (nameIndex_ != null)
+		{
+			nameIndex_.commit();
+		}
+		if (columnar_ != null)
+		{
+			for (int i = 0; i < columnarSource_.length; i++)
+			{
+				columnarRow_[i] = batch.get(row, columnarSource_[i]);
+			}
+			columnar_.addRow(columnarRow_);
+		}
+	}
+
+	/**
+	 * Create the axis and class concepts the row staged - in the order it first used them.
+	 */
+	private void createStagedConcepts()
+	{
+		for (Entry<UUID, StagedConcept> entry : stagedConcepts_.entrySet())
+		{
+			StagedConcept staged = entry.getValue();
+			ConceptCreatedEvent event = new ConceptCreatedEvent();
+			event.begin();
+			TtkConceptChronicle concept;
+			if (staged.axis)
+			{
+				concept = conceptUtility_.createConcept(entry.getKey(), staged.value);
+				conceptUtility_.addRelationship(concept, pt_SkipAxis_.getProperty(staged.property).getUUID());
+			}
+			else
+			{
+				concept = conceptUtility_.createConcept(entry.getKey(), classMapping_.getMatchValue(staged.value));
+				if (classMapping_.hasMatch(staged.value))
+				{
+					conceptUtility_.addStringAnnotation(concept, staged.value, propertyToPropertyType_.get("ABBREVIATION").getProperty("ABBREVIATION")
+							.getUUID(), Status.ACTIVE);
+				}
+				conceptUtility_.addRelationship(concept, pt_SkipClass_.getProperty(staged.property).getUUID());
+			}
+			concepts_.put(concept.getPrimordialUuid(), concept);
+			event.kind = (staged.axis ? "axis" : "class");
+			event.property = staged.property;
+			event.value = staged.value;
+			event.commit();
+		}
+		stagedConcepts_.clear();
+	}
+
+	/**
+	 * Drop whatever the failed row had staged - its index entries, and the axis and class concepts it would have created - and
+	 * quarantine it.
+	 */
+	private void quarantineDataLine(RowBatch batch, int row, Exception e) throws IOException
+	{
+		stagedConcepts_.clear();
+		if (loincIndex_ != null)
+		{
+			loincIndex_.discard();
+		}
+		if (nameIndex_ != null)
+		{
+			nameIndex_.discard();
+		}
+		quarantine_.add(loincDataFileName_, batch.getRowNumber(row), "Conversion failed (" + e.getClass().getSimpleName() + ")", e.getMessage(),
+				Arrays.toString(batch.getRow(row)));
+	}
+
+	/**
+	 * The columns analytics scans by - the code, the axes and class, status, ranks and the names - where the data file has them.
+	 */
+	private void initColumnarExport()
+	{
+		LinkedHashSet<String> columns = new LinkedHashSet<>();
+		columns.add("LOINC_NUM");
+		columns.addAll(pt_SkipAxis_.getPropertyNames());
+		columns.addAll(pt_SkipClass_.getPropertyNames());
+		columns.addAll(Arrays.asList("STATUS", "CLASSTYPE", "COMMON_TEST_RANK", "COMMON_ORDER_RANK", "COMMON_SI_TEST_RANK"));
+		for (PropertyType pt : propertyTypes_)
+		{
+			if (pt instanceof PT_Descriptions)
+			{
+				columns.addAll(pt.getPropertyNames());
+			}
+		}
+		ArrayList<String> present = new ArrayList<>();
+		for (String column : columns)
+		{
+			if (fieldMap_.containsKey(column))
+			{
+				present.add(column);
+			}
+		}
+		columnarSource_ = new int[present.size()];
+		for (int i = 0; i < columnarSource_.length; i++)
+		{
+			columnarSource_[i] = fieldMap_.get(present.get(i));
 		}
+		columnarRow_ = new String[columnarSource_.length];
+		columnar_ = new ColumnarWriter(present.toArray(new String[present.size()]));
 	}
 
 	private void processMultiAxialData(UUID rootConcept, String[] line)
@@ -672,15 +2075,14 @@ public class LoincToEConcepts extends ConverterBaseMojo
 
 		if (code.length() == 0 || codeText.length() == 0)
 		{
-			ConsoleUtil.printErrorln("missing code or text!");
+			errors_.add("missing code or text!", code);
 		}
 
 		UUID potential = buildUUID(code);
 
-		TtkConceptChronicle concept = concepts_.get(potential);
-		if (concept == null)
+		if (!graph_.contains(potential))
 		{
-			concept = conceptUtility_.createConcept(potential);
+			TtkConceptChronicle concept = conceptUtility_.createConcept(potential);
 			if (sequence != null && sequence.length() > 0)
 			{
 				conceptUtility_.addStringAnnotation(concept, sequence, propertyToPropertyType_.get("SEQUENCE").getProperty("SEQUENCE").getUUID(), Status.ACTIVE);
@@ -697,6 +2099,12 @@ public class LoincToEConcepts extends ConverterBaseMojo
 
 			conceptUtility_.addRelationship(concept, immediateParent, propertyToPropertyType_.get("Multiaxial Child Of").getProperty("Multiaxial Child Of"), null);
 
+			if (sharedParts_.contains(code))
+			{
+				conceptUtility_.addRelationship(concept, buildPartUUID(code), propertyToPropertyType_.get(PT_PartRelations.SAME_AS_PART)
+						.getProperty(PT_PartRelations.SAME_AS_PART), null);
+			}
+
 			if (pathString != null && pathString.length() > 0)
 			{
 				conceptUtility_.addStringAnnotation(concept, pathString, propertyToPropertyType_.get("PATH_TO_ROOT").getProperty("PATH_TO_ROOT").getUUID(), Status.ACTIVE);
@@ -704,42 +2112,93 @@ public class LoincToEConcepts extends ConverterBaseMojo
 			conceptUtility_.addStringAnnotation(concept, code, propertyToPropertyType_.get("CODE").getProperty("CODE").getUUID(), Status.ACTIVE);
 
 			concepts_.put(concept.getPrimordialUuid(), concept);
+			multiAxialConcepts_.add(concept.getPrimordialUuid());
+			if (jbinIndex_ != null)
+			{
+				jbinIndex_.addCode(code, concept.getPrimordialUuid());
+			}
 		}
 
 		// Make sure everything in pathToRoot is linked.
-		checkPath(concept, pathToRoot);
+		PathEdgesEvent event = new PathEdgesEvent();
+		event.begin();
+		int edgesAdded = checkPath(potential, pathToRoot);
+		if (edgesAdded > 0 && event.shouldCommit())
+		{
+			event.code = code;
+			event.pathLength = pathToRoot.length;
+			event.edgesAdded = edgesAdded;
+			event.commit();
+		}
 	}
 
-	private void checkPath(TtkConceptChronicle concept, String[] pathToRoot)
+	/**
+	 * @return the number of relationships added
+	 */
+	private int checkPath(UUID concept, String[] pathToRoot)
 	{
+		int added = 0;
+		Property childOf = propertyToPropertyType_.get("Multiaxial Child Of").getProperty("Multiaxial Child Of");
 		// The passed in concept should have a relation to the item at the end of the root list.
 		for (int i = (pathToRoot.length - 1); i >= 0; i--)
 		{
-			boolean found = false;
 			UUID target = buildUUID(pathToRoot[i]);
-			List<TtkRelationshipChronicle> rels = concept.getRelationships();
-			if (rels != null)
+			LiteConcept lite = dataConcepts_.get(concept);
+			if (lite != null)
 			{
-				for (TtkRelationshipChronicle rel : rels)
+				if (!lite.hasRelationshipTo(target))
 				{
-					if (rel.getC1Uuid().equals(concept.getPrimordialUuid()) && rel.getC2Uuid().equals(target))
-					{
-						found = true;
-						break;
-					}
+					lite.addRelationship(liteDictionary_, childOf, false, target);
+					added++;
 				}
 			}
-			if (!found)
+			else
 			{
-				conceptUtility_.addRelationship(concept, target, propertyToPropertyType_.get("Multiaxial Child Of").getProperty("Multiaxial Child Of"), null);
+				boolean found = false;
+				TtkConceptChronicle full = concepts_.get(concept);
+				List<TtkRelationshipChronicle> rels = full.getRelationships();
+				if (rels != null)
+				{
+					for (TtkRelationshipChronicle rel : rels)
+					{
+						if (rel.getC1Uuid().equals(concept) && rel.getC2Uuid().equals(target))
+						{
+							found = true;
+							break;
+						}
+					}
+				}
+				if (!found)
+				{
+					conceptUtility_.addRelationship(full, target, childOf, null);
+					added++;
+				}
 			}
-			concept = concepts_.get(target);
-			if (concept == null)
+			concept = target;
+			if (!graph_.contains(target))
 			{
-				ConsoleUtil.printErrorln("Missing concept! " + pathToRoot[i]);
+				errors_.add("Missing concept!", pathToRoot[i]);
 				break;
 			}
 		}
+		return added;
+	}
+
+	/**
+	 * Write a concept to the jbin, noting its location for the jbin index.
+	 */
+	private void writeConcept(TtkConceptChronicle concept) throws IOException
+	{
+		long start = jbinPosition_.getByteCount();
+		concept.writeExternal(dos_);
+		if (jbinIndex_ != null)
+		{
+			jbinIndex_.addRecord(concept.getPrimordialUuid(), start, jbinPosition_.getByteCount() - start);
+		}
+		if (jbinChunker_ != null)
+		{
+			jbinChunker_.addRecordEnd(jbinPosition_.getByteCount());
+		}
 	}
 
 	private Status mapStatus(String status) throws IOException
@@ -755,7 +2214,7 @@ public class LoincToEConcepts extends ConverterBaseMojo
 		}
 		else
 		{
-			ConsoleUtil.printErrorln("No mapping for status: " + status);
+			errors_.add("No mapping for status:", status);
 			return Status.ACTIVE;
 		}
 	}
@@ -777,6 +2236,74 @@ public class LoincToEConcepts extends ConverterBaseMojo
 	 */
 	private UUID buildUUID(String uniqueIdentifier)
 	{
-		return ConverterUUID.createNamespaceUUIDFromString(uniqueIdentifier, true);
+		UUID result = ConverterUUID.createNamespaceUUIDFromString(uniqueIdentifier, true);
+		recordUuid(result, uniqueIdentifier);
+		return result;
+	}
+
+	private void recordUuid(UUID uuid, String seed)
+	{
+		if (uuidDebug_ != null)
+		{
+			uuidDebug_.record(uuid, seed);
+		}
+	}
+	/**
+	 * The full concepts and the compact data concepts, as one graph.
+	 */
+	private class ConverterGraph implements ConceptGraph
+	{
+		@Override
+		public Set<UUID> getConcepts()
+		{
+			HashSet<UUID> result = new HashSet<>(InputProfile.capacity(concepts_.size() + dataConcepts_.size()));
+			result.addAll(concepts_.keySet());
+			result.addAll(dataConcepts_.keySet());
+			return result;
+		}
+
+		@Override
+		public boolean contains(UUID concept)
+		{
+			return dataConcepts_.containsKey(concept) || concepts_.containsKey(concept);
+		}
+
+		@Override
+		public int getRelationshipCount(UUID concept)
+		{
+			LiteConcept lite = dataConcepts_.get(concept);
+			if (lite != null)
+			{
+				return lite.getRelationshipCount();
+			}
+			List<TtkRelationshipChronicle> rels = concepts_.get(concept).getRelationships();
+			return rels == null ? 0 : rels.size();
+		}
+
+		@Override
+		public UUID getRelationshipType(UUID concept, int index)
+		{
+			LiteConcept lite = dataConcepts_.get(concept);
+			return lite != null ? lite.getRelationshipType(liteDictionary_, index) : concepts_.get(concept).getRelationships().get(index).getTypeUuid();
+		}
+
+		@Override
+		public UUID getRelationshipTarget(UUID concept, int index)
+		{
+			LiteConcept lite = dataConcepts_.get(concept);
+			return lite != null ? lite.getRelationshipTarget(index) : concepts_.get(concept).getRelationships().get(index).getC2Uuid();
+		}
+
+		@Override
+		public String getName(UUID concept)
+		{
+			LiteConcept lite = dataConcepts_.get(concept);
+			if (lite != null)
+			{
+				return lite.getName();
+			}
+			TtkConceptChronicle c = concepts_.get(concept);
+			return c.getDescriptions() == null || c.getDescriptions().size() == 0 ? "" : c.getDescriptions().get(0).getText();
+		}
 	}
 }
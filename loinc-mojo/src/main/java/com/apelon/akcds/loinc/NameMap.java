@@ -20,6 +20,8 @@ package com.apelon.akcds.loinc;
 
 import gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Hashtable;
@@ -43,8 +45,20 @@ public class NameMap
 	public NameMap(String mapFileName) throws IOException
 	{
 		ConsoleUtil.println("Using the class map file " + mapFileName);
-		BufferedReader in = new BufferedReader(new InputStreamReader(NameMap.class.getResourceAsStream("/" + mapFileName)));
-		
+		read(new BufferedReader(new InputStreamReader(NameMap.class.getResourceAsStream("/" + mapFileName))), mapFileName);
+	}
+	
+	/**
+	 * Read the map from a file, rather than the class path - for editing the class mappings without a rebuild.
+	 */
+	public NameMap(File mapFile) throws IOException
+	{
+		ConsoleUtil.println("Using the class map file " + mapFile.getAbsolutePath());
+		read(new BufferedReader(new InputStreamReader(new FileInputStream(mapFile))), mapFile.getName());
+	}
+	
+	private void read(BufferedReader in, String mapFileName) throws IOException
+	{
 		String key = null;
 		String value = null;
 		for (String str = in.readLine(); str != null; str = in.readLine())
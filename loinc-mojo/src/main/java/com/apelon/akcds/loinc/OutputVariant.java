@@ -0,0 +1,144 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ *
+ * {@link OutputVariant}
+ *
+ * One extra flavour of the jbin, written from the same parse as the main one - variants/loincEConcepts-&lt;name&gt;.jbin.  Configured in
+ * the pom as
+ * <pre>
+ * &lt;outputVariants&gt;
+ *     &lt;outputVariant&gt;
+ *         &lt;name&gt;active&lt;/name&gt;
+ *         &lt;annotationSkipList&gt;&lt;annotationSkipList&gt;SPECIES&lt;/annotationSkipList&gt;&lt;/annotationSkipList&gt;
+ *         &lt;includeDeprecated&gt;false&lt;/includeDeprecated&gt;
+ *         &lt;includeMultiAxial&gt;false&lt;/includeMultiAxial&gt;
+ *     &lt;/outputVariant&gt;
+ * &lt;/outputVariants&gt;
+ * </pre>
+ * or, as a single value (the command line launcher's -p outputVariants=...), with the variants separated by '|', and their
+ * settings by ';' - <code>active;annotationSkipList=SPECIES,FORMULA;includeDeprecated=false|noTree;includeMultiAxial=false</code>
+ */
+public class OutputVariant
+{
+	private String name;
+	private List<String> annotationSkipList = new ArrayList<>();
+	private boolean includeDeprecated = true;
+	private boolean includeMultiAxial = true;
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the data file columns to leave out of the annotations, like the mojo's own annotationSkipList - never null
+	 */
+	public List<String> getAnnotationSkipList()
+	{
+		return annotationSkipList == null ? new ArrayList<String>() : annotationSkipList;
+	}
+
+	/**
+	 * @return false to leave out the LOINC codes with the DEPRECATED status
+	 */
+	public boolean isIncludeDeprecated()
+	{
+		return includeDeprecated;
+	}
+
+	/**
+	 * @return false to leave out the multi-axial hierarchy - its concepts, and the links from the LOINC codes into it
+	 */
+	public boolean isIncludeMultiAxial()
+	{
+		return includeMultiAxial;
+	}
+
+	/**
+	 * @return the variants of a single value, in the form described above
+	 */
+	public static List<OutputVariant> parseList(String value)
+	{
+		ArrayList<OutputVariant> result = new ArrayList<>();
+		for (String variant : value.split("\\|"))
+		{
+			if (variant.trim().length() == 0)
+			{
+				continue;
+			}
+			String[] settings = variant.split(";");
+			OutputVariant v = new OutputVariant();
+			v.name = settings[0].trim();
+			for (int i = 1; i < settings.length; i++)
+			{
+				int equals = settings[i].indexOf('=');
+				String setting = (equals < 0 ? settings[i] : settings[i].substring(0, equals)).trim();
+				String settingValue = (equals < 0 ? "" : settings[i].substring(equals + 1).trim());
+				switch (setting)
+				{
+					case "annotationSkipList":
+						for (String s : settingValue.split(","))
+						{
+							if (s.trim().length() > 0)
+							{
+								v.annotationSkipList.add(s.trim());
+							}
+						}
+						break;
+					case "includeDeprecated":
+						v.includeDeprecated = Boolean.parseBoolean(settingValue);
+						break;
+					case "includeMultiAxial":
+						v.includeMultiAxial = Boolean.parseBoolean(settingValue);
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown output variant setting " + setting + " in '" + variant + "'");
+				}
+			}
+			result.add(v);
+		}
+		return result;
+	}
+
+	/**
+	 * Check the names are usable in a file name, and unique.
+	 */
+	public static void validate(List<OutputVariant> variants)
+	{
+		HashSet<String> names = new HashSet<>();
+		for (OutputVariant v : variants)
+		{
+			if (v.name == null || !v.name.matches("[A-Za-z0-9_.-]+"))
+			{
+				throw new IllegalArgumentException("Output variant names must be letters, digits, '_', '.' or '-' - not '" + v.name + "'");
+			}
+			if (!names.add(v.name))
+			{
+				throw new IllegalArgumentException("There are two output variants named " + v.name);
+			}
+		}
+	}
+}
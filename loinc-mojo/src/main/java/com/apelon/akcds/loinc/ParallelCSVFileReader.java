@@ -0,0 +1,351 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import au.com.bytecode.opencsv.CSVReader;
+
+/**
+ *
+ * {@link ParallelCSVFileReader}
+ *
+ * Reads the same files as {@link CSVFileReader}, with the same results, but parses on several threads.  The file is mapped, and
+ * cut into byte ranges that each start on a record boundary.  The ranges are parsed concurrently, a few ahead of the reader, and
+ * the rows handed out in file order.
+ *
+ * Finding the boundaries takes care - LOINC fields hold quoted commas and line breaks.  A single quick pass over the bytes replays
+ * the opencsv parser's state (in a quoted field or not, and its in-field flag, which carries from one line to the next and changes
+ * how a leading "" is read).  A range may only start after a line break outside of quotes, and a range that starts with the
+ * in-field flag set is parsed with a throw away line in front, that leaves the flag set.  Multi-byte characters never contain
+ * the ASCII quote, comma, backslash or line break bytes, so the pass works on the raw bytes.
+ *
+ * The optional UTF-8 BOM is skipped, the text is decoded with the platform charset (as the sequential reader does), and rows with
+ * too many fields fail the same way.
+ */
+public class ParallelCSVFileReader extends LOINCReader
+{
+	private static final char QUOTE = '"';
+	private static final char ESCAPE = '\\';
+	private static final char SEPARATOR = ',';
+
+	private static class Range
+	{
+		int start, end;
+		boolean inField;
+	}
+
+	private final RandomAccessFile file_;
+	private final MappedByteBuffer data_;
+	private final ExecutorService pool_;
+	private final List<Range> ranges_;
+	private final int window_;
+	private int nextRange_ = 0;
+	private final ArrayDeque<Future<List<String[]>>> parsing_ = new ArrayDeque<>();
+	private final ArrayDeque<Range> parsingRanges_ = new ArrayDeque<>();
+	private List<String[]> current_ = new ArrayList<>();
+	private int currentRow_ = 0;
+	private long consumed_ = 0;
+
+	private String[] header;
+	private String version;
+	private String release;
+
+	/**
+	 * @param threads the number of parse threads - each keeps up to two ranges of rows ahead of the reader
+	 */
+	public ParallelCSVFileReader(File f, int threads) throws IOException
+	{
+		ConsoleUtil.println("Using the data file " + f.getAbsolutePath() + " (" + threads + " parse threads)");
+		file_ = new RandomAccessFile(f, "r");
+		if (file_.length() > Integer.MAX_VALUE)
+		{
+			file_.close();
+			throw new IOException("Too large to map: " + f.getAbsolutePath());
+		}
+		data_ = file_.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file_.length());
+		int start = 0;
+		if (data_.limit() >= 3 && (data_.get(0) & 0xFF) == 0xEF && (data_.get(1) & 0xFF) == 0xBB && (data_.get(2) & 0xFF) == 0xBF)
+		{
+			start = 3;
+		}
+		int targetSize = (int) Math.max(1 << 20, Math.min(8 << 20, data_.limit() / (threads * 4L)));
+		ranges_ = findRanges(start, targetSize);
+		window_ = threads * 2;
+
+		pool_ = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "loinc-csv-parse-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		fill();
+
+		header = readLine();
+		String[] notes = CSVFileReader.readReleaseNotes(f.getParentFile());
+		version = notes[0];
+		release = notes[1];
+	}
+
+	/**
+	 * Replay the parser over the bytes, and cut after the first record ending line break past each target size.
+	 */
+	private List<Range> findRanges(int start, int targetSize)
+	{
+		ArrayList<Range> result = new ArrayList<>();
+		int limit = data_.limit();
+		boolean inQuotes = false;
+		boolean inField = false;
+		Range range = new Range();
+		range.start = start;
+		for (int i = start; i < limit; i++)
+		{
+			char c = (char) (data_.get(i) & 0xFF);
+			if (c == '\n' || c == '\r')
+			{
+				// A line break - the record goes on if it is in quotes.  inField carries over, as it does in the parser.
+				if (c == '\n' && !inQuotes && i + 1 - range.start >= targetSize && i + 1 < limit)
+				{
+					range.end = i + 1;
+					result.add(range);
+					range = new Range();
+					range.start = i + 1;
+					range.inField = inField;
+				}
+			}
+			else if (c == ESCAPE)
+			{
+				if ((inQuotes || inField) && i + 1 < limit && (data_.get(i + 1) == QUOTE || data_.get(i + 1) == ESCAPE))
+				{
+					i++;
+				}
+			}
+			else if (c == QUOTE)
+			{
+				if ((inQuotes || inField) && i + 1 < limit && data_.get(i + 1) == QUOTE)
+				{
+					i++;
+				}
+				else
+				{
+					inQuotes = !inQuotes;
+				}
+				inField = !inField;
+			}
+			else if (c == SEPARATOR && !inQuotes)
+			{
+				inField = false;
+			}
+			else
+			{
+				inField = true;
+			}
+		}
+		range.end = limit;
+		result.add(range);
+		return result;
+	}
+
+	/**
+	 * Keep the window of ranges being parsed full.
+	 */
+	private void fill()
+	{
+		while (parsing_.size() < window_ && nextRange_ < ranges_.size())
+		{
+			final Range range = ranges_.get(nextRange_++);
+			parsing_.add(pool_.submit(new Callable<List<String[]>>()
+			{
+				@Override
+				public List<String[]> call() throws Exception
+				{
+					return parse(range);
+				}
+			}));
+			parsingRanges_.add(range);
+		}
+	}
+
+	private List<String[]> parse(Range range) throws IOException
+	{
+		ByteBuffer view = data_.duplicate();
+		view.position(range.start);
+		byte[] bytes = new byte[range.end - range.start];
+		view.get(bytes);
+		String text = new String(bytes, Charset.defaultCharset());
+		ArrayList<String[]> rows = new ArrayList<>();
+		// Any non separator character leaves the parser's in-field flag set - a fresh parser starts with it clear
+		CSVReader reader = new CSVReader(new StringReader(range.inField ? "x\n" + text : text));
+		if (range.inField)
+		{
+			reader.readNext();
+		}
+		String[] row = reader.readNext();
+		while (row != null)
+		{
+			rows.add(row);
+			row = reader.readNext();
+		}
+		reader.close();
+		return rows;
+	}
+
+	private String[] nextRow() throws IOException
+	{
+		while (currentRow_ >= current_.size())
+		{
+			if (parsing_.isEmpty())
+			{
+				return null;
+			}
+			try
+			{
+				current_ = parsing_.poll().get();
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException("Interrupted while parsing", e);
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof RuntimeException)
+				{
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			currentRow_ = 0;
+			consumed_ = parsingRanges_.poll().end;
+			fill();
+		}
+		return current_.get(currentRow_++);
+	}
+
+	@Override
+	public String getVersion()
+	{
+		return version;
+	}
+
+	@Override
+	public String getReleaseDate()
+	{
+		return release;
+	}
+
+	@Override
+	public String[] getHeader()
+	{
+		return header;
+	}
+
+	@Override
+	public long getBytesRead()
+	{
+		return consumed_;
+	}
+
+	@Override
+	public String[] readLine() throws IOException
+	{
+		String[] temp = nextRow();
+		while (temp != null && fieldCount_ > 0 && temp.length > fieldCount_)
+		{
+			tooManyFields(++rowNumber_, Arrays.toString(temp));
+			temp = nextRow();
+		}
+		if (temp != null)
+		{
+			if (fieldCount_ == 0)
+			{
+				fieldCount_ = temp.length;
+				int i = 0;
+				for (String s : temp)
+				{
+					fieldMapInverse_.put(i, s);
+					fieldMap_.put(s, i++);
+				}
+			}
+			else
+			{
+				rowNumber_++;
+				if (temp.length < fieldCount_)
+				{
+					temp = Arrays.copyOf(temp, fieldCount_);
+				}
+			}
+		}
+		return temp;
+	}
+
+	@Override
+	public int readBatch(RowBatch batch) throws IOException
+	{
+		batch.clear();
+		while (!batch.isFull())
+		{
+			String[] temp = nextRow();
+			if (temp == null)
+			{
+				break;
+			}
+			rowNumber_++;
+			if (temp.length > fieldCount_)
+			{
+				tooManyFields(rowNumber_, Arrays.toString(temp));
+				continue;
+			}
+			batch.add(temp, temp.length, rowNumber_);
+		}
+		return batch.size();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		pool_.shutdownNow();
+		parsing_.clear();
+		current_ = new ArrayList<>();
+		// The mapping itself is released when the buffer is collected
+		file_.close();
+	}
+}
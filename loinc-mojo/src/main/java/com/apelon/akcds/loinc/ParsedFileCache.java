@@ -0,0 +1,267 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ *
+ * {@link ParsedFileCache}
+ *
+ * Keeps parsed input files, and class mapping files, in memory between conversions run in the same JVM - see
+ * {@link ConversionWatcher}.  An entry is reused only while the files it was read from are unchanged (same length and
+ * modification time), so a stale parse is never handed out.
+ *
+ * Thread safe.
+ */
+public class ParsedFileCache
+{
+	private static class ParsedFile
+	{
+		String signature;
+		String version;
+		String releaseDate;
+		String[] header;
+		Hashtable<String, Integer> fieldMap;
+		Hashtable<Integer, String> fieldMapInverse;
+		ArrayList<String[]> rows;
+		// The rows with too many fields, by row number - replayed in place, so each run fails, or quarantines them, the same way
+		TreeMap<Long, String> badRows = new TreeMap<>();
+	}
+
+	private static class CachedNameMap
+	{
+		String signature;
+		NameMap map;
+	}
+
+	private final Hashtable<String, ParsedFile> files_ = new Hashtable<>();
+	private final Hashtable<String, CachedNameMap> nameMaps_ = new Hashtable<>();
+	private final File classMappingsDir_;
+	private int hits_ = 0;
+	private int misses_ = 0;
+
+	/**
+	 * @param classMappingsDir a folder to read the classMappings files from, in place of the copies built into the jar - so they
+	 * can be edited without a rebuild.  null to use the built in ones.
+	 */
+	public ParsedFileCache(File classMappingsDir)
+	{
+		classMappingsDir_ = classMappingsDir;
+	}
+
+	/**
+	 * @param csv true for a CSV release file, false for the old tab delimited LOINCDB.TXT
+	 * @return a reader over the parsed file - parsing it now, if it isn't cached, or has changed since
+	 */
+	public synchronized LOINCReader open(File f, boolean csv) throws Exception
+	{
+		String key = f.getAbsolutePath();
+		String signature = signature(f, csv);
+		ParsedFile parsed = files_.get(key);
+		if (parsed != null && parsed.signature.equals(signature))
+		{
+			hits_++;
+			ConsoleUtil.println("Reusing the parsed data file " + key);
+			return new CachedFileReader(parsed);
+		}
+		misses_++;
+		LOINCReader reader = (csv ? new CSVFileReader(f) : new TxtFileReader(f));
+		try
+		{
+			parsed = new ParsedFile();
+			final TreeMap<Long, String> badRows = parsed.badRows;
+			reader.setQuarantine(new Quarantine(null, -1)
+			{
+				@Override
+				public synchronized void add(String source, long rowNumber, String reason, String detail, String row) throws IOException
+				{
+					badRows.put(rowNumber, row);
+				}
+			}, f.getName());
+			parsed.signature = signature;
+			parsed.header = reader.getHeader();
+			parsed.version = reader.getVersion();
+			parsed.releaseDate = reader.getReleaseDate();
+			parsed.rows = new ArrayList<>();
+			String[] line = reader.readLine();
+			while (line != null)
+			{
+				parsed.rows.add(line);
+				line = reader.readLine();
+			}
+			parsed.rows.trimToSize();
+			parsed.fieldMap = reader.getFieldMap();
+			parsed.fieldMapInverse = reader.getFieldMapInverse();
+		}
+		finally
+		{
+			reader.close();
+		}
+		files_.put(key, parsed);
+		return new CachedFileReader(parsed);
+	}
+
+	/**
+	 * @return the class mapping - from the class mappings folder, if one was given and it has the file, otherwise from the class path
+	 */
+	public synchronized NameMap getNameMap(String mapFileName) throws IOException
+	{
+		File f = (classMappingsDir_ == null ? null : new File(classMappingsDir_, mapFileName));
+		String signature = (f != null && f.isFile() ? f.length() + ":" + f.lastModified() : "classpath");
+		CachedNameMap cached = nameMaps_.get(mapFileName);
+		if (cached == null || !cached.signature.equals(signature))
+		{
+			cached = new CachedNameMap();
+			cached.signature = signature;
+			cached.map = (f != null && f.isFile() ? new NameMap(f) : new NameMap(mapFileName));
+			nameMaps_.put(mapFileName, cached);
+		}
+		return cached.map;
+	}
+
+	public File getClassMappingsDir()
+	{
+		return classMappingsDir_;
+	}
+
+	/**
+	 * @return the number of input files served from memory / parsed from disk, since the cache was created
+	 */
+	public synchronized String getStatistics()
+	{
+		return hits_ + " input files reused, " + misses_ + " parsed";
+	}
+
+	private static String signature(File f, boolean csv)
+	{
+		StringBuilder result = new StringBuilder();
+		result.append(f.length()).append(':').append(f.lastModified());
+		if (csv)
+		{
+			// The CSV reader takes the version and release date from the release notes
+			File[] siblings = f.getParentFile().listFiles();
+			if (siblings != null)
+			{
+				for (File sibling : siblings)
+				{
+					if (sibling.getName().toLowerCase().equals("loinc_releasenotes.txt"))
+					{
+						result.append(':').append(sibling.length()).append(':').append(sibling.lastModified());
+					}
+				}
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Replays a parsed file.  The rows are shared with the cache, and must not be modified.
+	 */
+	private static class CachedFileReader extends LOINCReader
+	{
+		private final ParsedFile parsed_;
+		private int next_ = 0;
+		private final Iterator<Entry<Long, String>> badRows_;
+		private Entry<Long, String> nextBadRow_;
+
+		CachedFileReader(ParsedFile parsed)
+		{
+			parsed_ = parsed;
+			fieldMap_ = parsed.fieldMap;
+			fieldMapInverse_ = parsed.fieldMapInverse;
+			fieldCount_ = parsed.header.length;
+			badRows_ = parsed.badRows.entrySet().iterator();
+			nextBadRow_ = (badRows_.hasNext() ? badRows_.next() : null);
+		}
+
+		/**
+		 * Hand any bad rows that came before the next good one to {@link #tooManyFields(long, String)}, as the file reader did.
+		 */
+		private void skipBadRows() throws IOException
+		{
+			while (nextBadRow_ != null && nextBadRow_.getKey() == rowNumber_ + 1)
+			{
+				tooManyFields(++rowNumber_, nextBadRow_.getValue());
+				nextBadRow_ = (badRows_.hasNext() ? badRows_.next() : null);
+			}
+		}
+
+		@Override
+		public String getVersion()
+		{
+			return parsed_.version;
+		}
+
+		@Override
+		public String getReleaseDate()
+		{
+			return parsed_.releaseDate;
+		}
+
+		@Override
+		public String[] getHeader()
+		{
+			return parsed_.header;
+		}
+
+		@Override
+		public String[] readLine() throws IOException
+		{
+			skipBadRows();
+			if (next_ < parsed_.rows.size())
+			{
+				rowNumber_++;
+				return parsed_.rows.get(next_++).clone();
+			}
+			return null;
+		}
+
+		@Override
+		public int readBatch(RowBatch batch) throws IOException
+		{
+			batch.clear();
+			while (!batch.isFull())
+			{
+				skipBadRows();
+				if (next_ >= parsed_.rows.size())
+				{
+					break;
+				}
+				String[] row = parsed_.rows.get(next_++);
+				batch.add(row, row.length, ++rowNumber_);
+			}
+			return batch.size();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			next_ = parsed_.rows.size();
+			nextBadRow_ = null;
+		}
+	}
+}
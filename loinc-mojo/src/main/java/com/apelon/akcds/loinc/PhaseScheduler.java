@@ -0,0 +1,203 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import com.apelon.akcds.loinc.jfr.PhaseEvent;
+
+/**
+ *
+ * {@link PhaseScheduler}
+ *
+ * Runs the phases of a conversion as a small dependency graph - each phase starts as soon as all of the phases it depends on
+ * have finished, so independent phases (typically file parsing) overlap with each other, and with the CPU bound work.
+ *
+ * Phases must be added after the phases they depend on, which keeps the graph acyclic by construction.  If any phase fails,
+ * the phases that depend on it are skipped, and {@link #run()} throws the first failure.
+ */
+public class PhaseScheduler
+{
+	public interface Phase
+	{
+		public void run() throws Exception;
+	}
+
+	private static class Node
+	{
+		String name;
+		Phase work;
+		String[] dependsOn;
+		CompletableFuture<Void> future;
+		volatile long startNanos, endNanos;
+	}
+
+	private final LinkedHashMap<String, Node> phases_ = new LinkedHashMap<>();
+	private final int threads_;
+	private long runNanos_;
+
+	/**
+	 * @param threads the most phases to run at once - 1 runs the phases one at a time, in the order they were added
+	 */
+	public PhaseScheduler(int threads)
+	{
+		threads_ = Math.max(1, threads);
+	}
+
+	public void add(String name, Phase work, String ... dependsOn)
+	{
+		for (String d : dependsOn)
+		{
+			if (!phases_.containsKey(d))
+			{
+				throw new IllegalArgumentException("Phase " + name + " depends on " + d + ", which hasn't been added");
+			}
+		}
+		if (phases_.containsKey(name))
+		{
+			throw new IllegalArgumentException("Duplicate phase " + name);
+		}
+		Node n = new Node();
+		n.name = name;
+		n.work = work;
+		n.dependsOn = dependsOn;
+		phases_.put(name, n);
+	}
+
+	/**
+	 * Runs all of the phases, and waits for them to finish.
+	 */
+	public void run() throws Exception
+	{
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads_, new ThreadFactory()
+		{
+			int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "loinc-phase-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try
+		{
+			for (final Node n : phases_.values())
+			{
+				CompletableFuture<?>[] deps = new CompletableFuture<?>[n.dependsOn.length];
+				for (int i = 0; i < deps.length; i++)
+				{
+					deps[i] = phases_.get(n.dependsOn[i]).future;
+				}
+				n.future = CompletableFuture.allOf(deps).thenRunAsync(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						n.startNanos = System.nanoTime();
+						PhaseEvent event = new PhaseEvent();
+						event.begin();
+						try
+						{
+							n.work.run();
+						}
+						catch (RuntimeException e)
+						{
+							throw e;
+						}
+						catch (Exception e)
+						{
+							throw new CompletionException(e);
+						}
+						finally
+						{
+							n.endNanos = System.nanoTime();
+							event.phase = n.name;
+							event.commit();
+						}
+					}
+				}, executor);
+			}
+
+			// Wait in insertion order, so the failure reported is the earliest phase that failed, not a dependent that was skipped.
+			for (Node n : phases_.values())
+			{
+				try
+				{
+					n.future.join();
+				}
+				catch (CompletionException e)
+				{
+					Throwable cause = e;
+					while (cause instanceof CompletionException && cause.getCause() != null)
+					{
+						cause = cause.getCause();
+					}
+					if (cause instanceof Exception)
+					{
+						throw (Exception) cause;
+					}
+					throw e;
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			runNanos_ = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * @return one line per phase - its elapsed time, and when it started relative to the start of the run
+	 */
+	public List<String> getTimingSummary()
+	{
+		ArrayList<String> result = new ArrayList<>();
+		long first = Long.MAX_VALUE;
+		for (Node n : phases_.values())
+		{
+			if (n.startNanos > 0)
+			{
+				first = Math.min(first, n.startNanos);
+			}
+		}
+		for (Node n : phases_.values())
+		{
+			if (n.startNanos == 0)
+			{
+				result.add(n.name + ": not run");
+			}
+			else
+			{
+				result.add(n.name + ": " + ((n.endNanos - n.startNanos) / 1000000) + " ms (started at +" + ((n.startNanos - first) / 1000000) + " ms)");
+			}
+		}
+		result.add("Total: " + (runNanos_ / 1000000) + " ms");
+		return result;
+	}
+}
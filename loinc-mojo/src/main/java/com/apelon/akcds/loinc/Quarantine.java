@@ -0,0 +1,134 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ *
+ * {@link Quarantine}
+ *
+ * Takes the rows that can't be converted - too many fields, an unparseable date, a missing column - so that the run can carry on
+ * without them, instead of failing on the first one.  Each row is written to the quarantine file with its file name, row number
+ * (counting the data rows from 1, after the header) and the reason, so it can be fixed and the release re-run.
+ *
+ * A bad release shouldn't quietly turn into a small conversion - once more than the allowed number of rows are quarantined, the
+ * next one fails the run.  The file is only created when the first row is quarantined.
+ *
+ * Thread safe.
+ */
+public class Quarantine implements Closeable
+{
+	private final File file_;
+	private final int maxRows_;
+	private Writer out_;
+	private int count_ = 0;
+	private final LinkedHashMap<String, Integer> reasons_ = new LinkedHashMap<>();
+
+	/**
+	 * @param file where to write the rows - any existing file is deleted.  null to only count them.
+	 * @param maxRows the most rows to quarantine before failing the run - negative for no limit
+	 */
+	public Quarantine(File file, int maxRows)
+	{
+		file_ = file;
+		maxRows_ = maxRows;
+		if (file_ != null && file_.exists())
+		{
+			file_.delete();
+		}
+	}
+
+	/**
+	 * @param source the file the row came from
+	 * @param rowNumber the data row number, from 1
+	 * @param reason a fixed description of the problem - the key the totals are kept under
+	 * @param detail the specifics of this row (the exception message...) - may be null
+	 * @param row the content of the row
+	 * @throws IOException if the row is one more than the limit, or the quarantine file can't be written
+	 */
+	public synchronized void add(String source, long rowNumber, String reason, String detail, String row) throws IOException
+	{
+		count_++;
+		Integer count = reasons_.get(reason);
+		reasons_.put(reason, count == null ? 1 : count + 1);
+		if (file_ != null)
+		{
+			if (out_ == null)
+			{
+				out_ = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file_), StandardCharsets.UTF_8));
+			}
+			String nl = System.lineSeparator();
+			out_.write(source + " row " + rowNumber + ": " + reason + (detail == null || detail.length() == 0 ? "" : " - " + detail) + nl);
+			out_.write("\t" + row + nl);
+		}
+		if (maxRows_ >= 0 && count_ > maxRows_)
+		{
+			throw new IOException("More than " + maxRows_ + " rows are bad - " + source + " row " + rowNumber + ": " + reason
+					+ (detail == null || detail.length() == 0 ? "" : " - " + detail) + (file_ == null ? "" : ".  See " + file_.getAbsolutePath()));
+		}
+	}
+
+	/**
+	 * @return the number of rows quarantined so far
+	 */
+	public synchronized int getCount()
+	{
+		return count_;
+	}
+
+	public File getFile()
+	{
+		return file_;
+	}
+
+	/**
+	 * @return the number of rows quarantined for each reason, in the order the reasons were first seen
+	 */
+	public synchronized List<String> getSummary()
+	{
+		ArrayList<String> result = new ArrayList<>();
+		for (Entry<String, Integer> reason : reasons_.entrySet())
+		{
+			result.add(String.format("%10d  %s", reason.getValue(), reason.getKey()));
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (out_ != null)
+		{
+			out_.close();
+			out_ = null;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ *
+ * {@link ReferenceCheck}
+ *
+ * Verifies that every relationship of the built concepts points at a concept that exists - a PT_Relations or MAP_TO target
+ * that isn't in the release, or a multi-axial parent that was never defined, otherwise passes silently until the workbench import.
+ *
+ * The concepts are split across a fork join pool, each part collecting its own dangling references, so the check needs no locking.
+ * Concepts must not be modified while it runs.
+ */
+public class ReferenceCheck
+{
+	private static final int SPLIT_THRESHOLD = 2000;
+
+	/**
+	 * One relationship whose target doesn't exist.
+	 */
+	public static class DanglingReference
+	{
+		public final UUID source;
+		public final String sourceName;
+		public final UUID type;
+		public final UUID target;
+
+		DanglingReference(UUID source, String sourceName, UUID type, UUID target)
+		{
+			this.source = source;
+			this.sourceName = sourceName;
+			this.type = type;
+			this.target = target;
+		}
+	}
+
+	private final ConceptGraph graph_;
+	private final UUID[] concepts_;
+	private final HashSet<UUID> known_;
+	private final Map<UUID, String> typeNames_;
+	private long relationshipsChecked_ = 0;
+	private List<DanglingReference> dangling_;
+
+	/**
+	 * @param graph the concepts to check, which are also the valid targets
+	 * @param alsoKnown other valid targets - concepts written to the jbin separately (metadata and the like)
+	 * @param typeNames relationship type UUID to name, for the report.  Types not in the map are reported by UUID.
+	 */
+	public ReferenceCheck(ConceptGraph graph, Collection<UUID> alsoKnown, Map<UUID, String> typeNames)
+	{
+		graph_ = graph;
+		Set<UUID> concepts = graph.getConcepts();
+		concepts_ = concepts.toArray(new UUID[concepts.size()]);
+		// A private, unsynchronized copy - the worker threads only read it
+		known_ = new HashSet<>((int) ((concepts_.length + alsoKnown.size()) / 0.75f) + 1);
+		known_.addAll(concepts);
+		known_.addAll(alsoKnown);
+		typeNames_ = typeNames;
+	}
+
+	/**
+	 * @param parallelism the number of threads to use
+	 * @return the dangling references, sorted by relationship type, then source, then target
+	 */
+	public List<DanglingReference> run(int parallelism)
+	{
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+		try
+		{
+			Result r = pool.invoke(new Check(0, concepts_.length));
+			relationshipsChecked_ = r.checked;
+			Collections.sort(r.dangling, new Comparator<DanglingReference>()
+			{
+				@Override
+				public int compare(DanglingReference o1, DanglingReference o2)
+				{
+					int result = getTypeName(o1.type).compareTo(getTypeName(o2.type));
+					if (result == 0)
+					{
+						result = o1.source.compareTo(o2.source);
+					}
+					return result == 0 ? o1.target.compareTo(o2.target) : result;
+				}
+			});
+			dangling_ = r.dangling;
+			return dangling_;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	public long getRelationshipsChecked()
+	{
+		return relationshipsChecked_;
+	}
+
+	public String getTypeName(UUID type)
+	{
+		String name = (type == null ? null : typeNames_.get(type));
+		return name == null ? String.valueOf(type) : name;
+	}
+
+	/**
+	 * @return the number of dangling references per relationship type, sorted by type name.  Only valid after {@link #run(int)}.
+	 */
+	public TreeMap<String, Integer> getCountsByType()
+	{
+		TreeMap<String, Integer> result = new TreeMap<>();
+		for (DanglingReference d : dangling_)
+		{
+			String name = getTypeName(d.type);
+			Integer count = result.get(name);
+			result.put(name, count == null ? 1 : count + 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Write the dangling references, grouped by relationship type.  Only valid after {@link #run(int)}.
+	 */
+	public void writeReport(File file) throws IOException
+	{
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))
+		{
+			String nl = System.lineSeparator();
+			out.write("Checked " + relationshipsChecked_ + " relationships of " + concepts_.length + " concepts - " + dangling_.size()
+					+ " point at concepts that don't exist." + nl);
+			out.write("Target UUIDs can be traced back to their codes with the UUID debug map." + nl);
+			TreeMap<String, Integer> counts = getCountsByType();
+			String currentType = null;
+			for (DanglingReference d : dangling_)
+			{
+				String type = getTypeName(d.type);
+				if (!type.equals(currentType))
+				{
+					currentType = type;
+					out.write(nl + type + " (" + counts.get(type) + ")" + nl);
+				}
+				out.write("\t" + d.source + "\t" + d.sourceName + "\t-> " + d.target + nl);
+			}
+		}
+	}
+
+	private static class Result
+	{
+		long checked = 0;
+		ArrayList<DanglingReference> dangling = new ArrayList<>();
+	}
+
+	private class Check extends RecursiveTask<Result>
+	{
+		private static final long serialVersionUID = 1L;
+		private final int start_, end_;
+
+		Check(int start, int end)
+		{
+			start_ = start;
+			end_ = end;
+		}
+
+		@Override
+		protected Result compute()
+		{
+			if (end_ - start_ > SPLIT_THRESHOLD)
+			{
+				int mid = (start_ + end_) >>> 1;
+				Check left = new Check(start_, mid);
+				left.fork();
+				Result right = new Check(mid, end_).compute();
+				Result result = left.join();
+				result.checked += right.checked;
+				result.dangling.addAll(right.dangling);
+				return result;
+			}
+			Result result = new Result();
+			for (int i = start_; i < end_; i++)
+			{
+				UUID c = concepts_[i];
+				int count = graph_.getRelationshipCount(c);
+				for (int r = 0; r < count; r++)
+				{
+					result.checked++;
+					UUID target = graph_.getRelationshipTarget(c, r);
+					if (!known_.contains(target))
+					{
+						result.dangling.add(new DanglingReference(c, graph_.getName(c), graph_.getRelationshipType(c, r), target));
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil;
+import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.Property;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.apelon.akcds.loinc.util.CompressedBitmap;
+
+/**
+ *
+ * {@link RefsetRule}
+ *
+ * A refset defined by a condition on the columns of the data file - evaluated against each row as the file is read, so extra
+ * refsets don't need another pass, or post processing of the jbin.  Membership is kept in a {@link CompressedBitmap} over the
+ * build order of the LOINC code concepts, and only turned into refset members as the concepts are written.
+ *
+ * Rules files have one rule per line - the refset name, a tab, then one or more column comparisons joined with '&':
+ * <pre>
+ * LOINC Laboratory Class	CLASSTYPE = 1
+ * LOINC Top 2000 Common Tests	COMMON_TEST_RANK > 0 &amp; COMMON_TEST_RANK &lt;= 2000
+ * </pre>
+ * The operators are = and != (text, an empty value matching an empty column), and &lt; &lt;= &gt; &gt;= (numeric, never matching
+ * an empty or non numeric column).  Lines starting with '#' are ignored.
+ */
+public class RefsetRule
+{
+	private static final Pattern CONDITION = Pattern.compile("\\s*([A-Za-z0-9_]+)\\s*(<=|>=|!=|=|<|>)\\s*(.*?)\\s*");
+
+	private static class Condition
+	{
+		String column;
+		String operator;
+		String value;
+		double number;
+		int columnIndex = -1;
+	}
+
+	private final String name_;
+	private final Condition[] conditions_;
+	private final CompressedBitmap members_ = new CompressedBitmap();
+	private Property property_;
+
+	private RefsetRule(String name, Condition[] conditions)
+	{
+		name_ = name;
+		conditions_ = conditions;
+	}
+
+	/**
+	 * Read the rules from the file, if there is one by that name, otherwise from the class path.
+	 */
+	public static List<RefsetRule> read(String rulesFile) throws IOException
+	{
+		File f = new File(rulesFile);
+		InputStream is;
+		if (f.isFile())
+		{
+			is = new FileInputStream(f);
+		}
+		else
+		{
+			is = RefsetRule.class.getResourceAsStream("/" + rulesFile);
+			if (is == null)
+			{
+				throw new IOException("Couldn't find the refset rules file " + rulesFile);
+			}
+		}
+		ConsoleUtil.println("Using the refset rules file " + (f.isFile() ? f.getAbsolutePath() : rulesFile));
+		ArrayList<RefsetRule> result = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)))
+		{
+			int lineNumber = 0;
+			for (String line = in.readLine(); line != null; line = in.readLine())
+			{
+				lineNumber++;
+				if (line.trim().length() > 0 && !line.trim().startsWith("#"))
+				{
+					try
+					{
+						result.add(parse(line));
+					}
+					catch (IllegalArgumentException e)
+					{
+						throw new IOException("Bad refset rule on line " + lineNumber + " of " + rulesFile + ": " + e.getMessage());
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	static RefsetRule parse(String line)
+	{
+		int tab = line.indexOf('\t');
+		if (tab <= 0 || line.substring(0, tab).trim().length() == 0)
+		{
+			throw new IllegalArgumentException("Expected the refset name, a tab, then the condition - '" + line + "'");
+		}
+		String[] clauses = line.substring(tab + 1).split("&");
+		Condition[] conditions = new Condition[clauses.length];
+		for (int i = 0; i < clauses.length; i++)
+		{
+			Matcher m = CONDITION.matcher(clauses[i]);
+			if (!m.matches())
+			{
+				throw new IllegalArgumentException("Expected COLUMN operator value - '" + clauses[i].trim() + "'");
+			}
+			Condition c = new Condition();
+			c.column = m.group(1);
+			c.operator = m.group(2);
+			c.value = m.group(3);
+			if (!c.operator.equals("=") && !c.operator.equals("!="))
+			{
+				try
+				{
+					c.number = Double.parseDouble(c.value);
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IllegalArgumentException("The " + c.operator + " operator needs a number - '" + clauses[i].trim() + "'");
+				}
+			}
+			conditions[i] = c;
+		}
+		return new RefsetRule(line.substring(0, tab).trim(), conditions);
+	}
+
+	public String getName()
+	{
+		return name_;
+	}
+
+	public Property getProperty()
+	{
+		return property_;
+	}
+
+	/**
+	 * @param property the refset's property, once it is registered with the refset property type
+	 */
+	public void setProperty(Property property)
+	{
+		property_ = property;
+	}
+
+	/**
+	 * Resolve the columns of the conditions against the data file's header.
+	 * @return the columns the data file doesn't have - a rule that needs any of them never matches
+	 */
+	public List<String> bind(Map<String, Integer> fieldMap)
+	{
+		ArrayList<String> missing = new ArrayList<>();
+		for (Condition c : conditions_)
+		{
+			Integer index = fieldMap.get(c.column);
+			c.columnIndex = (index == null ? -1 : index);
+			if (index == null)
+			{
+				missing.add(c.column);
+			}
+		}
+		return missing;
+	}
+
+	public boolean matches(RowBatch batch, int row)
+	{
+		for (Condition c : conditions_)
+		{
+			if (c.columnIndex < 0)
+			{
+				return false;
+			}
+			String value = batch.get(row, c.columnIndex);
+			if (value == null)
+			{
+				value = "";
+			}
+			if (c.operator.equals("="))
+			{
+				if (!value.equals(c.value))
+				{
+					return false;
+				}
+			}
+			else if (c.operator.equals("!="))
+			{
+				if (value.equals(c.value))
+				{
+					return false;
+				}
+			}
+			else
+			{
+				double number;
+				try
+				{
+					number = Double.parseDouble(value);
+				}
+				catch (NumberFormatException e)
+				{
+					return false;
+				}
+				int compare = Double.compare(number, c.number);
+				boolean result;
+				switch (c.operator)
+				{
+					case "<":
+						result = compare < 0;
+						break;
+					case "<=":
+						result = compare <= 0;
+						break;
+					case ">":
+						result = compare > 0;
+						break;
+					default:
+						result = compare >= 0;
+						break;
+				}
+				if (!result)
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param conceptIndex the member's position in the build order - see {@link LiteConcept#getIndex()}
+	 */
+	public void addMember(int conceptIndex)
+	{
+		members_.add(conceptIndex);
+	}
+
+	public boolean isMember(int conceptIndex)
+	{
+		return members_.contains(conceptIndex);
+	}
+
+	public CompressedBitmap getMembers()
+	{
+		return members_;
+	}
+}
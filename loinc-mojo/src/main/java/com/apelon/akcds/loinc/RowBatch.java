@@ -0,0 +1,145 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+/**
+ *
+ * {@link RowBatch}
+ *
+ * A reusable block of rows, stored by column - see {@link LOINCReader#readBatch(RowBatch)}.  Refilled in place on each read, so the
+ * only per row garbage is the field values themselves.
+ *
+ * Rows shorter than the header are padded with nulls, the same as {@link LOINCReader#readLine()}.
+ */
+public class RowBatch
+{
+	private final String[][] columns_;
+	private final long[] rowNumbers_;
+	private int size_ = 0;
+
+	public RowBatch(int columnCount, int capacity)
+	{
+		columns_ = new String[columnCount][capacity];
+		rowNumbers_ = new long[capacity];
+	}
+
+	/**
+	 * @return the number of rows currently in the batch
+	 */
+	public int size()
+	{
+		return size_;
+	}
+
+	public int capacity()
+	{
+		return rowNumbers_.length;
+	}
+
+	public int getColumnCount()
+	{
+		return columns_.length;
+	}
+
+	public String get(int row, int column)
+	{
+		return columns_[column][row];
+	}
+
+	/**
+	 * @return the row's position in its file - the data rows are numbered from 1, after the header
+	 */
+	public long getRowNumber(int row)
+	{
+		return rowNumbers_[row];
+	}
+
+	/**
+	 * @return the backing array for the column - only the first {@link #size()} entries are valid
+	 */
+	public String[] getColumn(int column)
+	{
+		return columns_[column];
+	}
+
+	/**
+	 * @return a copy of one row, in the same form as {@link LOINCReader#readLine()}
+	 */
+	public String[] getRow(int row)
+	{
+		String[] result = new String[columns_.length];
+		for (int i = 0; i < columns_.length; i++)
+		{
+			result[i] = columns_[i][row];
+		}
+		return result;
+	}
+
+	void clear()
+	{
+		size_ = 0;
+	}
+
+	boolean isFull()
+	{
+		return size_ >= capacity();
+	}
+
+	/**
+	 * Append a row.  Missing trailing values are set to null.
+	 */
+	void add(String[] values, int valueCount, long rowNumber)
+	{
+		int row = size_++;
+		rowNumbers_[row] = rowNumber;
+		for (int i = 0; i < columns_.length; i++)
+		{
+			columns_[i][row] = (i < valueCount ? values[i] : null);
+		}
+	}
+
+	/**
+	 * Start a new row that the caller will fill with {@link #set(int, String)} - every column starts as null.
+	 */
+	void startRow(long rowNumber)
+	{
+		int row = size_++;
+		rowNumbers_[row] = rowNumber;
+		for (int i = 0; i < columns_.length; i++)
+		{
+			columns_[i][row] = null;
+		}
+	}
+
+	/**
+	 * Set a column of the row most recently started with {@link #startRow()}.
+	 */
+	void set(int column, String value)
+	{
+		columns_[column][size_ - 1] = value;
+	}
+
+	/**
+	 * Take back the row most recently started with {@link #startRow(long)}.
+	 */
+	void dropRow()
+	{
+		size_--;
+	}
+}
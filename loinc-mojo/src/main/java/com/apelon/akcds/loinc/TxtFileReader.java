@@ -21,9 +21,11 @@ package com.apelon.akcds.loinc;
 import gov.va.oia.terminology.converters.sharedUtils.ConsoleUtil;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.Arrays;
+import org.apache.commons.io.input.CountingInputStream;
 
 /**
  * 
@@ -45,7 +47,7 @@ public class TxtFileReader extends LOINCReader
 	public TxtFileReader(File f) throws Exception
 	{
 		ConsoleUtil.println("Using the data file " + f.getAbsolutePath());
-		dataReader = new BufferedReader(new FileReader(f));
+		dataReader = new BufferedReader(new InputStreamReader(bytesRead_ = new CountingInputStream(new FileInputStream(f))));
 		// Line 1 of the file is version, line 2 is date. Hope they are consistent.....
 		version = dataReader.readLine();
 		releaseDate = dataReader.readLine();
@@ -93,13 +95,70 @@ public class TxtFileReader extends LOINCReader
 	public String[] readLine() throws IOException
 	{
 		String line = dataReader.readLine();
-		if (line != null && line.length() > 0)
+		while (line != null && line.length() > 0)
 		{
-			return getFields(line);
+			String[] fields = getFields(line);
+			if (fields.length <= fieldCount_ || fieldCount_ == 0)
+			{
+				rowNumber_++;
+				return fields;
+			}
+			tooManyFields(++rowNumber_, line);
+			line = dataReader.readLine();
 		}
 		return null;
 	}
 
+	@Override
+	public int readBatch(RowBatch batch) throws IOException
+	{
+		if (fieldCount_ == 0)
+		{
+			getHeader();
+		}
+		batch.clear();
+		while (!batch.isFull())
+		{
+			String line = dataReader.readLine();
+			if (line == null || line.length() == 0)
+			{
+				break;
+			}
+			// Same rules as getFields, but straight into the batch - no split array, no padding copy
+			batch.startRow(++rowNumber_);
+			int column = 0;
+			int start = 0;
+			while (start <= line.length())
+			{
+				int end = line.indexOf('\t', start);
+				if (end < 0)
+				{
+					end = line.length();
+				}
+				if (end > start)
+				{
+					if (column >= fieldCount_)
+					{
+						batch.dropRow();
+						tooManyFields(rowNumber_, line);
+						break;
+					}
+					if (end - start >= 2 && line.charAt(start) == '"' && line.charAt(end - 1) == '"')
+					{
+						batch.set(column, line.substring(start + 1, end - 1));
+					}
+					else
+					{
+						batch.set(column, line.substring(start, end));
+					}
+				}
+				column++;
+				start = end + 1;
+			}
+		}
+		return batch.size();
+	}
+
 	@Override
 	public void close() throws IOException
 	{
@@ -134,10 +193,6 @@ public class TxtFileReader extends LOINCReader
 		{
 			temp = Arrays.copyOf(temp, fieldCount_);
 		}
-		else if (temp.length > fieldCount_)
-		{
-			throw new RuntimeException("Data error - to many fields found on line: " + line);
-		}
 		return temp;
 	}
 }
@@ -0,0 +1,261 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.InflaterInputStream;
+
+/**
+ *
+ * {@link ColumnarTable}
+ *
+ * Reads the columnar export written by {@link ColumnarWriter} - only the columns asked for are read from disk and decoded.
+ *
+ * Layout: magic, version, row count, column count, then per column its name and compressed length, then the compressed
+ * columns in the same order.  A decompressed column is the dictionary size, the sorted dictionary, then (run length, id)
+ * pairs as variable length ints.  Id 0 is no value, id n is dictionary entry n - 1.
+ *
+ * Thread safe, once opened.
+ */
+public class ColumnarTable
+{
+	static final int MAGIC = 0x4C434F4C;  // LCOL
+	static final int VERSION = 1;
+
+	/**
+	 * One decoded column - a dictionary, and a dictionary id per row.
+	 */
+	public static class Column
+	{
+		private final String name_;
+		private final String[] dictionary_;
+		private final int[] ids_;
+
+		Column(String name, String[] dictionary, int[] ids)
+		{
+			name_ = name;
+			dictionary_ = dictionary;
+			ids_ = ids;
+		}
+
+		public String getName()
+		{
+			return name_;
+		}
+
+		/**
+		 * @return the value in the row, or null
+		 */
+		public String get(int row)
+		{
+			int id = ids_[row];
+			return id == 0 ? null : dictionary_[id - 1];
+		}
+
+		/**
+		 * @return the distinct values of the column, sorted
+		 */
+		public List<String> getDistinctValues()
+		{
+			return Collections.unmodifiableList(Arrays.asList(dictionary_));
+		}
+
+		/**
+		 * @return the dictionary id of each row - 0 for no value, otherwise 1 + the position in {@link #getDistinctValues()}.
+		 * Ids sort the same way as their values.  Don't modify.
+		 */
+		public int[] getIds()
+		{
+			return ids_;
+		}
+
+		/**
+		 * @return the number of rows with each value, by value
+		 */
+		public TreeMap<String, Integer> countByValue()
+		{
+			int[] counts = new int[dictionary_.length + 1];
+			for (int id : ids_)
+			{
+				counts[id]++;
+			}
+			TreeMap<String, Integer> result = new TreeMap<>();
+			for (int i = 0; i < dictionary_.length; i++)
+			{
+				result.put(dictionary_[i], counts[i + 1]);
+			}
+			return result;
+		}
+	}
+
+	private final int rowCount_;
+	private final LinkedHashMap<String, Column> columns_ = new LinkedHashMap<>();
+	private final List<String> allColumns_;
+
+	/**
+	 * Open the table, reading only the named columns.
+	 * @param columns the columns to read - none to read them all
+	 */
+	public ColumnarTable(File file, String ... columns) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			if (raf.readInt() != MAGIC)
+			{
+				throw new IOException(file.getAbsolutePath() + " is not a LOINC columnar export");
+			}
+			if (raf.readInt() != VERSION)
+			{
+				throw new IOException("Unsupported columnar export version");
+			}
+			rowCount_ = raf.readInt();
+			int columnCount = raf.readInt();
+			String[] names = new String[columnCount];
+			int[] lengths = new int[columnCount];
+			for (int c = 0; c < columnCount; c++)
+			{
+				names[c] = raf.readUTF();
+				lengths[c] = raf.readInt();
+			}
+			allColumns_ = Collections.unmodifiableList(Arrays.asList(names));
+			List<String> wanted = (columns.length == 0 ? allColumns_ : Arrays.asList(columns));
+			for (String w : wanted)
+			{
+				if (!allColumns_.contains(w))
+				{
+					throw new IOException("No column " + w + " in " + file.getAbsolutePath());
+				}
+			}
+
+			long position = raf.getFilePointer();
+			for (int c = 0; c < columnCount; c++)
+			{
+				if (wanted.contains(names[c]))
+				{
+					byte[] block = new byte[lengths[c]];
+					raf.seek(position);
+					raf.readFully(block);
+					columns_.put(names[c], decode(names[c], block));
+				}
+				position += lengths[c];
+			}
+		}
+	}
+
+	public int getRowCount()
+	{
+		return rowCount_;
+	}
+
+	/**
+	 * @return every column in the file, whether or not it was read
+	 */
+	public List<String> getColumnNames()
+	{
+		return allColumns_;
+	}
+
+	/**
+	 * @return the column, or null if it wasn't asked for when the table was opened
+	 */
+	public Column getColumn(String name)
+	{
+		return columns_.get(name);
+	}
+
+	/**
+	 * @return the values of the row, for the columns that were read, in file order
+	 */
+	public List<String> getRow(int row)
+	{
+		ArrayList<String> result = new ArrayList<>(columns_.size());
+		for (Column c : columns_.values())
+		{
+			result.add(c.get(row));
+		}
+		return result;
+	}
+
+	private Column decode(String name, byte[] block) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(block))))
+		{
+			String[] dictionary = new String[in.readInt()];
+			for (int i = 0; i < dictionary.length; i++)
+			{
+				dictionary[i] = in.readUTF();
+			}
+			int[] ids = new int[rowCount_];
+			int row = 0;
+			while (row < rowCount_)
+			{
+				int run = readVarInt(in);
+				int id = readVarInt(in);
+				if (run <= 0 || row + run > rowCount_ || id > dictionary.length)
+				{
+					throw new IOException("Corrupt column " + name);
+				}
+				Arrays.fill(ids, row, row + run, id);
+				row += run;
+			}
+			return new Column(name, dictionary, ids);
+		}
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInputStream in) throws IOException
+	{
+		int result = 0;
+		int shift = 0;
+		while (true)
+		{
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return result;
+			}
+			shift += 7;
+			if (shift > 28)
+			{
+				throw new IOException("Corrupt variable length int");
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ *
+ * {@link ColumnarWriter}
+ *
+ * Writes a table of strings column by column, for tools that scan a few columns of every row - see {@link ColumnarTable} for the
+ * file layout, and the reader.  Each column is dictionary encoded (sorted dictionary, so ids order the same as the values),
+ * the ids are run length encoded, and the whole column is deflated.
+ *
+ * Rows are held in memory as one int per column until {@link #write(File)}.  Not thread safe.
+ */
+public class ColumnarWriter
+{
+	private final String[] columns_;
+	private final HashMap<String, Integer>[] dictionaries_;
+	private int[][] ids_;
+	private int rowCount_ = 0;
+
+	@SuppressWarnings("unchecked")
+	public ColumnarWriter(String[] columns)
+	{
+		columns_ = columns.clone();
+		dictionaries_ = new HashMap[columns.length];
+		ids_ = new int[columns.length][1024];
+		for (int i = 0; i < columns.length; i++)
+		{
+			dictionaries_[i] = new HashMap<>();
+		}
+	}
+
+	/**
+	 * @param values one per column, in column order - null or empty for no value
+	 */
+	public void addRow(String[] values)
+	{
+		if (rowCount_ == ids_[0].length)
+		{
+			for (int c = 0; c < columns_.length; c++)
+			{
+				ids_[c] = Arrays.copyOf(ids_[c], rowCount_ * 2);
+			}
+		}
+		for (int c = 0; c < columns_.length; c++)
+		{
+			String value = (c < values.length ? values[c] : null);
+			int id = 0;  // 0 is reserved for no value
+			if (value != null && value.length() > 0)
+			{
+				Integer existing = dictionaries_[c].get(value);
+				if (existing == null)
+				{
+					existing = dictionaries_[c].size() + 1;
+					dictionaries_[c].put(value, existing);
+				}
+				id = existing;
+			}
+			ids_[c][rowCount_] = id;
+		}
+		rowCount_++;
+	}
+
+	public int getRowCount()
+	{
+		return rowCount_;
+	}
+
+	public void write(File file) throws IOException
+	{
+		byte[][] blocks = new byte[columns_.length][];
+		for (int c = 0; c < columns_.length; c++)
+		{
+			blocks[c] = encode(c);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)))
+		{
+			out.writeInt(ColumnarTable.MAGIC);
+			out.writeInt(ColumnarTable.VERSION);
+			out.writeInt(rowCount_);
+			out.writeInt(columns_.length);
+			for (int c = 0; c < columns_.length; c++)
+			{
+				out.writeUTF(columns_[c]);
+				out.writeInt(blocks[c].length);
+			}
+			for (byte[] block : blocks)
+			{
+				out.write(block);
+			}
+		}
+	}
+
+	private byte[] encode(int column) throws IOException
+	{
+		// Sort the dictionary, so the ids compare the same way as the values
+		String[] values = new String[dictionaries_[column].size()];
+		for (String s : dictionaries_[column].keySet())
+		{
+			values[dictionaries_[column].get(s) - 1] = s;
+		}
+		String[] sorted = values.clone();
+		Arrays.sort(sorted);
+		HashMap<String, Integer> sortedIds = new HashMap<>();
+		for (int i = 0; i < sorted.length; i++)
+		{
+			sortedIds.put(sorted[i], i + 1);
+		}
+		int[] remap = new int[values.length + 1];
+		for (int i = 0; i < values.length; i++)
+		{
+			remap[i + 1] = sortedIds.get(values[i]);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater, 64 * 1024)))
+		{
+			out.writeInt(sorted.length);
+			for (String s : sorted)
+			{
+				out.writeUTF(s);
+			}
+			int[] ids = ids_[column];
+			int i = 0;
+			while (i < rowCount_)
+			{
+				int id = remap[ids[i]];
+				int run = 1;
+				while (i + run < rowCount_ && remap[ids[i + run]] == id)
+				{
+					run++;
+				}
+				ColumnarTable.writeVarInt(out, run);
+				ColumnarTable.writeVarInt(out, id);
+				i += run;
+			}
+		}
+		finally
+		{
+			deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,521 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ *
+ * {@link LoincIndex}
+ *
+ * An immutable, in memory index of the LOINC codes, by the values of their axes (COMPONENT, PROPERTY, TIME_ASPCT, SYSTEM,
+ * SCALE_TYP, METHOD_TYP) and their CLASS.  Built by the converter (see {@link Builder}) from the same parse that produces the
+ * jbin, and saved as loincIndex.bin.
+ *
+ * Each (dimension, value) pair holds a sorted posting list of code ordinals, so multi-axis queries are posting list
+ * intersections - smallest list first, with a galloping search when the lists are lopsided.
+ *
+ * Thread safe.
+ */
+public class LoincIndex
+{
+	private static final int MAGIC = 0x4C4C4958;  // LLIX
+	private static final int VERSION = 1;
+
+	private final String[] dimensions_;
+	private final String[] codes_;  // sorted - the position is the code ordinal
+	private final String[][] values_;  // [dimension][valueId], sorted
+	private final int[][][] postings_;  // [dimension][valueId] -> sorted code ordinals
+	private final int[][] forward_;  // [dimension][codeOrdinal] -> valueId, or -1
+
+	private LoincIndex(String[] dimensions, String[] codes, String[][] values, int[][][] postings)
+	{
+		dimensions_ = dimensions;
+		codes_ = codes;
+		values_ = values;
+		postings_ = postings;
+		forward_ = new int[dimensions.length][];
+		for (int d = 0; d < dimensions.length; d++)
+		{
+			forward_[d] = new int[codes.length];
+			Arrays.fill(forward_[d], -1);
+			for (int v = 0; v < postings[d].length; v++)
+			{
+				for (int ordinal : postings[d][v])
+				{
+					forward_[d][ordinal] = v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the names of the indexed dimensions (axis and class column names)
+	 */
+	public List<String> getDimensions()
+	{
+		return Collections.unmodifiableList(Arrays.asList(dimensions_));
+	}
+
+	public int getCodeCount()
+	{
+		return codes_.length;
+	}
+
+	public boolean contains(String code)
+	{
+		return Arrays.binarySearch(codes_, code) >= 0;
+	}
+
+	/**
+	 * @return the value of the dimension (for example, "SYSTEM") for the code, or null
+	 */
+	public String getValue(String code, String dimension)
+	{
+		int ordinal = Arrays.binarySearch(codes_, code);
+		int d = dimension(dimension);
+		if (ordinal < 0 || d < 0)
+		{
+			return null;
+		}
+		int v = forward_[d][ordinal];
+		return (v < 0 ? null : values_[d][v]);
+	}
+
+	/**
+	 * @return all of the dimension values for the code, in dimension order - null entries where the code has no value.  Null,
+	 * if the code isn't indexed.
+	 */
+	public String[] getValues(String code)
+	{
+		int ordinal = Arrays.binarySearch(codes_, code);
+		if (ordinal < 0)
+		{
+			return null;
+		}
+		String[] result = new String[dimensions_.length];
+		for (int d = 0; d < dimensions_.length; d++)
+		{
+			int v = forward_[d][ordinal];
+			result[d] = (v < 0 ? null : values_[d][v]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the distinct values of a dimension, sorted
+	 */
+	public List<String> getDistinctValues(String dimension)
+	{
+		int d = dimension(dimension);
+		if (d < 0)
+		{
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(Arrays.asList(values_[d]));
+	}
+
+	/**
+	 * @return the (sorted) codes that have the value in the dimension
+	 */
+	public List<String> getCodes(String dimension, String value)
+	{
+		return toCodes(postings(dimension, value));
+	}
+
+	/**
+	 * @return the number of codes that have the value in the dimension
+	 */
+	public int count(String dimension, String value)
+	{
+		return postings(dimension, value).length;
+	}
+
+	/**
+	 * @param criteria dimension name to required value - for example COMPONENT=Glucose, SYSTEM=Ser/Plas
+	 * @return the (sorted) codes that match all of the criteria.  No criteria matches nothing.
+	 */
+	public List<String> query(Map<String, String> criteria)
+	{
+		return toCodes(queryOrdinals(criteria));
+	}
+
+	/**
+	 * As {@link #query(Map)}, but only counts the matches.
+	 */
+	public int count(Map<String, String> criteria)
+	{
+		return queryOrdinals(criteria).length;
+	}
+
+	private int[] queryOrdinals(Map<String, String> criteria)
+	{
+		if (criteria.size() == 0)
+		{
+			return new int[0];
+		}
+		ArrayList<int[]> lists = new ArrayList<>(criteria.size());
+		for (Entry<String, String> c : criteria.entrySet())
+		{
+			int[] p = postings(c.getKey(), c.getValue());
+			if (p.length == 0)
+			{
+				return p;
+			}
+			lists.add(p);
+		}
+		Collections.sort(lists, new Comparator<int[]>()
+		{
+			@Override
+			public int compare(int[] o1, int[] o2)
+			{
+				return Integer.compare(o1.length, o2.length);
+			}
+		});
+		int[] result = lists.get(0);
+		for (int i = 1; i < lists.size() && result.length > 0; i++)
+		{
+			result = intersect(result, lists.get(i));
+		}
+		return result;
+	}
+
+	private int[] postings(String dimension, String value)
+	{
+		int d = dimension(dimension);
+		if (d < 0 || value == null)
+		{
+			return new int[0];
+		}
+		int v = Arrays.binarySearch(values_[d], value);
+		return (v < 0 ? new int[0] : postings_[d][v]);
+	}
+
+	private int dimension(String dimension)
+	{
+		for (int d = 0; d < dimensions_.length; d++)
+		{
+			if (dimensions_[d].equals(dimension))
+			{
+				return d;
+			}
+		}
+		return -1;
+	}
+
+	private List<String> toCodes(int[] ordinals)
+	{
+		ArrayList<String> result = new ArrayList<>(ordinals.length);
+		for (int ordinal : ordinals)
+		{
+			result.add(codes_[ordinal]);
+		}
+		return result;
+	}
+
+	/**
+	 * Intersect two sorted lists, where <code>small</code> is no longer than <code>large</code>.
+	 */
+	static int[] intersect(int[] small, int[] large)
+	{
+		int[] result = new int[small.length];
+		int count = 0;
+		if (large.length > small.length * 16)
+		{
+			// Galloping - skip through the big list.
+			int low = 0;
+			for (int value : small)
+			{
+				int bound = 1;
+				while (low + bound < large.length && large[low + bound] < value)
+				{
+					bound <<= 1;
+				}
+				int found = Arrays.binarySearch(large, low, Math.min(low + bound + 1, large.length), value);
+				if (found >= 0)
+				{
+					result[count++] = value;
+					low = found + 1;
+				}
+				else
+				{
+					low = -found - 1;
+				}
+				if (low >= large.length)
+				{
+					break;
+				}
+			}
+		}
+		else
+		{
+			int i = 0;
+			int j = 0;
+			while (i < small.length && j < large.length)
+			{
+				if (small[i] < large[j])
+				{
+					i++;
+				}
+				else if (small[i] > large[j])
+				{
+					j++;
+				}
+				else
+				{
+					result[count++] = small[i];
+					i++;
+					j++;
+				}
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	public void write(File file) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dimensions_.length);
+			for (String d : dimensions_)
+			{
+				out.writeUTF(d);
+			}
+			out.writeInt(codes_.length);
+			for (String c : codes_)
+			{
+				out.writeUTF(c);
+			}
+			for (int d = 0; d < dimensions_.length; d++)
+			{
+				out.writeInt(values_[d].length);
+				for (int v = 0; v < values_[d].length; v++)
+				{
+					out.writeUTF(values_[d][v]);
+					out.writeInt(postings_[d][v].length);
+					for (int ordinal : postings_[d][v])
+					{
+						out.writeInt(ordinal);
+					}
+				}
+			}
+		}
+	}
+
+	public static LoincIndex read(File file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024)))
+		{
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException(file.getAbsolutePath() + " is not a LOINC index");
+			}
+			if (in.readInt() != VERSION)
+			{
+				throw new IOException("Unsupported LOINC index version");
+			}
+			String[] dimensions = new String[in.readInt()];
+			for (int d = 0; d < dimensions.length; d++)
+			{
+				dimensions[d] = in.readUTF();
+			}
+			String[] codes = new String[in.readInt()];
+			for (int i = 0; i < codes.length; i++)
+			{
+				codes[i] = in.readUTF();
+			}
+			String[][] values = new String[dimensions.length][];
+			int[][][] postings = new int[dimensions.length][][];
+			for (int d = 0; d < dimensions.length; d++)
+			{
+				int valueCount = in.readInt();
+				values[d] = new String[valueCount];
+				postings[d] = new int[valueCount][];
+				for (int v = 0; v < valueCount; v++)
+				{
+					values[d][v] = in.readUTF();
+					postings[d][v] = new int[in.readInt()];
+					for (int i = 0; i < postings[d][v].length; i++)
+					{
+						postings[d][v][i] = in.readInt();
+					}
+				}
+			}
+			return new LoincIndex(dimensions, codes, values, postings);
+		}
+	}
+
+	/**
+	 * Collects the codes and their dimension values, row by row.  Values are staged with {@link #addValue(String, String)} and
+	 * only kept if the row is {@link #commit()}ed, so rows the converter decides to skip part way through can be dropped with
+	 * {@link #discard()}.
+	 *
+	 * Not thread safe.
+	 */
+	public static class Builder
+	{
+		private final String[] dimensions_;
+		private final HashMap<String, Integer> dimensionIds_ = new HashMap<>();
+		private final ArrayList<String> codes_;
+		private final HashMap<String, Integer> codeIds_;
+		private final ArrayList<HashMap<String, IntList>> postings_ = new ArrayList<>();
+
+		private String pendingCode_;
+		private final String[] pendingValues_;
+
+		public Builder(Collection<String> dimensions)
+		{
+			this(dimensions, 0);
+		}
+
+		/**
+		 * @param expectedCodes the number of codes that will be committed, if known (see {@link com.apelon.akcds.loinc.InputProfile}) - 0 if not
+		 */
+		public Builder(Collection<String> dimensions, int expectedCodes)
+		{
+			codes_ = new ArrayList<>(Math.max(10, expectedCodes));
+			codeIds_ = new HashMap<>((int) (Math.max(12, expectedCodes) / 0.75f) + 1);
+			dimensions_ = dimensions.toArray(new String[dimensions.size()]);
+			for (int d = 0; d < dimensions_.length; d++)
+			{
+				dimensionIds_.put(dimensions_[d], d);
+				postings_.add(new HashMap<String, IntList>());
+			}
+			pendingValues_ = new String[dimensions_.length];
+		}
+
+		public void startCode(String code)
+		{
+			discard();
+			pendingCode_ = code;
+		}
+
+		/**
+		 * Stage a value for the current code.  Values for dimensions that aren't indexed are ignored.
+		 */
+		public void addValue(String dimension, String value)
+		{
+			Integer d = dimensionIds_.get(dimension);
+			if (d != null && pendingCode_ != null)
+			{
+				pendingValues_[d] = value;
+			}
+		}
+
+		public void discard()
+		{
+			pendingCode_ = null;
+			Arrays.fill(pendingValues_, null);
+		}
+
+		/**
+		 * Keep the current code and its staged values.  A code that was already committed is ignored.
+		 */
+		public void commit()
+		{
+			if (pendingCode_ != null && !codeIds_.containsKey(pendingCode_))
+			{
+				int id = codes_.size();
+				codes_.add(pendingCode_);
+				codeIds_.put(pendingCode_, id);
+				for (int d = 0; d < dimensions_.length; d++)
+				{
+					if (pendingValues_[d] != null)
+					{
+						IntList list = postings_.get(d).get(pendingValues_[d]);
+						if (list == null)
+						{
+							list = new IntList();
+							postings_.get(d).put(pendingValues_[d], list);
+						}
+						list.add(id);
+					}
+				}
+			}
+			discard();
+		}
+
+		public LoincIndex build()
+		{
+			// Renumber the codes into sorted order, so the ordinal is a binary search away, and posting lists can be merged.
+			String[] sortedCodes = codes_.toArray(new String[codes_.size()]);
+			Arrays.sort(sortedCodes);
+			int[] remap = new int[sortedCodes.length];
+			for (int i = 0; i < sortedCodes.length; i++)
+			{
+				remap[codeIds_.get(sortedCodes[i])] = i;
+			}
+
+			String[][] values = new String[dimensions_.length][];
+			int[][][] postings = new int[dimensions_.length][][];
+			for (int d = 0; d < dimensions_.length; d++)
+			{
+				HashMap<String, IntList> dimension = postings_.get(d);
+				values[d] = dimension.keySet().toArray(new String[dimension.size()]);
+				Arrays.sort(values[d]);
+				postings[d] = new int[values[d].length][];
+				for (int v = 0; v < values[d].length; v++)
+				{
+					IntList list = dimension.get(values[d][v]);
+					int[] p = new int[list.size];
+					for (int i = 0; i < list.size; i++)
+					{
+						p[i] = remap[list.data[i]];
+					}
+					Arrays.sort(p);
+					postings[d][v] = p;
+				}
+			}
+			return new LoincIndex(dimensions_.clone(), sortedCodes, values, postings);
+		}
+	}
+
+	private static class IntList
+	{
+		int[] data = new int[4];
+		int size = 0;
+
+		void add(int value)
+		{
+			if (size == data.length)
+			{
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = value;
+		}
+	}
+}
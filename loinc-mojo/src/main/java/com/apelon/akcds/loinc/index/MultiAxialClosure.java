@@ -0,0 +1,484 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ *
+ * {@link MultiAxialClosure}
+ *
+ * The transitive closure of the LOINC multi-axial hierarchy, as DFS interval labels.  Every row of the multi-axial file is an
+ * occurrence of a code at one place in the tree (PATH_TO_ROOT + CODE) - the occurrences are numbered in depth first (pre) order,
+ * and each one records the last number in its subtree.  X is under Y if an occurrence of X falls inside the interval of an
+ * occurrence of Y - a binary search over the (usually one or two) occurrences of Y, for each occurrence of X.  The descendants of
+ * Y are the codes at the numbers inside its intervals, so enumeration is a scan of a contiguous array.
+ *
+ * Built by the converter from the multi-axial file (see {@link Builder}), and saved as loincMultiAxialClosure.bin.
+ * Relies on the hierarchy being acyclic - a code never appears beneath itself.
+ *
+ * Thread safe.
+ */
+public class MultiAxialClosure
+{
+	private static final int MAGIC = 0x4C4D4143;  // LMAC
+	private static final int VERSION = 1;
+
+	private final String[] codes_;  // sorted - the position is the code id
+	private final HashMap<String, Integer> codeIds_;
+	private final int[] preorderCode_;  // [pre] -> code id
+	private final int[] parent_;  // [pre] -> pre of the parent occurrence, or -1
+	private final int[] subtreeEnd_;  // [pre] -> the last pre in the subtree
+	private final int[] occurrenceOffset_;  // [code id] -> start in occurrences_, with a trailing entry
+	private final int[] occurrences_;  // the pre of each occurrence, grouped by code, ascending
+
+	private MultiAxialClosure(String[] codes, int[] preorderCode, int[] parent, int[] subtreeEnd)
+	{
+		codes_ = codes;
+		preorderCode_ = preorderCode;
+		parent_ = parent;
+		subtreeEnd_ = subtreeEnd;
+		codeIds_ = new HashMap<>((int) (codes.length / 0.75f) + 1);
+		for (int i = 0; i < codes.length; i++)
+		{
+			codeIds_.put(codes[i], i);
+		}
+		occurrenceOffset_ = new int[codes.length + 1];
+		for (int code : preorderCode)
+		{
+			occurrenceOffset_[code + 1]++;
+		}
+		for (int i = 0; i < codes.length; i++)
+		{
+			occurrenceOffset_[i + 1] += occurrenceOffset_[i];
+		}
+		occurrences_ = new int[preorderCode.length];
+		int[] fill = Arrays.copyOf(occurrenceOffset_, codes.length);
+		for (int pre = 0; pre < preorderCode.length; pre++)
+		{
+			occurrences_[fill[preorderCode[pre]]++] = pre;
+		}
+	}
+
+	/**
+	 * @return the number of distinct codes in the hierarchy
+	 */
+	public int getCodeCount()
+	{
+		return codes_.length;
+	}
+
+	/**
+	 * @return the number of places codes appear in the hierarchy - at least {@link #getCodeCount()}
+	 */
+	public int getOccurrenceCount()
+	{
+		return preorderCode_.length;
+	}
+
+	public boolean contains(String code)
+	{
+		return codeIds_.containsKey(code);
+	}
+
+	/**
+	 * @return the id of the code, for the id based methods, or -1
+	 */
+	public int getId(String code)
+	{
+		Integer id = codeIds_.get(code);
+		return id == null ? -1 : id.intValue();
+	}
+
+	public String getCode(int id)
+	{
+		return codes_[id];
+	}
+
+	/**
+	 * @return true if code is strictly below ancestor.  False if either isn't in the hierarchy.
+	 */
+	public boolean isDescendant(String code, String ancestor)
+	{
+		int c = getId(code);
+		int a = getId(ancestor);
+		return c >= 0 && a >= 0 && isDescendant(c, a);
+	}
+
+	/**
+	 * @return true if code is ancestor, or is below it
+	 */
+	public boolean subsumes(String ancestor, String code)
+	{
+		return code.equals(ancestor) ? contains(code) : isDescendant(code, ancestor);
+	}
+
+	public boolean isDescendant(int code, int ancestor)
+	{
+		if (code == ancestor)
+		{
+			return false;
+		}
+		int aStart = occurrenceOffset_[ancestor];
+		int aEnd = occurrenceOffset_[ancestor + 1];
+		for (int i = occurrenceOffset_[code]; i < occurrenceOffset_[code + 1]; i++)
+		{
+			int pre = occurrences_[i];
+			// the last occurrence of the ancestor that starts before this occurrence is the only one that can enclose it
+			int found = Arrays.binarySearch(occurrences_, aStart, aEnd, pre);
+			int candidate = (found >= 0 ? found : -found - 2);
+			if (candidate >= aStart && pre <= subtreeEnd_[occurrences_[candidate]])
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the distinct codes below the code, in depth first order.  Empty if there are none, or the code isn't in the hierarchy.
+	 */
+	public List<String> getDescendants(String code)
+	{
+		int id = getId(code);
+		return id < 0 ? Collections.<String>emptyList() : toCodes(getDescendantIds(id));
+	}
+
+	/**
+	 * @return the distinct ids of the codes below the code, in depth first order
+	 */
+	public int[] getDescendantIds(int code)
+	{
+		int start = occurrenceOffset_[code];
+		int end = occurrenceOffset_[code + 1];
+		if (end - start == 1)
+		{
+			// The common case - one occurrence, so the descendants are a single interval
+			int pre = occurrences_[start];
+			return distinct(pre + 1, subtreeEnd_[pre]);
+		}
+		BitSet seen = new BitSet(codes_.length);
+		int[] result = new int[16];
+		int count = 0;
+		for (int i = start; i < end; i++)
+		{
+			int pre = occurrences_[i];
+			for (int p = pre + 1; p <= subtreeEnd_[pre]; p++)
+			{
+				int c = preorderCode_[p];
+				if (!seen.get(c))
+				{
+					seen.set(c);
+					if (count == result.length)
+					{
+						result = Arrays.copyOf(result, count * 2);
+					}
+					result[count++] = c;
+				}
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * @return the number of distinct codes below the code
+	 */
+	public int countDescendants(String code)
+	{
+		int id = getId(code);
+		return id < 0 ? 0 : getDescendantIds(id).length;
+	}
+
+	/**
+	 * @return the distinct codes above the code, nearest first, along each of its paths to the root in turn
+	 */
+	public List<String> getAncestors(String code)
+	{
+		int id = getId(code);
+		if (id < 0)
+		{
+			return Collections.emptyList();
+		}
+		BitSet seen = new BitSet(codes_.length);
+		ArrayList<String> result = new ArrayList<>();
+		for (int i = occurrenceOffset_[id]; i < occurrenceOffset_[id + 1]; i++)
+		{
+			int pre = parent_[occurrences_[i]];
+			while (pre >= 0)
+			{
+				int c = preorderCode_[pre];
+				if (!seen.get(c))
+				{
+					seen.set(c);
+					result.add(codes_[c]);
+				}
+				pre = parent_[pre];
+			}
+		}
+		return result;
+	}
+
+	private int[] distinct(int fromPre, int toPre)
+	{
+		if (toPre < fromPre)
+		{
+			return new int[0];
+		}
+		int[] result = new int[toPre - fromPre + 1];
+		BitSet seen = null;
+		int count = 0;
+		for (int p = fromPre; p <= toPre; p++)
+		{
+			int c = preorderCode_[p];
+			if (occurrenceOffset_[c + 1] - occurrenceOffset_[c] > 1)
+			{
+				// only codes that occur more than once can repeat
+				if (seen == null)
+				{
+					seen = new BitSet(codes_.length);
+				}
+				if (seen.get(c))
+				{
+					continue;
+				}
+				seen.set(c);
+			}
+			result[count++] = c;
+		}
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	private List<String> toCodes(int[] ids)
+	{
+		ArrayList<String> result = new ArrayList<>(ids.length);
+		for (int id : ids)
+		{
+			result.add(codes_[id]);
+		}
+		return result;
+	}
+
+	public void write(File file) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(codes_.length);
+			for (String c : codes_)
+			{
+				out.writeUTF(c);
+			}
+			out.writeInt(preorderCode_.length);
+			for (int pre = 0; pre < preorderCode_.length; pre++)
+			{
+				out.writeInt(preorderCode_[pre]);
+				out.writeInt(parent_[pre]);
+				out.writeInt(subtreeEnd_[pre]);
+			}
+		}
+	}
+
+	public static MultiAxialClosure read(File file) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024)))
+		{
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException(file.getAbsolutePath() + " is not a multi-axial closure index");
+			}
+			if (in.readInt() != VERSION)
+			{
+				throw new IOException("Unsupported multi-axial closure index version");
+			}
+			String[] codes = new String[in.readInt()];
+			for (int i = 0; i < codes.length; i++)
+			{
+				codes[i] = in.readUTF();
+			}
+			int occurrences = in.readInt();
+			int[] preorderCode = new int[occurrences];
+			int[] parent = new int[occurrences];
+			int[] subtreeEnd = new int[occurrences];
+			for (int pre = 0; pre < occurrences; pre++)
+			{
+				preorderCode[pre] = in.readInt();
+				parent[pre] = in.readInt();
+				subtreeEnd[pre] = in.readInt();
+			}
+			return new MultiAxialClosure(codes, preorderCode, parent, subtreeEnd);
+		}
+	}
+
+	/**
+	 * Collects the rows of the multi-axial file.  Rows can arrive in any order - a row whose parent row is missing is placed
+	 * under the parent its PATH_TO_ROOT names anyway, the same way the converter links the concepts.
+	 *
+	 * Not thread safe.
+	 */
+	public static class Builder
+	{
+		private static class Node
+		{
+			String code;
+			int sequence;
+			ArrayList<Node> children;
+			int nextChild;
+		}
+
+		private final HashMap<String, Node> nodes_ = new HashMap<>();  // by PATH_TO_ROOT + "." + CODE
+		private final ArrayList<Node> roots_ = new ArrayList<>();
+
+		/**
+		 * @param pathToRoot the dot separated codes above this one, top first - empty for a top level code
+		 * @param sequence the position among its siblings - used to make the numbering deterministic
+		 */
+		public void addOccurrence(String pathToRoot, String code, String sequence)
+		{
+			String path = (pathToRoot == null ? "" : pathToRoot);
+			String key = (path.length() == 0 ? code : path + "." + code);
+			Node n = nodes_.get(key);
+			if (n == null)
+			{
+				n = add(key, path, code);
+			}
+			n.sequence = parseSequence(sequence);
+		}
+
+		private Node add(String key, String parentPath, String code)
+		{
+			Node n = new Node();
+			n.code = code;
+			n.sequence = Integer.MAX_VALUE;
+			nodes_.put(key, n);
+			if (parentPath.length() == 0)
+			{
+				roots_.add(n);
+			}
+			else
+			{
+				Node parent = nodes_.get(parentPath);
+				if (parent == null)
+				{
+					int split = parentPath.lastIndexOf('.');
+					parent = add(parentPath, (split < 0 ? "" : parentPath.substring(0, split)), parentPath.substring(split + 1));
+				}
+				if (parent.children == null)
+				{
+					parent.children = new ArrayList<>(2);
+				}
+				parent.children.add(n);
+			}
+			return n;
+		}
+
+		private static int parseSequence(String sequence)
+		{
+			try
+			{
+				return (sequence == null || sequence.length() == 0 ? Integer.MAX_VALUE : Integer.parseInt(sequence.trim()));
+			}
+			catch (NumberFormatException e)
+			{
+				return Integer.MAX_VALUE;
+			}
+		}
+
+		public MultiAxialClosure build()
+		{
+			HashMap<String, Integer> codeIds = new HashMap<>();
+			for (Node n : nodes_.values())
+			{
+				codeIds.put(n.code, 0);
+			}
+			String[] codes = codeIds.keySet().toArray(new String[codeIds.size()]);
+			Arrays.sort(codes);
+			for (int i = 0; i < codes.length; i++)
+			{
+				codeIds.put(codes[i], i);
+			}
+
+			Comparator<Node> siblingOrder = new Comparator<Node>()
+			{
+				@Override
+				public int compare(Node o1, Node o2)
+				{
+					int result = Integer.compare(o1.sequence, o2.sequence);
+					return result == 0 ? o1.code.compareTo(o2.code) : result;
+				}
+			};
+
+			int size = nodes_.size();
+			int[] preorderCode = new int[size];
+			int[] parent = new int[size];
+			int[] subtreeEnd = new int[size];
+
+			Collections.sort(roots_, siblingOrder);
+			int next = 0;
+			ArrayDeque<Node> stack = new ArrayDeque<>();
+			ArrayDeque<Integer> stackPre = new ArrayDeque<>();
+			for (Node root : roots_)
+			{
+				int pre = next++;
+				preorderCode[pre] = codeIds.get(root.code);
+				parent[pre] = -1;
+				stack.push(root);
+				stackPre.push(pre);
+				while (!stack.isEmpty())
+				{
+					Node n = stack.peek();
+					if (n.children != null && n.nextChild == 0)
+					{
+						Collections.sort(n.children, siblingOrder);
+					}
+					if (n.children != null && n.nextChild < n.children.size())
+					{
+						Node child = n.children.get(n.nextChild++);
+						int childPre = next++;
+						preorderCode[childPre] = codeIds.get(child.code);
+						parent[childPre] = stackPre.peek();
+						stack.push(child);
+						stackPre.push(childPre);
+					}
+					else
+					{
+						stack.pop();
+						subtreeEnd[stackPre.pop()] = next - 1;
+					}
+				}
+			}
+			return new MultiAxialClosure(codes, preorderCode, parent, subtreeEnd);
+		}
+	}
+}
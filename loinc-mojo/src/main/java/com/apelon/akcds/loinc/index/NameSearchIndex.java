@@ -0,0 +1,902 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+/**
+ *
+ * {@link NameSearchIndex}
+ *
+ * A compact, memory mapped inverted index over the LOINC names - LONG_COMMON_NAME, SHORTNAME, CONSUMER_NAME, BASE_NAME, ACSSYM
+ * and the RELATEDNAMES2 synonyms.  Built by the converter (see {@link Builder}) in the same pass that produces the jbin, and
+ * saved as loincNameIndex.bin.
+ *
+ * The index holds the distinct (lower cased) tokens, sorted, each with a posting list of (code, field weight), and the character
+ * trigrams of the tokens, each with a list of the tokens that contain it.
+ * <ul>
+ * <li>{@link #search(String, int)} - every query token must match.  The last token matches as a prefix, for typeahead.</li>
+ * <li>{@link #fuzzySearch(String, int)} - as search, but each query token matches any token with enough trigrams in common,
+ * so misspellings still find results.</li>
+ * </ul>
+ * Hits are ranked by the sum of the field weights of the best match for each query token, scaled by how close the match is.
+ *
+ * Thread safe.
+ */
+public class NameSearchIndex
+{
+	private static final int MAGIC = 0x4C4E5349;  // LNSI
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 14;
+
+	private static final char START = '\u0002';
+	private static final char END = '\u0003';
+
+	/**
+	 * Field weights - the name the clinicians most likely mean outranks the more obscure ones.  Must stay below 8.
+	 */
+	private static final HashMap<String, Integer> WEIGHTS = new HashMap<>();
+	static
+	{
+		WEIGHTS.put("LONG_COMMON_NAME", 6);
+		WEIGHTS.put("SHORTNAME", 5);
+		WEIGHTS.put("CONSUMER_NAME", 4);
+		WEIGHTS.put("BASE_NAME", 3);
+		WEIGHTS.put("ACSSYM", 2);
+		WEIGHTS.put("RELATEDNAMES2", 1);
+		WEIGHTS.put("RELAT_NMS", 1);
+	}
+
+	private final MappedByteBuffer buffer_;
+	private final int docCount_, tokenCount_, trigramCount_;
+	private final int docOffsetsPos_, docBlobPos_, tokenOffsetsPos_, tokenBlobPos_, postingOffsetsPos_, postingsPos_, trigramKeysPos_,
+			trigramOffsetsPos_, trigramPostingsPos_;
+
+	private final ThreadLocal<Scratch> scratch_ = new ThreadLocal<Scratch>()
+	{
+		@Override
+		protected Scratch initialValue()
+		{
+			return new Scratch(docCount_, tokenCount_);
+		}
+	};
+
+	/**
+	 * A search result.
+	 */
+	public static class Hit
+	{
+		private final String code_;
+		private final String name_;
+		private final float score_;
+
+		Hit(String code, String name, float score)
+		{
+			code_ = code;
+			name_ = name;
+			score_ = score;
+		}
+
+		public String getCode()
+		{
+			return code_;
+		}
+
+		/**
+		 * @return the display name - the LONG_COMMON_NAME, if the code has one
+		 */
+		public String getName()
+		{
+			return name_;
+		}
+
+		public float getScore()
+		{
+			return score_;
+		}
+
+		@Override
+		public String toString()
+		{
+			return code_ + " " + name_ + " (" + score_ + ")";
+		}
+	}
+
+	public NameSearchIndex(File file) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			buffer_ = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+		}
+		if (buffer_.getInt(0) != MAGIC)
+		{
+			throw new IOException(file.getAbsolutePath() + " is not a LOINC name index");
+		}
+		if (buffer_.getInt(4) != VERSION)
+		{
+			throw new IOException("Unsupported LOINC name index version");
+		}
+		docCount_ = buffer_.getInt(8);
+		tokenCount_ = buffer_.getInt(12);
+		trigramCount_ = buffer_.getInt(16);
+		docOffsetsPos_ = buffer_.getInt(20);
+		docBlobPos_ = buffer_.getInt(24);
+		tokenOffsetsPos_ = buffer_.getInt(28);
+		tokenBlobPos_ = buffer_.getInt(32);
+		postingOffsetsPos_ = buffer_.getInt(36);
+		postingsPos_ = buffer_.getInt(40);
+		trigramKeysPos_ = buffer_.getInt(44);
+		trigramOffsetsPos_ = buffer_.getInt(48);
+		trigramPostingsPos_ = buffer_.getInt(52);
+	}
+
+	public int getCodeCount()
+	{
+		return docCount_;
+	}
+
+	public int getTokenCount()
+	{
+		return tokenCount_;
+	}
+
+	/**
+	 * Ranked prefix search - every query token must match a name token of the code; the last query token may match as a prefix
+	 * (unless the query ends with a space).
+	 */
+	public List<Hit> search(String query, int limit)
+	{
+		List<String> tokens = tokenize(query);
+		boolean lastIsPrefix = query.length() > 0 && !Character.isWhitespace(query.charAt(query.length() - 1));
+		Scratch s = scratch_.get();
+		s.startQuery();
+		for (int i = 0; i < tokens.size(); i++)
+		{
+			byte[] q = tokens.get(i).getBytes(StandardCharsets.UTF_8);
+			s.startToken();
+			if (!(lastIsPrefix && i == tokens.size() - 1))
+			{
+				// Whole words only - a word that isn't in the index matches nothing, so the query has no hits
+				int exact = findToken(q);
+				if (exact >= 0)
+				{
+					scoreToken(s, i, exact, 1.0f);
+				}
+			}
+			else
+			{
+				// Prefix range - the exact token, if present, sorts first, and scores best.
+				int low = lowerBound(q);
+				int high = prefixUpperBound(q, low);
+				for (int t = low; t < high; t++)
+				{
+					scoreToken(s, i, t, 0.5f + (0.5f * q.length / tokenLength(t)));
+				}
+			}
+			s.endToken();
+		}
+		return rank(s, tokens.size(), limit);
+	}
+
+	/**
+	 * Ranked fuzzy search - as {@link #search(String, int)}, but each query token matches the name tokens that share at least
+	 * 40% of their character trigrams with it.
+	 */
+	public List<Hit> fuzzySearch(String query, int limit)
+	{
+		return fuzzySearch(query, limit, 0.4f);
+	}
+
+	/**
+	 * @param minSimilarity the minimum (Jaccard) trigram similarity, between 0 and 1, for a token to match
+	 */
+	public List<Hit> fuzzySearch(String query, int limit, float minSimilarity)
+	{
+		List<String> tokens = tokenize(query);
+		Scratch s = scratch_.get();
+		s.startQuery();
+		for (int i = 0; i < tokens.size(); i++)
+		{
+			long[] trigrams = trigrams(tokens.get(i));
+			s.touchedTokens.size = 0;
+			for (long trigram : trigrams)
+			{
+				int k = findTrigram(trigram);
+				if (k < 0)
+				{
+					continue;
+				}
+				int start = buffer_.getInt(trigramOffsetsPos_ + (k * 4));
+				int end = buffer_.getInt(trigramOffsetsPos_ + ((k + 1) * 4));
+				for (int p = start; p < end; p++)
+				{
+					int token = buffer_.getInt(trigramPostingsPos_ + (p * 4));
+					if (s.tokenOverlap[token]++ == 0)
+					{
+						s.touchedTokens.add(token);
+					}
+				}
+			}
+
+			s.startToken();
+			for (int j = 0; j < s.touchedTokens.size; j++)
+			{
+				int token = s.touchedTokens.data[j];
+				int overlap = s.tokenOverlap[token];
+				s.tokenOverlap[token] = 0;
+				// A padded token of length n has (at most) n trigrams
+				float similarity = (float) overlap / (trigrams.length + tokenCharLength(token) - overlap);
+				if (similarity >= minSimilarity)
+				{
+					scoreToken(s, i, token, similarity);
+				}
+			}
+			s.endToken();
+		}
+		return rank(s, tokens.size(), limit);
+	}
+
+	/**
+	 * Add the postings of a token to the scores for query token <code>queryToken</code>.  Only codes that matched every previous
+	 * query token are considered.
+	 */
+	private void scoreToken(Scratch s, int queryToken, int token, float factor)
+	{
+		int start = buffer_.getInt(postingOffsetsPos_ + (token * 4));
+		int end = buffer_.getInt(postingOffsetsPos_ + ((token + 1) * 4));
+		for (int p = start; p < end; p++)
+		{
+			int posting = buffer_.getInt(postingsPos_ + (p * 4));
+			int doc = posting >>> 3;
+			float value = (posting & 7) * factor;
+			if (queryToken == 0)
+			{
+				if (s.queryStamp[doc] != s.query)
+				{
+					s.queryStamp[doc] = s.query;
+					s.hits[doc] = 0;
+					s.score[doc] = 0;
+					s.alive.add(doc);
+				}
+			}
+			else if (s.queryStamp[doc] != s.query || s.hits[doc] != queryToken)
+			{
+				continue;
+			}
+			if (s.tokenStamp[doc] != s.token)
+			{
+				s.tokenStamp[doc] = s.token;
+				s.best[doc] = value;
+				s.touchedDocs.add(doc);
+			}
+			else if (value > s.best[doc])
+			{
+				s.best[doc] = value;
+			}
+		}
+	}
+
+	private List<Hit> rank(Scratch s, int tokenCount, int limit)
+	{
+		if (tokenCount == 0 || limit <= 0)
+		{
+			return Collections.emptyList();
+		}
+		PriorityQueue<int[]> top = new PriorityQueue<>(limit + 1, new Comparator<int[]>()
+		{
+			// worst first
+			@Override
+			public int compare(int[] o1, int[] o2)
+			{
+				return -compareDocs(s, o1[0], o2[0]);
+			}
+		});
+		for (int i = 0; i < s.alive.size; i++)
+		{
+			int doc = s.alive.data[i];
+			if (s.hits[doc] == tokenCount)
+			{
+				top.add(new int[] {doc});
+				if (top.size() > limit)
+				{
+					top.poll();
+				}
+			}
+		}
+		ArrayList<Hit> result = new ArrayList<>(top.size());
+		while (!top.isEmpty())
+		{
+			int doc = top.poll()[0];
+			String[] codeAndName = doc(doc);
+			result.add(new Hit(codeAndName[0], codeAndName[1], s.score[doc]));
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * Best first - highest score, then the shortest name, then doc (code) order.
+	 */
+	private int compareDocs(Scratch s, int doc1, int doc2)
+	{
+		int result = Float.compare(s.score[doc2], s.score[doc1]);
+		if (result == 0)
+		{
+			result = Integer.compare(docLength(doc1), docLength(doc2));
+		}
+		return (result == 0 ? Integer.compare(doc1, doc2) : result);
+	}
+
+	private String[] doc(int doc)
+	{
+		int start = buffer_.getInt(docOffsetsPos_ + (doc * 4));
+		int end = buffer_.getInt(docOffsetsPos_ + ((doc + 1) * 4));
+		byte[] bytes = new byte[end - start];
+		ByteBuffer bb = buffer_.duplicate();
+		bb.position(docBlobPos_ + start);
+		bb.get(bytes);
+		String s = new String(bytes, StandardCharsets.UTF_8);
+		int tab = s.indexOf('\t');
+		return new String[] {s.substring(0, tab), s.substring(tab + 1)};
+	}
+
+	private int docLength(int doc)
+	{
+		return buffer_.getInt(docOffsetsPos_ + ((doc + 1) * 4)) - buffer_.getInt(docOffsetsPos_ + (doc * 4));
+	}
+
+	private int tokenLength(int token)
+	{
+		return buffer_.getInt(tokenOffsetsPos_ + ((token + 1) * 4)) - buffer_.getInt(tokenOffsetsPos_ + (token * 4));
+	}
+
+	/**
+	 * Length in characters (for the trigram math) - tokens are nearly always ASCII, so only decode when they aren't.
+	 */
+	private int tokenCharLength(int token)
+	{
+		int start = tokenBlobPos_ + buffer_.getInt(tokenOffsetsPos_ + (token * 4));
+		int length = tokenLength(token);
+		int chars = 0;
+		for (int i = 0; i < length; i++)
+		{
+			// Count everything except UTF-8 continuation bytes
+			if ((buffer_.get(start + i) & 0xC0) != 0x80)
+			{
+				chars++;
+			}
+		}
+		return chars;
+	}
+
+	/**
+	 * Compare the token to the query bytes, unsigned byte order.  With <code>prefix</code> true, a token that starts with the query
+	 * compares equal.
+	 */
+	private int compareToken(int token, byte[] q, boolean prefix)
+	{
+		int start = tokenBlobPos_ + buffer_.getInt(tokenOffsetsPos_ + (token * 4));
+		int length = tokenLength(token);
+		int common = Math.min(length, q.length);
+		for (int i = 0; i < common; i++)
+		{
+			int result = Integer.compare(buffer_.get(start + i) & 0xFF, q[i] & 0xFF);
+			if (result != 0)
+			{
+				return result;
+			}
+		}
+		if (prefix && length >= q.length)
+		{
+			return 0;
+		}
+		return Integer.compare(length, q.length);
+	}
+
+	private int findToken(byte[] q)
+	{
+		int low = lowerBound(q);
+		return (low < tokenCount_ && compareToken(low, q, false) == 0 ? low : -1);
+	}
+
+	/**
+	 * @return the first token that is not less than q
+	 */
+	private int lowerBound(byte[] q)
+	{
+		int low = 0;
+		int high = tokenCount_;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (compareToken(mid, q, false) < 0)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the first token at or after <code>from</code> that doesn't start with q
+	 */
+	private int prefixUpperBound(byte[] q, int from)
+	{
+		int low = from;
+		int high = tokenCount_;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (compareToken(mid, q, true) == 0)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int findTrigram(long trigram)
+	{
+		int low = 0;
+		int high = trigramCount_ - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long value = buffer_.getLong(trigramKeysPos_ + (mid * 8));
+			if (value < trigram)
+			{
+				low = mid + 1;
+			}
+			else if (value > trigram)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lower cased runs of letters and digits.
+	 */
+	public static List<String> tokenize(String text)
+	{
+		ArrayList<String> result = new ArrayList<>();
+		if (text == null)
+		{
+			return result;
+		}
+		String lower = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for (int i = 0; i <= lower.length(); i++)
+		{
+			boolean tokenChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+			if (tokenChar && start < 0)
+			{
+				start = i;
+			}
+			else if (!tokenChar && start >= 0)
+			{
+				result.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The distinct trigrams of the token, padded with start and end markers, each packed into a long.
+	 */
+	static long[] trigrams(String token)
+	{
+		String padded = START + token + END;
+		long[] result = new long[padded.length() - 2];
+		int count = 0;
+		for (int i = 0; i + 3 <= padded.length(); i++)
+		{
+			long key = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+			boolean dupe = false;
+			for (int j = 0; j < count; j++)
+			{
+				if (result[j] == key)
+				{
+					dupe = true;
+					break;
+				}
+			}
+			if (!dupe)
+			{
+				result[count++] = key;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private static class IntList
+	{
+		int[] data = new int[16];
+		int size = 0;
+
+		void add(int value)
+		{
+			if (size == data.length)
+			{
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = value;
+		}
+	}
+
+	/**
+	 * Per thread working storage, so a query doesn't allocate arrays the size of the index.  The stamps avoid clearing the
+	 * arrays between queries.
+	 */
+	private static class Scratch
+	{
+		final int[] queryStamp, tokenStamp, hits, tokenOverlap;
+		final float[] score, best;
+		final IntList alive = new IntList();
+		final IntList touchedDocs = new IntList();
+		final IntList touchedTokens = new IntList();
+		int query = 0;
+		int token = 0;
+
+		Scratch(int docCount, int tokenCount)
+		{
+			queryStamp = new int[docCount];
+			tokenStamp = new int[docCount];
+			hits = new int[docCount];
+			score = new float[docCount];
+			best = new float[docCount];
+			tokenOverlap = new int[tokenCount];
+		}
+
+		void startQuery()
+		{
+			if (++query == Integer.MAX_VALUE)
+			{
+				Arrays.fill(queryStamp, 0);
+				query = 1;
+			}
+			alive.size = 0;
+		}
+
+		void startToken()
+		{
+			if (++token == Integer.MAX_VALUE)
+			{
+				Arrays.fill(tokenStamp, 0);
+				token = 1;
+			}
+			touchedDocs.size = 0;
+		}
+
+		void endToken()
+		{
+			for (int i = 0; i < touchedDocs.size; i++)
+			{
+				int doc = touchedDocs.data[i];
+				hits[doc]++;
+				score[doc] += best[doc];
+			}
+		}
+	}
+
+	/**
+	 * Collects the names, code by code.  Names are staged with {@link #addName(String, String)} and only kept if the code is
+	 * {@link #commit()}ed.
+	 *
+	 * Not thread safe.
+	 */
+	public static class Builder
+	{
+		private final ArrayList<String> codes_;
+		private final ArrayList<String> names_;
+		private final HashMap<String, Integer> codeIds_;
+		private final HashMap<String, IntList> postings_ = new HashMap<>();
+
+		private String pendingCode_;
+		private final ArrayList<String> pendingFields_ = new ArrayList<>();
+		private final ArrayList<String> pendingNames_ = new ArrayList<>();
+
+		public Builder()
+		{
+			this(0);
+		}
+
+		/**
+		 * @param expectedCodes the number of codes that will be committed, if known (see {@link com.apelon.akcds.loinc.InputProfile}) - 0 if not
+		 */
+		public Builder(int expectedCodes)
+		{
+			codes_ = new ArrayList<>(Math.max(10, expectedCodes));
+			names_ = new ArrayList<>(Math.max(10, expectedCodes));
+			codeIds_ = new HashMap<>((int) (Math.max(12, expectedCodes) / 0.75f) + 1);
+		}
+
+		public void startCode(String code)
+		{
+			discard();
+			pendingCode_ = code;
+		}
+
+		/**
+		 * @param field the source column - LONG_COMMON_NAME, SHORTNAME, RELATEDNAMES2, etc.  Determines the weight.
+		 */
+		public void addName(String field, String name)
+		{
+			if (pendingCode_ != null && name != null && name.length() > 0)
+			{
+				pendingFields_.add(field);
+				pendingNames_.add(name);
+			}
+		}
+
+		public void discard()
+		{
+			pendingCode_ = null;
+			pendingFields_.clear();
+			pendingNames_.clear();
+		}
+
+		public void commit()
+		{
+			if (pendingCode_ == null || pendingNames_.size() == 0 || codeIds_.containsKey(pendingCode_))
+			{
+				discard();
+				return;
+			}
+			int doc = codes_.size();
+			codeIds_.put(pendingCode_, doc);
+			codes_.add(pendingCode_);
+
+			String display = null;
+			int displayWeight = -1;
+			HashMap<String, Integer> tokenWeights = new HashMap<>();
+			for (int i = 0; i < pendingNames_.size(); i++)
+			{
+				Integer w = WEIGHTS.get(pendingFields_.get(i));
+				int weight = (w == null ? 1 : w);
+				if (weight > displayWeight)
+				{
+					display = pendingNames_.get(i);
+					displayWeight = weight;
+				}
+				for (String token : tokenize(pendingNames_.get(i)))
+				{
+					Integer current = tokenWeights.get(token);
+					if (current == null || current < weight)
+					{
+						tokenWeights.put(token, weight);
+					}
+				}
+			}
+			names_.add(display.replace('\t', ' '));
+			for (Entry<String, Integer> tw : tokenWeights.entrySet())
+			{
+				IntList list = postings_.get(tw.getKey());
+				if (list == null)
+				{
+					list = new IntList();
+					postings_.put(tw.getKey(), list);
+				}
+				list.add((doc << 3) | tw.getValue());
+			}
+			discard();
+		}
+
+		public int getCodeCount()
+		{
+			return codes_.size();
+		}
+
+		/**
+		 * Write the index file.  Docs are numbered in commit order; the postings are in doc order.
+		 */
+		public void write(File file) throws IOException
+		{
+			byte[][] tokens = new byte[postings_.size()][];
+			String[] tokenStrings = postings_.keySet().toArray(new String[postings_.size()]);
+			Arrays.sort(tokenStrings, new Comparator<String>()
+			{
+				@Override
+				public int compare(String o1, String o2)
+				{
+					return compareUnsigned(o1.getBytes(StandardCharsets.UTF_8), o2.getBytes(StandardCharsets.UTF_8));
+				}
+			});
+			for (int i = 0; i < tokenStrings.length; i++)
+			{
+				tokens[i] = tokenStrings[i].getBytes(StandardCharsets.UTF_8);
+			}
+
+			// trigram -> token ids
+			HashMap<Long, IntList> trigramTokens = new HashMap<>();
+			for (int t = 0; t < tokenStrings.length; t++)
+			{
+				for (long trigram : trigrams(tokenStrings[t]))
+				{
+					IntList list = trigramTokens.get(trigram);
+					if (list == null)
+					{
+						list = new IntList();
+						trigramTokens.put(trigram, list);
+					}
+					list.add(t);
+				}
+			}
+			Long[] trigramKeys = trigramTokens.keySet().toArray(new Long[trigramTokens.size()]);
+			Arrays.sort(trigramKeys);
+
+			byte[][] docs = new byte[codes_.size()][];
+			for (int d = 0; d < docs.length; d++)
+			{
+				docs[d] = (codes_.get(d) + "\t" + names_.get(d)).getBytes(StandardCharsets.UTF_8);
+			}
+
+			int postingCount = 0;
+			for (IntList list : postings_.values())
+			{
+				postingCount += list.size;
+			}
+			int trigramPostingCount = 0;
+			for (IntList list : trigramTokens.values())
+			{
+				trigramPostingCount += list.size;
+			}
+
+			int pos = HEADER_INTS * 4;
+			int docOffsetsPos = pos;
+			pos += (docs.length + 1) * 4;
+			int docBlobPos = pos;
+			pos += totalLength(docs);
+			int tokenOffsetsPos = pos;
+			pos += (tokens.length + 1) * 4;
+			int tokenBlobPos = pos;
+			pos += totalLength(tokens);
+			int postingOffsetsPos = pos;
+			pos += (tokens.length + 1) * 4;
+			int postingsPos = pos;
+			pos += postingCount * 4;
+			int trigramKeysPos = pos;
+			pos += trigramKeys.length * 8;
+			int trigramOffsetsPos = pos;
+			pos += (trigramKeys.length + 1) * 4;
+			int trigramPostingsPos = pos;
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)))
+			{
+				for (int i : new int[] {MAGIC, VERSION, docs.length, tokens.length, trigramKeys.length, docOffsetsPos, docBlobPos, tokenOffsetsPos,
+						tokenBlobPos, postingOffsetsPos, postingsPos, trigramKeysPos, trigramOffsetsPos, trigramPostingsPos})
+				{
+					out.writeInt(i);
+				}
+				writeBlob(out, docs);
+				writeBlob(out, tokens);
+
+				int offset = 0;
+				for (String t : tokenStrings)
+				{
+					out.writeInt(offset);
+					offset += postings_.get(t).size;
+				}
+				out.writeInt(offset);
+				for (String t : tokenStrings)
+				{
+					IntList list = postings_.get(t);
+					for (int i = 0; i < list.size; i++)
+					{
+						out.writeInt(list.data[i]);
+					}
+				}
+
+				for (Long k : trigramKeys)
+				{
+					out.writeLong(k);
+				}
+				offset = 0;
+				for (Long k : trigramKeys)
+				{
+					out.writeInt(offset);
+					offset += trigramTokens.get(k).size;
+				}
+				out.writeInt(offset);
+				for (Long k : trigramKeys)
+				{
+					IntList list = trigramTokens.get(k);
+					for (int i = 0; i < list.size; i++)
+					{
+						out.writeInt(list.data[i]);
+					}
+				}
+			}
+		}
+
+		private static int totalLength(byte[][] blobs)
+		{
+			int total = 0;
+			for (byte[] b : blobs)
+			{
+				total += b.length;
+			}
+			return total;
+		}
+
+		/**
+		 * Offsets table (n + 1 entries), followed by the bytes.
+		 */
+		private static void writeBlob(DataOutputStream out, byte[][] blobs) throws IOException
+		{
+			int offset = 0;
+			for (byte[] b : blobs)
+			{
+				out.writeInt(offset);
+				offset += b.length;
+			}
+			out.writeInt(offset);
+			for (byte[] b : blobs)
+			{
+				out.write(b);
+			}
+		}
+
+		private static int compareUnsigned(byte[] a, byte[] b)
+		{
+			int common = Math.min(a.length, b.length);
+			for (int i = 0; i < common; i++)
+			{
+				int result = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+				if (result != 0)
+				{
+					return result;
+				}
+			}
+			return Integer.compare(a.length, b.length);
+		}
+	}
+}
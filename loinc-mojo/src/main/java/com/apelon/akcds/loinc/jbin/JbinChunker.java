@@ -0,0 +1,310 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jbin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ *
+ * {@link JbinChunker}
+ *
+ * Splits a finished jbin file into content defined chunks, each stored under the SHA-256 of its bytes, with a manifest listing
+ * the chunks in order - so a site that already has most of the chunks from the last build only needs to fetch the new ones.
+ *
+ * A gear hash rolls over the bytes, and a chunk ends at the first concept record boundary after the hash hits - so boundaries
+ * depend only on the nearby content, and a concept added or changed in one place doesn't shift the chunks everywhere else.
+ * Chunks never split a record, unless a run without reported boundaries (the metadata concepts, for example) grows past twice
+ * the maximum chunk size.  This only pays off if the same content always produces the same bytes, in the same order - which
+ * {@link com.apelon.akcds.loinc.ConceptWriteOrder} guarantees for the converter.
+ *
+ * Manifest layout (UTF-8 text):
+ * <pre>
+ * # jbin chunk manifest 1
+ * file &lt;jbin name&gt; &lt;length&gt; &lt;sha-256 of the whole file&gt;
+ * &lt;sha-256&gt; &lt;offset&gt; &lt;length&gt;     - one line per chunk, in file order
+ * </pre>
+ */
+public class JbinChunker
+{
+	public static final String MANIFEST_HEADER = "# jbin chunk manifest 1";
+	public static final String MANIFEST_SUFFIX = ".manifest";
+	public static final String CHUNK_DIR_SUFFIX = ".chunks";
+
+	private static final long[] GEAR = new long[256];
+	static
+	{
+		// Fixed seed - the table must be the same on every run, or no chunk would ever match the last build
+		long seed = 0x4C4F494E43L;
+		for (int i = 0; i < GEAR.length; i++)
+		{
+			seed += 0x9E3779B97F4A7C15L;
+			long z = seed;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			GEAR[i] = z ^ (z >>> 31);
+		}
+	}
+
+	private final int minSize_, maxSize_;
+	private final int maskBits_;
+	private long[] recordEnds_ = new long[1024];
+	private int recordCount_ = 0;
+
+	private int chunkCount_, chunksWritten_;
+
+	/**
+	 * @param targetSize the average chunk size to aim for - rounded to a power of 2.  Chunks are between a quarter and 4 times this.
+	 */
+	public JbinChunker(int targetSize)
+	{
+		maskBits_ = Math.max(10, 31 - Integer.numberOfLeadingZeros(targetSize));
+		minSize_ = (1 << maskBits_) / 4;
+		maxSize_ = (1 << maskBits_) * 4;
+	}
+
+	/**
+	 * Note the end offset of a record written to the jbin - the chunks may end there.  Ends must be added in increasing order.
+	 */
+	public void addRecordEnd(long offset)
+	{
+		if (recordCount_ == recordEnds_.length)
+		{
+			recordEnds_ = Arrays.copyOf(recordEnds_, recordCount_ * 2);
+		}
+		recordEnds_[recordCount_++] = offset;
+	}
+
+	/**
+	 * Chunk the file into <code>jbin</code>.chunks, and write <code>jbin</code>.manifest.  Chunks already in the folder are kept (and
+	 * not rewritten) if the manifest still uses them - the rest are removed.
+	 * @return the manifest file
+	 */
+	public File write(File jbin) throws IOException
+	{
+		File chunkDir = new File(jbin.getParentFile(), jbin.getName() + CHUNK_DIR_SUFFIX);
+		File manifest = new File(jbin.getParentFile(), jbin.getName() + MANIFEST_SUFFIX);
+		chunkDir.mkdirs();
+		if (!chunkDir.isDirectory())
+		{
+			throw new IOException("Couldn't create " + chunkDir.getAbsolutePath());
+		}
+
+		HashSet<String> used = new HashSet<>();
+		chunkCount_ = 0;
+		chunksWritten_ = 0;
+		MessageDigest fileDigest = sha256();
+		StringBuilder lines = new StringBuilder();
+
+		try (InputStream in = new FileInputStream(jbin))
+		{
+			byte[] buffer = new byte[64 * 1024];
+			byte[] chunk = new byte[maxSize_ * 2];
+			int size = 0;
+			long chunkStart = 0;
+			long position = 0;
+			long hash = 0;
+			boolean hit = false;
+			int nextRecord = 0;
+			long threshold = (1L << (64 - maskBits_));
+
+			int read = in.read(buffer);
+			while (read >= 0)
+			{
+				for (int i = 0; i < read; i++)
+				{
+					int b = buffer[i] & 0xFF;
+					chunk[size++] = (byte) b;
+					position++;
+					hash = (hash << 1) + GEAR[b];
+					if (size >= minSize_ && Long.compareUnsigned(hash, threshold) < 0)
+					{
+						hit = true;
+					}
+					while (nextRecord < recordCount_ && recordEnds_[nextRecord] < position)
+					{
+						nextRecord++;
+					}
+					boolean atRecordEnd = (nextRecord < recordCount_ && recordEnds_[nextRecord] == position);
+					if ((atRecordEnd && (hit || size >= maxSize_)) || size == chunk.length)
+					{
+						lines.append(store(chunk, size, chunkStart, chunkDir, fileDigest, used));
+						chunkStart = position;
+						size = 0;
+						hash = 0;
+						hit = false;
+					}
+				}
+				read = in.read(buffer);
+			}
+			if (size > 0)
+			{
+				lines.append(store(chunk, size, chunkStart, chunkDir, fileDigest, used));
+			}
+		}
+
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifest), StandardCharsets.UTF_8)))
+		{
+			out.write(MANIFEST_HEADER + "\n");
+			out.write("file " + jbin.getName() + " " + jbin.length() + " " + hex(fileDigest.digest()) + "\n");
+			out.write(lines.toString());
+		}
+
+		File[] existing = chunkDir.listFiles();
+		if (existing != null)
+		{
+			for (File f : existing)
+			{
+				if (!used.contains(f.getName()))
+				{
+					f.delete();
+				}
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * @return the number of chunks in the last manifest written
+	 */
+	public int getChunkCount()
+	{
+		return chunkCount_;
+	}
+
+	/**
+	 * @return the number of chunks the last write had to create - the rest were already in the chunk folder
+	 */
+	public int getChunksWritten()
+	{
+		return chunksWritten_;
+	}
+
+	private String store(byte[] chunk, int size, long offset, File chunkDir, MessageDigest fileDigest, HashSet<String> used) throws IOException
+	{
+		fileDigest.update(chunk, 0, size);
+		MessageDigest digest = sha256();
+		digest.update(chunk, 0, size);
+		String name = hex(digest.digest());
+		chunkCount_++;
+		File f = new File(chunkDir, name);
+		if (used.add(name) && !(f.isFile() && f.length() == size))
+		{
+			// Write aside, then rename, so an interrupted run never leaves a truncated chunk under a valid name
+			File temp = new File(chunkDir, name + ".tmp");
+			try (OutputStream out = new FileOutputStream(temp))
+			{
+				out.write(chunk, 0, size);
+			}
+			f.delete();
+			if (!temp.renameTo(f))
+			{
+				throw new IOException("Couldn't rename " + temp.getAbsolutePath());
+			}
+			chunksWritten_++;
+		}
+		return name + " " + offset + " " + size + "\n";
+	}
+
+	/**
+	 * Rebuild the jbin from the manifest and its chunks, checking every hash - what a fetcher does once it has the chunks.
+	 */
+	public static void assemble(File manifest, File chunkDir, File jbin) throws IOException
+	{
+		MessageDigest fileDigest = sha256();
+		String expected = null;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8));
+				OutputStream out = new FileOutputStream(jbin))
+		{
+			if (!MANIFEST_HEADER.equals(in.readLine()))
+			{
+				throw new IOException("Not a jbin chunk manifest: " + manifest.getAbsolutePath());
+			}
+			String[] file = in.readLine().split(" ");
+			expected = file[3];
+			for (String line = in.readLine(); line != null; line = in.readLine())
+			{
+				String name = line.split(" ")[0];
+				byte[] bytes = Files.readAllBytes(new File(chunkDir, name).toPath());
+				MessageDigest digest = sha256();
+				digest.update(bytes);
+				if (!hex(digest.digest()).equals(name))
+				{
+					throw new IOException("Chunk " + name + " is corrupt");
+				}
+				fileDigest.update(bytes);
+				out.write(bytes);
+			}
+		}
+		if (!hex(fileDigest.digest()).equals(expected))
+		{
+			throw new IOException("The assembled file doesn't match the manifest");
+		}
+	}
+
+	private static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException("Every JVM must support SHA-256", e);
+		}
+	}
+
+	private static String hex(byte[] bytes)
+	{
+		StringBuilder result = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Rebuild a jbin from its manifest - see {@link #assemble(File, File, File)}.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 3)
+		{
+			System.err.println("Usage: JbinChunker loincEConcepts.jbin.manifest chunkDir out.jbin");
+			System.exit(1);
+		}
+		assemble(new File(args[0]), new File(args[1]), new File(args[2]));
+	}
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jbin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.UUID;
+import org.ihtsdo.otf.tcc.dto.TtkConceptChronicle;
+import org.ihtsdo.otf.tcc.dto.component.TtkComponentChronicle;
+import org.ihtsdo.otf.tcc.dto.component.description.TtkDescriptionChronicle;
+import org.ihtsdo.otf.tcc.dto.component.relationship.TtkRelationshipChronicle;
+import com.apelon.akcds.loinc.util.ExternalSorter.RecordSource;
+
+/**
+ *
+ * {@link JbinDiff}
+ *
+ * Reports the differences between two jbin files - concepts added, removed and changed, and for the changed concepts,
+ * the descriptions, annotations, relationships and refset members that were added, removed or changed.
+ *
+ * Both files are streamed in primordial UUID order (see {@link JbinReader#sortedByUuid(File, int, File)}), so heap usage
+ * is bounded by the sort buffer, rather than the size of the files.  Records that share a primordial UUID (a concept
+ * written in several pieces) are compared as a group.
+ *
+ * Usage: JbinDiff [-o reportFile] [-m maxConceptsInMemory] [-t tempDir] old.jbin new.jbin
+ */
+public class JbinDiff
+{
+	private final PrintStream report_;
+	private final int maxInMemory_;
+	private final File tempDir_;
+
+	private long unchanged_, added_, removed_, changed_;
+	private final TreeMap<String, long[]> componentCounts_ = new TreeMap<>();
+
+	public static void main(String[] args) throws Exception
+	{
+		File reportFile = null;
+		int maxInMemory = 10000;
+		File tempDir = null;
+		ArrayList<File> files = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-o") && i + 1 < args.length)
+			{
+				reportFile = new File(args[++i]);
+			}
+			else if (args[i].equals("-m") && i + 1 < args.length)
+			{
+				maxInMemory = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-t") && i + 1 < args.length)
+			{
+				tempDir = new File(args[++i]);
+			}
+			else
+			{
+				files.add(new File(args[i]));
+			}
+		}
+
+		if (files.size() != 2)
+		{
+			System.err.println("Usage: JbinDiff [-o reportFile] [-m maxConceptsInMemory] [-t tempDir] old.jbin new.jbin");
+			System.exit(1);
+		}
+
+		PrintStream report = (reportFile == null ? System.out : new PrintStream(new FileOutputStream(reportFile), false, "UTF-8"));
+		try
+		{
+			new JbinDiff(report, maxInMemory, tempDir).diff(files.get(0), files.get(1));
+		}
+		finally
+		{
+			report.flush();
+			if (reportFile != null)
+			{
+				report.close();
+			}
+		}
+	}
+
+	/**
+	 * @param report where to write the report
+	 * @param maxInMemory the most concepts (per file) to hold in memory, if a file has to be sorted
+	 * @param tempDir where to put sort files - null for the system default
+	 */
+	public JbinDiff(PrintStream report, int maxInMemory, File tempDir)
+	{
+		report_ = report;
+		maxInMemory_ = maxInMemory;
+		tempDir_ = tempDir;
+	}
+
+	/**
+	 * @return true if the files are equivalent
+	 */
+	public boolean diff(File oldJbin, File newJbin) throws IOException
+	{
+		report_.println("Comparing " + oldJbin.getAbsolutePath() + " (old) to " + newJbin.getAbsolutePath() + " (new)");
+
+		try (RecordSource<TtkConceptChronicle> oldSource = JbinReader.sortedByUuid(oldJbin, maxInMemory_, tempDir_);
+				RecordSource<TtkConceptChronicle> newSource = JbinReader.sortedByUuid(newJbin, maxInMemory_, tempDir_))
+		{
+			Grouper oldGroups = new Grouper(oldSource);
+			Grouper newGroups = new Grouper(newSource);
+
+			List<TtkConceptChronicle> o = oldGroups.next();
+			List<TtkConceptChronicle> n = newGroups.next();
+			while (o != null || n != null)
+			{
+				int compare = (o == null ? 1 : (n == null ? -1 : o.get(0).getPrimordialUuid().compareTo(n.get(0).getPrimordialUuid())));
+				if (compare < 0)
+				{
+					removed_++;
+					report_.println("REMOVED " + describe(o.get(0)));
+					o = oldGroups.next();
+				}
+				else if (compare > 0)
+				{
+					added_++;
+					report_.println("ADDED   " + describe(n.get(0)));
+					n = newGroups.next();
+				}
+				else
+				{
+					compareConcept(o, n);
+					o = oldGroups.next();
+					n = newGroups.next();
+				}
+			}
+		}
+
+		report_.println();
+		report_.println("Summary:");
+		report_.println("  Unchanged concepts: " + unchanged_);
+		report_.println("  Added concepts: " + added_);
+		report_.println("  Removed concepts: " + removed_);
+		report_.println("  Changed concepts: " + changed_);
+		for (Entry<String, long[]> counts : componentCounts_.entrySet())
+		{
+			report_.println("    " + counts.getKey() + " - added: " + counts.getValue()[0] + ", removed: " + counts.getValue()[1] + ", changed: "
+					+ counts.getValue()[2]);
+		}
+		return added_ == 0 && removed_ == 0 && changed_ == 0;
+	}
+
+	private void compareConcept(List<TtkConceptChronicle> oldGroup, List<TtkConceptChronicle> newGroup) throws IOException
+	{
+		if (oldGroup.size() == newGroup.size())
+		{
+			boolean same = true;
+			for (int i = 0; i < oldGroup.size(); i++)
+			{
+				if (!Arrays.equals(toBytes(oldGroup.get(i)), toBytes(newGroup.get(i))))
+				{
+					same = false;
+					break;
+				}
+			}
+			if (same)
+			{
+				unchanged_++;
+				return;
+			}
+		}
+
+		changed_++;
+		report_.println("CHANGED " + describe(newGroup.get(0)));
+
+		boolean found = false;
+		found |= compareComponents("Descriptions", descriptions(oldGroup), descriptions(newGroup));
+		found |= compareComponents("Annotations", annotations(oldGroup), annotations(newGroup));
+		found |= compareComponents("Relationships", relationships(oldGroup), relationships(newGroup));
+		found |= compareComponents("Refset members", refsetMembers(oldGroup), refsetMembers(newGroup));
+		if (!found)
+		{
+			report_.println("    concept attributes or record layout differ");
+		}
+	}
+
+	private boolean compareComponents(String category, List<TtkComponentChronicle<?>> oldComponents, List<TtkComponentChronicle<?>> newComponents)
+			throws IOException
+	{
+		TreeMap<UUID, TtkComponentChronicle<?>> oldById = new TreeMap<>();
+		for (TtkComponentChronicle<?> c : oldComponents)
+		{
+			oldById.put(c.getPrimordialComponentUuid(), c);
+		}
+
+		long[] counts = componentCounts_.get(category);
+		if (counts == null)
+		{
+			counts = new long[3];
+			componentCounts_.put(category, counts);
+		}
+
+		boolean found = false;
+		for (TtkComponentChronicle<?> c : newComponents)
+		{
+			TtkComponentChronicle<?> old = oldById.remove(c.getPrimordialComponentUuid());
+			if (old == null)
+			{
+				counts[0]++;
+				found = true;
+				report_.println("    + " + describe(c));
+			}
+			else if (!Arrays.equals(toBytes(old), toBytes(c)))
+			{
+				counts[2]++;
+				found = true;
+				report_.println("    ~ " + describe(c));
+			}
+		}
+		for (TtkComponentChronicle<?> c : oldById.values())
+		{
+			counts[1]++;
+			found = true;
+			report_.println("    - " + describe(c));
+		}
+		return found;
+	}
+
+	private static List<TtkComponentChronicle<?>> descriptions(List<TtkConceptChronicle> group)
+	{
+		ArrayList<TtkComponentChronicle<?>> result = new ArrayList<>();
+		for (TtkConceptChronicle c : group)
+		{
+			if (c.getDescriptions() != null)
+			{
+				result.addAll(c.getDescriptions());
+			}
+		}
+		return result;
+	}
+
+	private static List<TtkComponentChronicle<?>> relationships(List<TtkConceptChronicle> group)
+	{
+		ArrayList<TtkComponentChronicle<?>> result = new ArrayList<>();
+		for (TtkConceptChronicle c : group)
+		{
+			if (c.getRelationships() != null)
+			{
+				result.addAll(c.getRelationships());
+			}
+		}
+		return result;
+	}
+
+	private static List<TtkComponentChronicle<?>> annotations(List<TtkConceptChronicle> group)
+	{
+		ArrayList<TtkComponentChronicle<?>> result = new ArrayList<>();
+		for (TtkConceptChronicle c : group)
+		{
+			if (c.getConceptAttributes() != null)
+			{
+				if (c.getConceptAttributes().getAnnotations() != null)
+				{
+					result.addAll(c.getConceptAttributes().getAnnotations());
+				}
+				if (c.getConceptAttributes().getAnnotationsDynamic() != null)
+				{
+					result.addAll(c.getConceptAttributes().getAnnotationsDynamic());
+				}
+			}
+		}
+		return result;
+	}
+
+	private static List<TtkComponentChronicle<?>> refsetMembers(List<TtkConceptChronicle> group)
+	{
+		ArrayList<TtkComponentChronicle<?>> result = new ArrayList<>();
+		for (TtkConceptChronicle c : group)
+		{
+			if (c.getRefsetMembersDynamic() != null)
+			{
+				result.addAll(c.getRefsetMembersDynamic());
+			}
+		}
+		return result;
+	}
+
+	private static String describe(TtkConceptChronicle concept)
+	{
+		String name = (concept.getDescriptions() == null || concept.getDescriptions().size() == 0 ? "" : concept.getDescriptions().get(0).getText());
+		return concept.getPrimordialUuid() + " " + name;
+	}
+
+	private static String describe(TtkComponentChronicle<?> component)
+	{
+		if (component instanceof TtkDescriptionChronicle)
+		{
+			return "description " + component.getPrimordialComponentUuid() + " '" + ((TtkDescriptionChronicle) component).getText() + "'";
+		}
+		else if (component instanceof TtkRelationshipChronicle)
+		{
+			TtkRelationshipChronicle r = (TtkRelationshipChronicle) component;
+			return "relationship " + r.getPrimordialComponentUuid() + " type " + r.getTypeUuid() + " -> " + r.getC2Uuid();
+		}
+		return component.getClass().getSimpleName() + " " + component.getPrimordialComponentUuid();
+	}
+
+	private static byte[] toBytes(TtkConceptChronicle concept) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		concept.writeExternal(dos);
+		dos.flush();
+		return baos.toByteArray();
+	}
+
+	private static byte[] toBytes(TtkComponentChronicle<?> component) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		component.writeExternal(dos);
+		dos.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Collects adjacent records that share a primordial UUID.
+	 */
+	private static class Grouper
+	{
+		private final RecordSource<TtkConceptChronicle> source_;
+		private TtkConceptChronicle lookahead_;
+
+		Grouper(RecordSource<TtkConceptChronicle> source) throws IOException
+		{
+			source_ = source;
+			lookahead_ = source_.next();
+		}
+
+		List<TtkConceptChronicle> next() throws IOException
+		{
+			if (lookahead_ == null)
+			{
+				return null;
+			}
+			ArrayList<TtkConceptChronicle> group = new ArrayList<>(1);
+			group.add(lookahead_);
+			lookahead_ = source_.next();
+			while (lookahead_ != null && lookahead_.getPrimordialUuid().equals(group.get(0).getPrimordialUuid()))
+			{
+				group.add(lookahead_);
+				lookahead_ = source_.next();
+			}
+			return group;
+		}
+	}
+}
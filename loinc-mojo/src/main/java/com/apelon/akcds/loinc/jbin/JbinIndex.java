@@ -0,0 +1,278 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jbin;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.ihtsdo.otf.tcc.dto.TtkConceptChronicle;
+
+/**
+ *
+ * {@link JbinIndex}
+ *
+ * Random access to the concepts of a jbin file, through the sidecar index written by {@link JbinIndexWriter}.
+ * Both files are memory mapped - a lookup is a binary search over the index, and the deserialization of a single record.
+ *
+ * Thread safe - each lookup works on its own view of the mapped buffers.
+ */
+public class JbinIndex implements Closeable
+{
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+	private final RandomAccessFile jbinFile_;
+	private final FileChannel jbinChannel_;
+	private final MappedByteBuffer jbin_;  // null if the file is too big to map in one piece
+	private final MappedByteBuffer index_;
+	private final int recordCount_;
+
+	private final String[] codes_;
+	private final long[] codeMsb_;
+	private final long[] codeLsb_;
+
+	/**
+	 * Opens the jbin, and its index (jbinName + {@value JbinIndexWriter#SUFFIX}).
+	 */
+	public JbinIndex(File jbin) throws IOException
+	{
+		this(jbin, new File(jbin.getParentFile(), jbin.getName() + JbinIndexWriter.SUFFIX));
+	}
+
+	public JbinIndex(File jbin, File indexFile) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r"))
+		{
+			index_ = raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length());
+		}
+		if (index_.getInt(0) != JbinIndexWriter.MAGIC)
+		{
+			throw new IOException(indexFile.getAbsolutePath() + " is not a jbin index");
+		}
+		if (index_.getInt(4) != JbinIndexWriter.VERSION)
+		{
+			throw new IOException("Unsupported jbin index version " + index_.getInt(4));
+		}
+		long expectedLength = index_.getLong(8);
+		if (expectedLength != jbin.length())
+		{
+			throw new IOException("The index " + indexFile.getAbsolutePath() + " doesn't match the jbin " + jbin.getAbsolutePath());
+		}
+		recordCount_ = index_.getInt(16);
+
+		// The code table is small - read it onto the heap, rather than searching variable length records in the map.
+		ByteBuffer codeTable = index_.duplicate();
+		codeTable.position(HEADER_SIZE + (recordCount_ * JbinIndexWriter.RECORD_SIZE));
+		DataInputStream in = new DataInputStream(new ByteBufferInputStream(codeTable));
+		int codeCount = in.readInt();
+		codes_ = new String[codeCount];
+		codeMsb_ = new long[codeCount];
+		codeLsb_ = new long[codeCount];
+		for (int i = 0; i < codeCount; i++)
+		{
+			codes_[i] = in.readUTF();
+			codeMsb_[i] = in.readLong();
+			codeLsb_[i] = in.readLong();
+		}
+
+		jbinFile_ = new RandomAccessFile(jbin, "r");
+		jbinChannel_ = jbinFile_.getChannel();
+		jbin_ = (jbinFile_.length() <= Integer.MAX_VALUE ? jbinChannel_.map(MapMode.READ_ONLY, 0, jbinFile_.length()) : null);
+	}
+
+	/**
+	 * @return the number of records in the jbin
+	 */
+	public int getRecordCount()
+	{
+		return recordCount_;
+	}
+
+	/**
+	 * @return the UUID of the concept identified by the code (LOINC_NUM or multi-axial CODE), or null
+	 */
+	public UUID getUuid(String code)
+	{
+		int i = Arrays.binarySearch(codes_, code);
+		return (i < 0 ? null : new UUID(codeMsb_[i], codeLsb_[i]));
+	}
+
+	/**
+	 * @return the concept identified by the code (LOINC_NUM or multi-axial CODE), or null
+	 */
+	public TtkConceptChronicle getConcept(String code) throws IOException
+	{
+		UUID uuid = getUuid(code);
+		return (uuid == null ? null : getConcept(uuid));
+	}
+
+	/**
+	 * @return the first record of the concept, or null if it isn't in the jbin.  See {@link #getConceptRecords(UUID)} for concepts
+	 * written in more than one record.
+	 */
+	public TtkConceptChronicle getConcept(UUID uuid) throws IOException
+	{
+		int i = find(uuid);
+		return (i < 0 ? null : read(i));
+	}
+
+	/**
+	 * @return every record written for the concept, in file order.  Empty, if the concept isn't in the jbin.
+	 */
+	public List<TtkConceptChronicle> getConceptRecords(UUID uuid) throws IOException
+	{
+		ArrayList<TtkConceptChronicle> result = new ArrayList<>(1);
+		int i = find(uuid);
+		if (i >= 0)
+		{
+			while (i < recordCount_ && compare(i, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) == 0)
+			{
+				result.add(read(i++));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the offset and length of the first record of the concept in the jbin, or null
+	 */
+	public long[] getLocation(UUID uuid)
+	{
+		int i = find(uuid);
+		return (i < 0 ? null : new long[] {offset(i), length(i)});
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		jbinFile_.close();
+	}
+
+	/**
+	 * @return the position of the first index record for the UUID, or -1
+	 */
+	private int find(UUID uuid)
+	{
+		long msb = uuid.getMostSignificantBits();
+		long lsb = uuid.getLeastSignificantBits();
+		int low = 0;
+		int high = recordCount_ - 1;
+		int found = -1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int c = compare(mid, msb, lsb);
+			if (c < 0)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				if (c == 0)
+				{
+					found = mid;
+				}
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	private int compare(int record, long msb, long lsb)
+	{
+		int pos = HEADER_SIZE + (record * JbinIndexWriter.RECORD_SIZE);
+		int result = Long.compare(index_.getLong(pos), msb);
+		return (result == 0 ? Long.compare(index_.getLong(pos + 8), lsb) : result);
+	}
+
+	private long offset(int record)
+	{
+		return index_.getLong(HEADER_SIZE + (record * JbinIndexWriter.RECORD_SIZE) + 16);
+	}
+
+	private int length(int record)
+	{
+		return index_.getInt(HEADER_SIZE + (record * JbinIndexWriter.RECORD_SIZE) + 24);
+	}
+
+	private TtkConceptChronicle read(int record) throws IOException
+	{
+		long offset = offset(record);
+		int length = length(record);
+		ByteBuffer bb;
+		if (jbin_ != null)
+		{
+			bb = jbin_.duplicate();
+			bb.position((int) offset);
+			bb.limit((int) offset + length);
+		}
+		else
+		{
+			bb = jbinChannel_.map(MapMode.READ_ONLY, offset, length);
+		}
+		return JbinReader.readConcept(new DataInputStream(new ByteBufferInputStream(bb)));
+	}
+
+	/**
+	 * Minimal adapter so the mapped bytes can be fed to the DataInput based deserialization code.
+	 */
+	static class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer bb_;
+
+		ByteBufferInputStream(ByteBuffer bb)
+		{
+			bb_ = bb;
+		}
+
+		@Override
+		public int read()
+		{
+			return bb_.hasRemaining() ? (bb_.get() & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (!bb_.hasRemaining())
+			{
+				return -1;
+			}
+			int toRead = Math.min(len, bb_.remaining());
+			bb_.get(b, off, toRead);
+			return toRead;
+		}
+
+		@Override
+		public int available()
+		{
+			return bb_.remaining();
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jbin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+import org.apache.commons.io.input.CountingInputStream;
+import org.ihtsdo.otf.tcc.dto.TtkConceptChronicle;
+
+/**
+ *
+ * {@link JbinIndexWriter}
+ *
+ * Collects the byte offset and length of each concept record as it is written to the jbin, along with the code
+ * (LOINC_NUM or multi-axial CODE) to UUID mappings, and writes them out as a sidecar index file that {@link JbinIndex} can read.
+ *
+ * Records that are written by code that doesn't report them here (the metadata concepts, for example) are found by
+ * {@link #write(File, File)}, which parses just the unreported byte ranges of the finished jbin.
+ *
+ * Index file layout (big endian, as written by {@link DataOutputStream}):
+ * <pre>
+ * int magic, int version, long jbinLength, int recordCount
+ * recordCount * (long uuidMsb, long uuidLsb, long offset, int length)  - sorted by UUID, then offset
+ * int codeCount
+ * codeCount * (UTF code, long uuidMsb, long uuidLsb)                   - sorted by code
+ * </pre>
+ */
+public class JbinIndexWriter
+{
+	public static final int MAGIC = 0x4C4A4958;  // LJIX
+	public static final int VERSION = 1;
+	public static final int RECORD_SIZE = 8 + 8 + 8 + 4;
+	public static final String SUFFIX = ".idx";
+
+	private long[] msb_;
+	private long[] lsb_;
+	private long[] offset_;
+	private int[] length_;
+	private int size_ = 0;
+
+	private final ArrayList<String> codes_;
+	private final ArrayList<UUID> codeUuids_;
+
+	public JbinIndexWriter()
+	{
+		this(0, 0);
+	}
+
+	/**
+	 * @param expectedRecords the number of concepts that will be written, if known - 0 if not
+	 * @param expectedCodes the number of codes that will be added, if known - 0 if not
+	 */
+	public JbinIndexWriter(int expectedRecords, int expectedCodes)
+	{
+		int records = Math.max(1024, expectedRecords);
+		msb_ = new long[records];
+		lsb_ = new long[records];
+		offset_ = new long[records];
+		length_ = new int[records];
+		codes_ = new ArrayList<>(Math.max(10, expectedCodes));
+		codeUuids_ = new ArrayList<>(Math.max(10, expectedCodes));
+	}
+
+	/**
+	 * Record that the concept <code>uuid</code> was written at <code>offset</code>, and took <code>length</code> bytes.
+	 */
+	public void addRecord(UUID uuid, long offset, long length)
+	{
+		if (size_ == msb_.length)
+		{
+			int newSize = msb_.length * 2;
+			msb_ = Arrays.copyOf(msb_, newSize);
+			lsb_ = Arrays.copyOf(lsb_, newSize);
+			offset_ = Arrays.copyOf(offset_, newSize);
+			length_ = Arrays.copyOf(length_, newSize);
+		}
+		msb_[size_] = uuid.getMostSignificantBits();
+		lsb_[size_] = uuid.getLeastSignificantBits();
+		offset_[size_] = offset;
+		length_[size_] = (int) length;
+		size_++;
+	}
+
+	/**
+	 * Record a code (LOINC_NUM, multi-axial CODE) that identifies the concept <code>uuid</code>.
+	 */
+	public void addCode(String code, UUID uuid)
+	{
+		codes_.add(code);
+		codeUuids_.add(uuid);
+	}
+
+	/**
+	 * Fills in any records that weren't reported, and writes the index next to the jbin, as jbinName + {@value #SUFFIX}.
+	 * The jbin must be completely written (and closed) before this is called.
+	 * @return the index file
+	 */
+	public File write(File jbin) throws IOException
+	{
+		File indexFile = new File(jbin.getParentFile(), jbin.getName() + SUFFIX);
+		write(jbin, indexFile);
+		return indexFile;
+	}
+
+	public void write(File jbin, File indexFile) throws IOException
+	{
+		long jbinLength = jbin.length();
+		fillGaps(jbin, jbinLength);
+
+		Integer[] order = sortedOrder();
+
+		Integer[] codeOrder = new Integer[codes_.size()];
+		for (int i = 0; i < codeOrder.length; i++)
+		{
+			codeOrder[i] = i;
+		}
+		Arrays.sort(codeOrder, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer o1, Integer o2)
+			{
+				return codes_.get(o1).compareTo(codes_.get(o2));
+			}
+		});
+		// A code listed twice (for example, a multi-axial CODE that is also a LOINC_NUM) maps to the same concept - only keep one.
+		ArrayList<Integer> uniqueCodes = new ArrayList<>(codeOrder.length);
+		for (Integer i : codeOrder)
+		{
+			if (uniqueCodes.size() == 0 || !codes_.get(uniqueCodes.get(uniqueCodes.size() - 1)).equals(codes_.get(i)))
+			{
+				uniqueCodes.add(i);
+			}
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(jbinLength);
+			out.writeInt(size_);
+			for (Integer i : order)
+			{
+				out.writeLong(msb_[i]);
+				out.writeLong(lsb_[i]);
+				out.writeLong(offset_[i]);
+				out.writeInt(length_[i]);
+			}
+			out.writeInt(uniqueCodes.size());
+			for (Integer i : uniqueCodes)
+			{
+				out.writeUTF(codes_.get(i));
+				out.writeLong(codeUuids_.get(i).getMostSignificantBits());
+				out.writeLong(codeUuids_.get(i).getLeastSignificantBits());
+			}
+		}
+	}
+
+	private Integer[] sortedOrder()
+	{
+		Integer[] order = new Integer[size_];
+		for (int i = 0; i < size_; i++)
+		{
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer o1, Integer o2)
+			{
+				int result = Long.compare(msb_[o1], msb_[o2]);
+				if (result == 0)
+				{
+					result = Long.compare(lsb_[o1], lsb_[o2]);
+				}
+				if (result == 0)
+				{
+					result = Long.compare(offset_[o1], offset_[o2]);
+				}
+				return result;
+			}
+		});
+		return order;
+	}
+
+	/**
+	 * Parse any byte ranges of the jbin that no record was reported for.
+	 */
+	private void fillGaps(File jbin, long jbinLength) throws IOException
+	{
+		ArrayList<long[]> known = new ArrayList<>(size_);
+		for (int i = 0; i < size_; i++)
+		{
+			known.add(new long[] {offset_[i], length_[i]});
+		}
+		Collections.sort(known, new Comparator<long[]>()
+		{
+			@Override
+			public int compare(long[] o1, long[] o2)
+			{
+				return Long.compare(o1[0], o2[0]);
+			}
+		});
+
+		ArrayList<long[]> gaps = new ArrayList<>();
+		long position = 0;
+		for (long[] k : known)
+		{
+			if (k[0] > position)
+			{
+				gaps.add(new long[] {position, k[0]});
+			}
+			position = Math.max(position, k[0] + k[1]);
+		}
+		if (position < jbinLength)
+		{
+			gaps.add(new long[] {position, jbinLength});
+		}
+		if (gaps.size() == 0)
+		{
+			return;
+		}
+
+		try (CountingInputStream cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(jbin), 64 * 1024)))
+		{
+			DataInputStream in = new DataInputStream(cis);
+			for (long[] gap : gaps)
+			{
+				long toSkip = gap[0] - cis.getByteCount();
+				while (toSkip > 0)
+				{
+					long skipped = cis.skip(toSkip);
+					if (skipped <= 0)
+					{
+						throw new IOException("Unexpected end of jbin file");
+					}
+					toSkip -= skipped;
+				}
+				while (cis.getByteCount() < gap[1])
+				{
+					long start = cis.getByteCount();
+					TtkConceptChronicle concept = JbinReader.readConcept(in);
+					addRecord(concept.getPrimordialUuid(), start, cis.getByteCount() - start);
+				}
+			}
+		}
+	}
+}
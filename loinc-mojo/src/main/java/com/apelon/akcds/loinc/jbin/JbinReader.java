@@ -0,0 +1,172 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jbin;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import org.ihtsdo.otf.tcc.dto.TtkConceptChronicle;
+import com.apelon.akcds.loinc.util.ExternalSorter;
+import com.apelon.akcds.loinc.util.ExternalSorter.RecordCodec;
+import com.apelon.akcds.loinc.util.ExternalSorter.RecordSource;
+
+/**
+ *
+ * {@link JbinReader}
+ *
+ * Streams the {@link TtkConceptChronicle} records out of a jbin file, one at a time.
+ */
+public class JbinReader implements RecordSource<TtkConceptChronicle>
+{
+	public static final Comparator<TtkConceptChronicle> BY_UUID = new Comparator<TtkConceptChronicle>()
+	{
+		@Override
+		public int compare(TtkConceptChronicle o1, TtkConceptChronicle o2)
+		{
+			return o1.getPrimordialUuid().compareTo(o2.getPrimordialUuid());
+		}
+	};
+
+	public static final RecordCodec<TtkConceptChronicle> CODEC = new RecordCodec<TtkConceptChronicle>()
+	{
+		@Override
+		public void write(TtkConceptChronicle record, DataOutputStream out) throws IOException
+		{
+			record.writeExternal(out);
+		}
+
+		@Override
+		public TtkConceptChronicle read(DataInputStream in) throws IOException
+		{
+			return readConcept(in);
+		}
+	};
+
+	private DataInputStream in_;
+	private long count_ = 0;
+
+	public JbinReader(File jbin) throws IOException
+	{
+		in_ = new DataInputStream(new BufferedInputStream(new FileInputStream(jbin), 256 * 1024));
+	}
+
+	/**
+	 * @return the next concept, or null at the end of the file
+	 */
+	@Override
+	public TtkConceptChronicle next() throws IOException
+	{
+		if (in_.available() <= 0)
+		{
+			return null;
+		}
+		count_++;
+		return readConcept(in_);
+	}
+
+	/**
+	 * @return the number of concepts read so far
+	 */
+	public long getCount()
+	{
+		return count_;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in_.close();
+	}
+
+	public static TtkConceptChronicle readConcept(DataInputStream in) throws IOException
+	{
+		try
+		{
+			return new TtkConceptChronicle(in);
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new IOException("Unreadable concept", e);
+		}
+	}
+
+	/**
+	 * Checks (with a streaming pass) whether the concepts in the file are already ordered by primordial UUID.
+	 */
+	public static boolean isSortedByUuid(File jbin) throws IOException
+	{
+		try (JbinReader reader = new JbinReader(jbin))
+		{
+			TtkConceptChronicle previous = null;
+			TtkConceptChronicle current = reader.next();
+			while (current != null)
+			{
+				if (previous != null && BY_UUID.compare(previous, current) > 0)
+				{
+					return false;
+				}
+				previous = current;
+				current = reader.next();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the concepts of the file ordered by primordial UUID - streamed straight from the file if it is already ordered,
+	 * otherwise through an {@link ExternalSorter} holding at most <code>maxInMemory</code> concepts on the heap.
+	 */
+	public static RecordSource<TtkConceptChronicle> sortedByUuid(File jbin, int maxInMemory, File tempDir) throws IOException
+	{
+		if (isSortedByUuid(jbin))
+		{
+			return new JbinReader(jbin);
+		}
+		final ExternalSorter<TtkConceptChronicle> sorter = new ExternalSorter<>(CODEC, BY_UUID, maxInMemory, tempDir);
+		try (JbinReader reader = new JbinReader(jbin))
+		{
+			TtkConceptChronicle c = reader.next();
+			while (c != null)
+			{
+				sorter.add(c);
+				c = reader.next();
+			}
+		}
+		final RecordSource<TtkConceptChronicle> sorted = sorter.sorted();
+		return new RecordSource<TtkConceptChronicle>()
+		{
+			@Override
+			public TtkConceptChronicle next() throws IOException
+			{
+				return sorted.next();
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				sorted.close();
+				sorter.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *
+ * {@link ConceptCreatedEvent}
+ *
+ * The first time an axis or class value is seen, and its concept is created.
+ */
+@Name("loinc.ConceptCreated")
+@Label("Axis / Class Concept Created")
+@Category({"LOINC Converter"})
+@Description("A new axis or class concept was created")
+public class ConceptCreatedEvent extends Event
+{
+	@Label("Kind")
+	@Description("axis or class")
+	public String kind;
+
+	@Label("Property")
+	public String property;
+
+	@Label("Value")
+	public String value;
+}
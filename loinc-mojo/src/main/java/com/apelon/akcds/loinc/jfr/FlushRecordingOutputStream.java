@@ -0,0 +1,53 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jfr;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *
+ * {@link FlushRecordingOutputStream}
+ *
+ * Sits between a buffer and the file, and records a {@link JbinFlushEvent} for each block the buffer writes through.
+ */
+public class FlushRecordingOutputStream extends FilterOutputStream
+{
+	public FlushRecordingOutputStream(OutputStream out)
+	{
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		JbinFlushEvent event = new JbinFlushEvent();
+		event.begin();
+		out.write(b, off, len);
+		event.bytes = len;
+		event.commit();
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		out.write(b);
+	}
+}
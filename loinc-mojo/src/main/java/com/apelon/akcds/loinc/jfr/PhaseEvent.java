@@ -0,0 +1,41 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *
+ * {@link PhaseEvent}
+ *
+ * One conversion phase, from start to finish - see {@link com.apelon.akcds.loinc.PhaseScheduler}.
+ */
+@Name("loinc.Phase")
+@Label("Conversion Phase")
+@Category({"LOINC Converter"})
+@Description("A phase of the LOINC conversion")
+public class PhaseEvent extends Event
+{
+	@Label("Phase")
+	public String phase;
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *
+ * {@link RowBatchEvent}
+ *
+ * Reading one batch of rows from a data file, and turning them into concepts.
+ */
+@Name("loinc.RowBatch")
+@Label("Row Batch")
+@Category({"LOINC Converter"})
+@Description("A batch of rows read from a LOINC data file, and processed")
+public class RowBatchEvent extends Event
+{
+	@Label("File")
+	public String file;
+
+	@Label("Rows")
+	public int rows;
+
+	@Label("Bytes Read")
+	@Description("Bytes read from the file for this batch - approximate, as the reader buffers ahead")
+	@DataAmount
+	public long bytesRead;
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.propertyTypes;
+
+import java.util.Collection;
+import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.BPT_Relations;
+
+/**
+ * The typed links from a LOINC code to its parts, from the LoincPartLink file - one relationship type per link property
+ * (http://loinc.org/property/COMPONENT, .../analyte...).  Like the part types, the link properties are read from the file.
+ * Also the link from a multi-axial hierarchy node to the part with the same LP code.
+ */
+public class PT_PartRelations extends BPT_Relations
+{
+	public static final String SAME_AS_PART = "Same_As_Part";
+
+	public PT_PartRelations(Collection<String> linkProperties)
+	{
+		super("LOINC Part");
+		addProperty(SAME_AS_PART);
+		for (String linkProperty : linkProperties)
+		{
+			String name = getPropertyName(linkProperty);
+			if (!getPropertyNames().contains(name))
+			{
+				addProperty(name);
+			}
+		}
+	}
+
+	/**
+	 * @param linkProperty the Property column of the link file - a URI, of which only the last segment is kept
+	 */
+	public static String getPropertyName(String linkProperty)
+	{
+		return "Has_Part_" + linkProperty.substring(linkProperty.lastIndexOf('/') + 1);
+	}
+}
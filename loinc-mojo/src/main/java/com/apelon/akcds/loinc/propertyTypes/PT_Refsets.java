@@ -49,4 +49,14 @@ public class PT_Refsets extends BPT_MemberRefsets
 			addProperty(mm.getProperty());
 		}
 	}
+
+	/**
+	 * Register a refset beyond the fixed ones - must be done before the metadata is loaded.
+	 */
+	public Property addRefset(String niceName)
+	{
+		Property property = new Property(null, niceName);
+		addProperty(property);
+		return property;
+	}
 }
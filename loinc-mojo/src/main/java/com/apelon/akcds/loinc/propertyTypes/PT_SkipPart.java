@@ -0,0 +1,48 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.propertyTypes;
+
+import java.util.Collection;
+import gov.va.oia.terminology.converters.sharedUtils.propertyTypes.BPT_Skip;
+
+/**
+ * The part types of the LOINC Part file (COMPONENT, SYSTEM, SUPER SYSTEM...) - each becomes a grouping concept for the parts of
+ * that type, the same way the axis and class values are grouped.  The part types vary by release, so they are read from the
+ * Part file, rather than listed here.
+ */
+public class PT_SkipPart extends BPT_Skip
+{
+	public PT_SkipPart(Collection<String> partTypes)
+	{
+		super("LOINC Part");
+		for (String partType : partTypes)
+		{
+			addProperty(getPropertyName(partType));
+		}
+	}
+
+	/**
+	 * Part types share their names with the data file columns (COMPONENT, PROPERTY...) - prefixed, so that they don't collide with
+	 * the axis properties.
+	 */
+	public static String getPropertyName(String partType)
+	{
+		return "Part " + partType;
+	}
+}
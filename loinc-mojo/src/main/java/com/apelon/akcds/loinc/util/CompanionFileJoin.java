@@ -0,0 +1,426 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.io.input.BOMInputStream;
+import au.com.bytecode.opencsv.CSVReader;
+import com.apelon.akcds.loinc.util.ExternalSorter.RecordCodec;
+import com.apelon.akcds.loinc.util.ExternalSorter.RecordSource;
+
+/**
+ *
+ * {@link CompanionFileJoin}
+ *
+ * Joins a LOINC companion CSV file (map_to.csv, and the like - any file keyed by LOINC_NUM) to the main data file as a sorted
+ * merge, rather than loading the companion file into a map.  The main file is walked in order, and {@link #get(String)} is
+ * called with each key - the companion file is read forward just far enough to answer it.
+ *
+ * The companion file is checked when the join is opened.  If it isn't in key order, it is spill sorted with an
+ * {@link ExternalSorter} into a temporary file, so memory use stays bounded either way.  The probe keys must be in the same
+ * order - {@link #get(String)} fails if they go backwards, rather than re-reading the companion file for every out of order key.
+ * The order is {@link #LOINC_NUM_ORDER} - the order the release files are in, so a release's data file is joined as it is.
+ *
+ * The scan can also gather the distinct values of a few low cardinality columns (link types, and the like), for callers that need
+ * to know them up front - see {@link #getDistinctValues(String)}.
+ *
+ * Not thread safe.
+ */
+public class CompanionFileJoin implements Closeable
+{
+	/**
+	 * The order of the LOINC release files - as text, but ignoring the hyphen before the check digit, so 10000-8 comes before
+	 * 1000-9 (100008 before 10009).  Codes that only differ in their hyphens fall back to plain String order.
+	 */
+	public static final Comparator<String> LOINC_NUM_ORDER = new Comparator<String>()
+	{
+		@Override
+		public int compare(String o1, String o2)
+		{
+			int i = 0, j = 0;
+			while (true)
+			{
+				while (i < o1.length() && o1.charAt(i) == '-')
+				{
+					i++;
+				}
+				while (j < o2.length() && o2.charAt(j) == '-')
+				{
+					j++;
+				}
+				if (i == o1.length() || j == o2.length())
+				{
+					break;
+				}
+				if (o1.charAt(i) != o2.charAt(j))
+				{
+					return o1.charAt(i) - o2.charAt(j);
+				}
+				i++;
+				j++;
+			}
+			if (i < o1.length())
+			{
+				return 1;
+			}
+			if (j < o2.length())
+			{
+				return -1;
+			}
+			return o1.compareTo(o2);
+		}
+	};
+
+	private final File file_;
+	private final String[] header_;
+	private final String keyColumnName_;
+	private final int keyColumn_;
+	private File sortedFile_;  // null if the file is already in key order
+	private long rowCount_ = 0;
+	private final LinkedHashMap<String, TreeSet<String>> distinctValues_ = new LinkedHashMap<>();
+
+	private RecordSource<String[]> source_;
+	private String[] pending_;
+	private String lastProbe_;
+
+	/**
+	 * See {@link #CompanionFileJoin(File, String, int, File, String...)} - no distinct values are gathered.
+	 */
+	public CompanionFileJoin(File file, String keyColumnName, int maxRecordsInMemory, File tempDir) throws IOException
+	{
+		this(file, keyColumnName, maxRecordsInMemory, tempDir, new String[0]);
+	}
+
+	/**
+	 * @param keyColumnName the header of the key column - the first column is used if there is no such column
+	 * @param maxRecordsInMemory the most rows to hold in memory, if the file has to be sorted
+	 * @param tempDir where to put the sort files - null for the system default
+	 * @param distinctColumns the headers of the columns to gather the distinct values of, while the file is checked.  Every distinct
+	 *     value is held in memory - only for columns with a handful of values.
+	 */
+	public CompanionFileJoin(File file, String keyColumnName, int maxRecordsInMemory, File tempDir, String ... distinctColumns) throws IOException
+	{
+		file_ = file;
+		CsvSource scan = new CsvSource(file);
+		header_ = scan.header_;
+		int keyColumn = Arrays.asList(header_).indexOf(keyColumnName);
+		keyColumn_ = (keyColumn < 0 ? 0 : keyColumn);
+		keyColumnName_ = (header_.length > keyColumn_ ? header_[keyColumn_] : keyColumnName);
+		int[] distinctIndexes = new int[distinctColumns.length];
+		for (int i = 0; i < distinctColumns.length; i++)
+		{
+			distinctIndexes[i] = Arrays.asList(header_).indexOf(distinctColumns[i]);
+			distinctValues_.put(distinctColumns[i], new TreeSet<String>());
+		}
+
+		boolean sorted = true;
+		String previous = null;
+		String[] row = scan.next();
+		while (row != null)
+		{
+			String key = key(row);
+			if (key != null)
+			{
+				rowCount_++;
+				if (previous != null && LOINC_NUM_ORDER.compare(previous, key) > 0)
+				{
+					sorted = false;
+				}
+				previous = key;
+				for (int i = 0; i < distinctIndexes.length; i++)
+				{
+					if (distinctIndexes[i] >= 0 && row[distinctIndexes[i]] != null && row[distinctIndexes[i]].length() > 0)
+					{
+						distinctValues_.get(distinctColumns[i]).add(row[distinctIndexes[i]]);
+					}
+				}
+			}
+			row = scan.next();
+		}
+		scan.close();
+
+		if (!sorted)
+		{
+			sortedFile_ = sort(maxRecordsInMemory, tempDir);
+		}
+		open();
+	}
+
+	public String[] getHeader()
+	{
+		return header_;
+	}
+
+	/**
+	 * @return the number of keyed rows in the companion file
+	 */
+	public long getRowCount()
+	{
+		return rowCount_;
+	}
+
+	/**
+	 * @return the distinct, non empty values of the column among the keyed rows, sorted - empty if the column wasn't asked for when
+	 *     the join was opened, or the file doesn't have it
+	 */
+	public Set<String> getDistinctValues(String column)
+	{
+		TreeSet<String> result = distinctValues_.get(column);
+		return result == null ? new TreeSet<String>() : result;
+	}
+
+	/**
+	 * @return true if the companion file had to be sorted before it could be joined
+	 */
+	public boolean wasSorted()
+	{
+		return sortedFile_ != null;
+	}
+
+	/**
+	 * @param key a key no less than the last one asked for (in {@link #LOINC_NUM_ORDER}) - the same key may be asked for again
+	 * @return the rows of the companion file with the key, in file order - empty if there are none.  Rows shorter than
+	 * the header are padded with nulls.
+	 * @throws IOException if the key is less than the last one
+	 */
+	public List<String[]> get(String key) throws IOException
+	{
+		if (lastProbe_ != null && LOINC_NUM_ORDER.compare(key, lastProbe_) < 0)
+		{
+			throw new IOException("Can't join " + file_.getName() + " - the keys it is joined on went backwards, from '" + lastProbe_ + "' to '"
+					+ key + "'.  The rows joined to it must be in " + keyColumnName_ + " order, like the release files - compared as text, "
+					+ "without the hyphens.");
+		}
+		lastProbe_ = key;
+
+		while (pending_ != null && LOINC_NUM_ORDER.compare(key(pending_), key) < 0)
+		{
+			pending_ = nextKeyed();
+		}
+		if (pending_ == null || !key(pending_).equals(key))
+		{
+			return Collections.emptyList();
+		}
+		ArrayList<String[]> result = new ArrayList<>(2);
+		while (pending_ != null && key(pending_).equals(key))
+		{
+			result.add(pending_);
+			pending_ = nextKeyed();
+		}
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (source_ != null)
+		{
+			source_.close();
+			source_ = null;
+		}
+		if (sortedFile_ != null)
+		{
+			sortedFile_.delete();
+		}
+	}
+
+	private void open() throws IOException
+	{
+		if (sortedFile_ == null)
+		{
+			source_ = new CsvSource(file_);
+		}
+		else
+		{
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sortedFile_), 64 * 1024));
+			source_ = new RecordSource<String[]>()
+			{
+				@Override
+				public String[] next() throws IOException
+				{
+					return in.readBoolean() ? STRING_ARRAY_CODEC.read(in) : null;
+				}
+
+				@Override
+				public void close() throws IOException
+				{
+					in.close();
+				}
+			};
+		}
+		lastProbe_ = null;
+		pending_ = nextKeyed();
+	}
+
+	private String[] nextKeyed() throws IOException
+	{
+		String[] row = source_.next();
+		while (row != null && key(row) == null)
+		{
+			row = source_.next();
+		}
+		return row;
+	}
+
+	private String key(String[] row)
+	{
+		if (row.length <= keyColumn_ || row[keyColumn_] == null || row[keyColumn_].length() == 0)
+		{
+			return null;
+		}
+		return row[keyColumn_];
+	}
+
+	private File sort(int maxRecordsInMemory, File tempDir) throws IOException
+	{
+		ExternalSorter<String[]> sorter = new ExternalSorter<>(STRING_ARRAY_CODEC, new Comparator<String[]>()
+		{
+			@Override
+			public int compare(String[] o1, String[] o2)
+			{
+				return LOINC_NUM_ORDER.compare(key(o1), key(o2));
+			}
+		}, maxRecordsInMemory, tempDir);
+		try
+		{
+			CsvSource csv = new CsvSource(file_);
+			String[] row = csv.next();
+			while (row != null)
+			{
+				if (key(row) != null)
+				{
+					sorter.add(row);
+				}
+				row = csv.next();
+			}
+			csv.close();
+
+			File result = File.createTempFile("loincJoin", ".sorted", tempDir);
+			result.deleteOnExit();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(result)));
+			RecordSource<String[]> sorted = sorter.sorted();
+			row = sorted.next();
+			while (row != null)
+			{
+				out.writeBoolean(true);
+				STRING_ARRAY_CODEC.write(row, out);
+				row = sorted.next();
+			}
+			out.writeBoolean(false);
+			out.close();
+			sorted.close();
+			return result;
+		}
+		finally
+		{
+			sorter.close();
+		}
+	}
+
+	/**
+	 * Reads the CSV file with the same BOM handling as the main LOINC reader, skipping the header.
+	 */
+	private static class CsvSource implements RecordSource<String[]>
+	{
+		private final CSVReader reader_;
+		private final String[] header_;
+
+		CsvSource(File f) throws IOException
+		{
+			reader_ = new CSVReader(new BufferedReader(new InputStreamReader(new BOMInputStream(new FileInputStream(f)))));
+			String[] header = reader_.readNext();
+			header_ = (header == null ? new String[0] : header);
+		}
+
+		@Override
+		public String[] next() throws IOException
+		{
+			String[] row = reader_.readNext();
+			if (row != null && row.length < header_.length)
+			{
+				row = Arrays.copyOf(row, header_.length);
+			}
+			return row;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			reader_.close();
+		}
+	}
+
+	private static final RecordCodec<String[]> STRING_ARRAY_CODEC = new RecordCodec<String[]>()
+	{
+		@Override
+		public void write(String[] record, DataOutputStream out) throws IOException
+		{
+			out.writeInt(record.length);
+			for (String s : record)
+			{
+				if (s == null)
+				{
+					out.writeInt(-1);
+				}
+				else
+				{
+					byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+		}
+
+		@Override
+		public String[] read(DataInputStream in) throws IOException
+		{
+			String[] result = new String[in.readInt()];
+			for (int i = 0; i < result.length; i++)
+			{
+				int length = in.readInt();
+				if (length >= 0)
+				{
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					result[i] = new String(bytes, StandardCharsets.UTF_8);
+				}
+			}
+			return result;
+		}
+	};
+}
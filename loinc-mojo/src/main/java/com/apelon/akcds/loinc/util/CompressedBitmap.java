@@ -0,0 +1,160 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.util;
+
+import java.util.Arrays;
+
+/**
+ *
+ * {@link CompressedBitmap}
+ *
+ * A set of non negative ints, stored in the manner of a roaring bitmap: the ints are split into blocks of 65536 by their high 16
+ * bits, and each block holds its low 16 bits either as a sorted array of chars (2 bytes a member), or - once it has more than 4096
+ * members, where that stops being smaller - as a plain 8 KB bitmap.  A sparse set costs little more than its members, a dense one
+ * an eighth of a byte per possible member, and neither needs an object per member.
+ *
+ * Built for sets filled in ascending order (ids handed out as rows are read), where an add is an append - adding out of order
+ * works, but inserts into the middle of an array block.  Not thread safe.
+ */
+public class CompressedBitmap
+{
+	private static final int ARRAY_MAX = 4096;
+
+	private Block[] blocks_ = new Block[1];
+	private int cardinality_ = 0;
+
+	private static class Block
+	{
+		char[] array = new char[4];  // sorted, while bitmap is null
+		int size = 0;
+		long[] bitmap;
+	}
+
+	public void add(int value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("Negative value " + value);
+		}
+		int high = value >>> 16;
+		char low = (char) value;
+		if (high >= blocks_.length)
+		{
+			blocks_ = Arrays.copyOf(blocks_, Math.max(high + 1, blocks_.length * 2));
+		}
+		Block block = blocks_[high];
+		if (block == null)
+		{
+			block = new Block();
+			blocks_[high] = block;
+		}
+
+		if (block.bitmap != null)
+		{
+			long bit = 1L << low;
+			if ((block.bitmap[low >>> 6] & bit) == 0)
+			{
+				block.bitmap[low >>> 6] |= bit;
+				block.size++;
+				cardinality_++;
+			}
+			return;
+		}
+
+		int position;
+		if (block.size == 0 || block.array[block.size - 1] < low)
+		{
+			position = block.size;
+		}
+		else
+		{
+			position = Arrays.binarySearch(block.array, 0, block.size, low);
+			if (position >= 0)
+			{
+				return;
+			}
+			position = -position - 1;
+		}
+		if (block.size == ARRAY_MAX)
+		{
+			toBitmap(block);
+			add(value);
+			return;
+		}
+		if (block.size == block.array.length)
+		{
+			block.array = Arrays.copyOf(block.array, Math.min(ARRAY_MAX, block.array.length * 2));
+		}
+		System.arraycopy(block.array, position, block.array, position + 1, block.size - position);
+		block.array[position] = low;
+		block.size++;
+		cardinality_++;
+	}
+
+	public boolean contains(int value)
+	{
+		int high = value >>> 16;
+		if (value < 0 || high >= blocks_.length || blocks_[high] == null)
+		{
+			return false;
+		}
+		Block block = blocks_[high];
+		char low = (char) value;
+		if (block.bitmap != null)
+		{
+			return (block.bitmap[low >>> 6] & (1L << low)) != 0;
+		}
+		return Arrays.binarySearch(block.array, 0, block.size, low) >= 0;
+	}
+
+	/**
+	 * @return the number of members
+	 */
+	public int getCardinality()
+	{
+		return cardinality_;
+	}
+
+	/**
+	 * @return roughly the bytes of heap the member storage takes
+	 */
+	public long getSizeInBytes()
+	{
+		long result = 16 + blocks_.length * 4L;
+		for (Block block : blocks_)
+		{
+			if (block != null)
+			{
+				result += 32 + (block.bitmap == null ? block.array.length * 2L : block.bitmap.length * 8L);
+			}
+		}
+		return result;
+	}
+
+	private static void toBitmap(Block block)
+	{
+		block.bitmap = new long[1024];
+		for (int i = 0; i < block.size; i++)
+		{
+			char low = block.array[i];
+			block.bitmap[low >>> 6] |= 1L << low;
+		}
+		block.array = null;
+	}
+}
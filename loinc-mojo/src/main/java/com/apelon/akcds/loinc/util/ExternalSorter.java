@@ -0,0 +1,278 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ *
+ * {@link ExternalSorter}
+ *
+ * Sorts an arbitrary number of records with a bounded amount of heap.  Records are buffered until
+ * <code>maxRecordsInMemory</code> is reached, then sorted and spilled to a temporary run file.  {@link #sorted()}
+ * merges the runs back together.  If nothing was ever spilled, the sort happens entirely in memory.
+ *
+ * The sort is stable - records that compare equal come back in the order they were added.
+ *
+ * Not thread safe.
+ */
+public class ExternalSorter<T> implements Closeable
+{
+	/**
+	 * Reads and writes one record of a run file.
+	 */
+	public interface RecordCodec<T>
+	{
+		public void write(T record, DataOutputStream out) throws IOException;
+		public T read(DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * A stream of records - {@link #next()} returns null when there are no more.
+	 */
+	public interface RecordSource<T> extends Closeable
+	{
+		public T next() throws IOException;
+	}
+
+	private static final int MAX_FAN_IN = 64;
+
+	private final RecordCodec<T> codec_;
+	private final Comparator<T> comparator_;
+	private final int maxRecordsInMemory_;
+	private final File tempDir_;
+
+	private ArrayList<T> buffer_;
+	private final ArrayList<File> runs_ = new ArrayList<>();
+	private final ArrayList<Closeable> openRuns_ = new ArrayList<>();
+	private long recordCount_ = 0;
+
+	/**
+	 * @param tempDir where to put the run files - null for the system default
+	 */
+	public ExternalSorter(RecordCodec<T> codec, Comparator<T> comparator, int maxRecordsInMemory, File tempDir)
+	{
+		codec_ = codec;
+		comparator_ = comparator;
+		maxRecordsInMemory_ = Math.max(1, maxRecordsInMemory);
+		tempDir_ = tempDir;
+		buffer_ = new ArrayList<>(Math.min(maxRecordsInMemory_, 10000));
+	}
+
+	public void add(T record) throws IOException
+	{
+		buffer_.add(record);
+		recordCount_++;
+		if (buffer_.size() >= maxRecordsInMemory_)
+		{
+			spill();
+		}
+	}
+
+	public long getRecordCount()
+	{
+		return recordCount_;
+	}
+
+	/**
+	 * @return true, if any records had to be written to disk
+	 */
+	public boolean hasSpilled()
+	{
+		return runs_.size() > 0;
+	}
+
+	/**
+	 * Returns the sorted records.  No more records may be added after this is called.
+	 */
+	public RecordSource<T> sorted() throws IOException
+	{
+		if (runs_.size() == 0)
+		{
+			Collections.sort(buffer_, comparator_);
+			final Iterator<T> it = buffer_.iterator();
+			buffer_ = null;
+			return new RecordSource<T>()
+			{
+				@Override
+				public T next()
+				{
+					return it.hasNext() ? it.next() : null;
+				}
+
+				@Override
+				public void close()
+				{
+					// noop
+				}
+			};
+		}
+		if (buffer_.size() > 0)
+		{
+			spill();
+		}
+		buffer_ = null;
+
+		// Keep the number of simultaneously open files sane.
+		while (runs_.size() > MAX_FAN_IN)
+		{
+			ArrayList<File> batch = new ArrayList<>(runs_.subList(0, MAX_FAN_IN));
+			runs_.subList(0, MAX_FAN_IN).clear();
+			File merged = createRunFile();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merged)));
+			RecordSource<T> source = merge(batch);
+			T record = source.next();
+			while (record != null)
+			{
+				out.writeBoolean(true);
+				codec_.write(record, out);
+				record = source.next();
+			}
+			out.writeBoolean(false);
+			out.close();
+			source.close();
+			for (File f : batch)
+			{
+				f.delete();
+			}
+			// Back in the place of the runs it replaces, so the run order is still the add order, and the merge stays stable
+			runs_.add(0, merged);
+		}
+		return merge(runs_);
+	}
+
+	/**
+	 * Closes any open run files, and deletes them.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		for (Closeable c : openRuns_)
+		{
+			c.close();
+		}
+		openRuns_.clear();
+		for (File f : runs_)
+		{
+			f.delete();
+		}
+		runs_.clear();
+	}
+
+	private File createRunFile() throws IOException
+	{
+		File f = File.createTempFile("loincSort", ".run", tempDir_);
+		f.deleteOnExit();
+		return f;
+	}
+
+	private void spill() throws IOException
+	{
+		Collections.sort(buffer_, comparator_);
+		File run = createRunFile();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+		for (T record : buffer_)
+		{
+			out.writeBoolean(true);
+			codec_.write(record, out);
+		}
+		out.writeBoolean(false);
+		out.close();
+		runs_.add(run);
+		buffer_.clear();
+	}
+
+	private class Head
+	{
+		T record;
+		int run;
+		DataInputStream in;
+	}
+
+	private RecordSource<T> merge(ArrayList<File> runs) throws IOException
+	{
+		final PriorityQueue<Head> queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<Head>()
+		{
+			@Override
+			public int compare(Head o1, Head o2)
+			{
+				int result = comparator_.compare(o1.record, o2.record);
+				// Runs are created in add order, so the run index keeps the sort stable.
+				return result == 0 ? Integer.compare(o1.run, o2.run) : result;
+			}
+		});
+		final ArrayList<DataInputStream> inputs = new ArrayList<>(runs.size());
+		for (int i = 0; i < runs.size(); i++)
+		{
+			Head h = new Head();
+			h.run = i;
+			h.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(i)), 64 * 1024));
+			inputs.add(h.in);
+			openRuns_.add(h.in);
+			if (h.in.readBoolean())
+			{
+				h.record = codec_.read(h.in);
+				queue.add(h);
+			}
+		}
+
+		return new RecordSource<T>()
+		{
+			@Override
+			public T next() throws IOException
+			{
+				Head h = queue.poll();
+				if (h == null)
+				{
+					return null;
+				}
+				T result = h.record;
+				if (h.in.readBoolean())
+				{
+					h.record = codec_.read(h.in);
+					queue.add(h);
+				}
+				return result;
+			}
+
+			@Override
+			public void close() throws IOException
+			{
+				for (DataInputStream in : inputs)
+				{
+					in.close();
+					openRuns_.remove(in);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * {@link UuidDebugSink}
+ *
+ * Writes the UUID to seed string mappings to a gzipped, tab delimited file as the UUIDs are generated, instead of holding them
+ * all in memory until the end of the run.  Repeats are dropped with a set of 64 bit fingerprints - 8 bytes (or so) per UUID, rather
+ * than the UUID and its seed string.  A fingerprint collision would drop a line from the file, never add a wrong one.
+ *
+ * Only the UUIDs the converter seeds itself are recorded - its concepts (LOINC codes, axis and class values, parts, multi-axial
+ * nodes) and the metadata root.  The property metadata concepts, and the description, relationship, annotation and refset member
+ * UUIDs, are made inside the shared library and never pass through here, so the file is not a replacement for the FULL dump.
+ *
+ * Thread safe.
+ */
+public class UuidDebugSink implements Closeable
+{
+	/**
+	 * How the UUID debug map is produced.
+	 */
+	public enum Mode
+	{
+		/** No debug map - nothing is kept in memory */
+		NONE,
+		/**
+		 * Stream the mappings to a compressed file as they are created - the concept level seeds only, not the component UUIDs the
+		 * shared library makes
+		 */
+		STREAM,
+		/** Keep every mapping in memory, and dump them all at the end (the original behavior) */
+		FULL
+	}
+
+	private final Writer out_;
+	private final File file_;
+	private long[] fingerprints_ = new long[1 << 16];
+	private boolean hasZero_ = false;
+	private int size_ = 0;
+	private IOException error_;
+
+	public UuidDebugSink(File file) throws IOException
+	{
+		file_ = file;
+		out_ = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), 64 * 1024), StandardCharsets.UTF_8));
+	}
+
+	public File getFile()
+	{
+		return file_;
+	}
+
+	/**
+	 * Append the mapping, if this UUID hasn't been seen before.  A write failure stops the output, and is thrown by {@link #close()},
+	 * so that a debug file problem doesn't need handling at every point a UUID is made.
+	 */
+	public synchronized void record(UUID uuid, String seed)
+	{
+		if (error_ == null && add(fingerprint(uuid)))
+		{
+			try
+			{
+				out_.write(uuid.toString());
+				out_.write('\t');
+				out_.write(seed);
+				out_.write('\n');
+			}
+			catch (IOException e)
+			{
+				error_ = e;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of distinct UUIDs written
+	 */
+	public synchronized int getCount()
+	{
+		return size_;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		out_.close();
+		fingerprints_ = null;
+		if (error_ != null)
+		{
+			throw new IOException("Failed writing the UUID debug map " + file_.getAbsolutePath(), error_);
+		}
+	}
+
+	private static long fingerprint(UUID uuid)
+	{
+		// Name based UUIDs are already hashes - just fold the two halves, and mix so the low bits are usable as a table index
+		long h = uuid.getMostSignificantBits() ^ Long.rotateLeft(uuid.getLeastSignificantBits(), 32);
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+	/**
+	 * Open addressing, linear probing - 0 marks an empty slot, so the fingerprint 0 is tracked separately.
+	 * @return true, if the fingerprint wasn't already present
+	 */
+	private boolean add(long fingerprint)
+	{
+		if (fingerprint == 0)
+		{
+			if (hasZero_)
+			{
+				return false;
+			}
+			hasZero_ = true;
+			size_++;
+			return true;
+		}
+		int mask = fingerprints_.length - 1;
+		int i = (int) fingerprint & mask;
+		while (fingerprints_[i] != 0)
+		{
+			if (fingerprints_[i] == fingerprint)
+			{
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		fingerprints_[i] = fingerprint;
+		size_++;
+		if (size_ * 2 > fingerprints_.length)
+		{
+			grow();
+		}
+		return true;
+	}
+
+	private void grow()
+	{
+		long[] old = fingerprints_;
+		fingerprints_ = new long[old.length * 2];
+		int mask = fingerprints_.length - 1;
+		for (long f : old)
+		{
+			if (f != 0)
+			{
+				int i = (int) f & mask;
+				while (fingerprints_[i] != 0)
+				{
+					i = (i + 1) & mask;
+				}
+				fingerprints_[i] = f;
+			}
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.ihtsdo.otf.tcc.dto.TtkConceptChronicle;
+import org.ihtsdo.otf.tcc.dto.component.description.TtkDescriptionChronicle;
+import org.ihtsdo.otf.tcc.dto.component.relationship.TtkRelationshipChronicle;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.apelon.akcds.loinc.jbin.JbinReader;
+
+/**
+ *
+ * {@link LoincToEConceptsTest}
+ *
+ * Runs the whole conversion over a tiny release written by the test - a few LOINC codes, a part file, and a multi-axial hierarchy
+ * that shares some of its LP codes with the part file - and reads back the jbin files it writes.
+ */
+public class LoincToEConceptsTest
+{
+	// The long common names of the codes of the release, in file order
+	private static final String[] CODE_NAMES = new String[] {"Bacteria identified in Blood by Culture", "Bacteria identified in Urine by Culture",
+			"Bacteria identified in Cerebral spinal fluid"};
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Before
+	public void reset()
+	{
+		ConversionWatcher.resetSharedState();
+	}
+
+	@Test
+	public void sharedPartCodeIsLinked() throws Exception
+	{
+		File output = convert(writeRelease());
+		List<TtkConceptChronicle> concepts = read(new File(output, "loincEConcepts.jbin"));
+
+		TtkConceptChronicle part = find(concepts, "Bacteria");
+		TtkConceptChronicle node = find(concepts, "Bacteria node");
+		TtkConceptChronicle partOnly = find(concepts, "Point in time");
+
+		// Exactly one link between the hierarchy and the parts - from the node of the shared code to its part.  The LOINC codes
+		// have their own links to the parts.
+		HashSet<UUID> parts = new HashSet<>();
+		parts.add(part.getPrimordialUuid());
+		parts.add(partOnly.getPrimordialUuid());
+		HashSet<UUID> codes = new HashSet<>();
+		for (String name : CODE_NAMES)
+		{
+			codes.add(find(concepts, name).getPrimordialUuid());
+		}
+		int links = 0;
+		for (TtkConceptChronicle concept : concepts)
+		{
+			for (TtkRelationshipChronicle r : relationships(concept))
+			{
+				if (parts.contains(r.getC2Uuid()) && !parts.contains(concept.getPrimordialUuid()) && !codes.contains(concept.getPrimordialUuid()))
+				{
+					assertEquals(node.getPrimordialUuid(), concept.getPrimordialUuid());
+					links++;
+				}
+			}
+		}
+		assertEquals(1, links);
+	}
+
+	/**
+	 * The link file is joined in the release's order, which isn't String order - 1000-9 is linked after 10001-6.
+	 */
+	@Test
+	public void partLinksFollowReleaseOrder() throws Exception
+	{
+		List<TtkConceptChronicle> concepts = read(new File(convert(writeRelease()), "loincEConcepts.jbin"));
+		UUID bacteria = find(concepts, "Bacteria").getPrimordialUuid();
+		UUID time = find(concepts, "Point in time").getPrimordialUuid();
+		UUID[][] expected = new UUID[][] {{bacteria, time}, {bacteria}, {bacteria, time}};
+		for (int i = 0; i < CODE_NAMES.length; i++)
+		{
+			HashSet<UUID> linked = new HashSet<>();
+			HashSet<UUID> types = new HashSet<>();
+			for (TtkRelationshipChronicle r : relationships(find(concepts, CODE_NAMES[i])))
+			{
+				if (r.getC2Uuid().equals(bacteria) || r.getC2Uuid().equals(time))
+				{
+					assertTrue(CODE_NAMES[i] + " is linked to the same part twice", linked.add(r.getC2Uuid()));
+					types.add(r.getTypeUuid());
+				}
+			}
+			assertEquals(CODE_NAMES[i], new HashSet<>(Arrays.asList(expected[i])), linked);
+			// One relationship type per link property
+			assertEquals(CODE_NAMES[i], linked.size(), types.size());
+		}
+	}
+
+	@Test
+	public void variantsDifferOnlyAsConfigured() throws Exception
+	{
+		File output = convert(writeRelease(), "annotationSkipList", "", "outputVariants",
+				"all|slim;annotationSkipList=DATE_LAST_CHANGED;includeDeprecated=false;includeMultiAxial=false");
+		assertFalse(new File(output, "loincEConcepts-all.jbin").exists());
+		List<TtkConceptChronicle> allConcepts = read(new File(output, "variants/loincEConcepts-all.jbin"));
+		List<TtkConceptChronicle> slimConcepts = read(new File(output, "variants/loincEConcepts-slim.jbin"));
+		Map<UUID, String> all = byUuid(allConcepts);
+		Map<UUID, String> slim = byUuid(slimConcepts);
+
+		// A variant that leaves nothing out is the main jbin again
+		assertEquals(byUuid(read(new File(output, "loincEConcepts.jbin"))), all);
+
+		// The slim one leaves out the deprecated code, the hierarchy nodes, and the metadata concepts of the three properties it
+		// doesn't have - DATE_LAST_CHANGED, Multiaxial Child Of and Same_As_Part
+		HashSet<UUID> gone = new HashSet<>(all.keySet());
+		gone.removeAll(slim.keySet());
+		assertTrue(all.keySet().containsAll(slim.keySet()));
+		for (String name : new String[] {"Bacteria identified in Cerebral spinal fluid", "Microbiology", "Bacteria node"})
+		{
+			assertTrue(name, gone.contains(find(allConcepts, name).getPrimordialUuid()));
+		}
+		assertEquals(3 + 3, gone.size());
+
+		// The rest is the same, but for the codes - without their annotation and their links into the hierarchy - and the refsets
+		HashSet<UUID> mayChange = new HashSet<>();
+		for (TtkConceptChronicle concept : allConcepts)
+		{
+			if (concept.getRefsetMembersDynamic() != null && concept.getRefsetMembersDynamic().size() > 0)
+			{
+				mayChange.add(concept.getPrimordialUuid());
+			}
+		}
+		for (String name : new String[] {"Bacteria identified in Blood by Culture", "Bacteria identified in Urine by Culture"})
+		{
+			TtkConceptChronicle before = find(allConcepts, name);
+			TtkConceptChronicle after = find(slimConcepts, name);
+			assertFalse(name, all.get(before.getPrimordialUuid()).equals(slim.get(after.getPrimordialUuid())));
+			mayChange.add(before.getPrimordialUuid());
+
+			int kept = 0;
+			for (TtkRelationshipChronicle r : relationships(before))
+			{
+				if (!gone.contains(r.getC2Uuid()))
+				{
+					kept++;
+				}
+			}
+			assertTrue(name, kept < relationships(before).size());
+			assertEquals(name, kept, relationships(after).size());
+			for (TtkRelationshipChronicle r : relationships(after))
+			{
+				assertFalse(name, gone.contains(r.getC2Uuid()));
+			}
+		}
+		for (UUID uuid : slim.keySet())
+		{
+			if (!mayChange.contains(uuid))
+			{
+				assertEquals(all.get(uuid), slim.get(uuid));
+			}
+		}
+	}
+
+	File convert(File release, String... settings) throws Exception
+	{
+		File output = temp.newFolder();
+		LoincToEConcepts converter = new LoincToEConcepts();
+		converter.configure("inputFileLocation", release.getAbsolutePath());
+		converter.configure("outputDirectory", output.getAbsolutePath());
+		converter.configure("converterResultVersion", "test");
+		converter.configure("loaderVersion", "test");
+		for (int i = 0; i < settings.length; i += 2)
+		{
+			converter.configure(settings[i], settings[i + 1]);
+		}
+		converter.execute();
+		return output;
+	}
+
+	/**
+	 * Three LOINC codes (one deprecated), in the release's order - 1000-9 after 10001-6 - two parts, links from the codes to the
+	 * parts, and a hierarchy of two LP nodes over two of the codes.  LP14082-9 is both a part and a hierarchy node, LP6879-3 only
+	 * a part, LP29693-9 only a node.
+	 */
+	File writeRelease() throws IOException
+	{
+		File folder = temp.newFolder();
+		write(new File(folder, "loinc_releasenotes.txt"), "LOINC | Version 2.48\nReleased June 2014\n");
+		write(new File(folder, "loinc.csv"),
+				line("LOINC_NUM", "COMPONENT", "PROPERTY", "TIME_ASPCT", "SYSTEM", "SCALE_TYP", "METHOD_TYP", "CLASS", "DATE_LAST_CHANGED", "STATUS",
+						"SHORTNAME", "LONG_COMMON_NAME")
+				+ line("10000-8", "Bacteria identified", "Prid", "Pt", "Bld", "Nom", "Culture", "MICRO", "20140101", "ACTIVE", "Bacteria Bld Cult",
+						"Bacteria identified in Blood by Culture")
+				+ line("10001-6", "Bacteria identified", "Prid", "Pt", "Urine", "Nom", "Culture", "MICRO", "20140101", "ACTIVE", "Bacteria Ur Cult",
+						"Bacteria identified in Urine by Culture")
+				+ line("1000-9", "Bacteria identified", "Prid", "Pt", "CSF", "Nom", "", "MICRO", "20120101", "DEPRECATED", "Bacteria CSF",
+						"Bacteria identified in Cerebral spinal fluid"));
+		write(new File(folder, "Part.csv"),
+				line("PartNumber", "PartTypeName", "PartName", "PartDisplayName", "Status")
+				+ line("LP14082-9", "COMPONENT", "Bacteria", "Bacteria", "ACTIVE")
+				+ line("LP6879-3", "TIME", "Point in time", "Point in time", "ACTIVE"));
+		write(new File(folder, "LoincPartLink_Primary.csv"),
+				line("LoincNumber", "PartNumber", "PartName", "PartTypeName", "LinkTypeName", "Property")
+				+ line("10000-8", "LP14082-9", "Bacteria", "COMPONENT", "Primary", "http://loinc.org/property/COMPONENT")
+				+ line("10000-8", "LP6879-3", "Point in time", "TIME", "Primary", "http://loinc.org/property/TIME_ASPCT")
+				+ line("10001-6", "LP14082-9", "Bacteria", "COMPONENT", "Primary", "http://loinc.org/property/COMPONENT")
+				+ line("1000-9", "LP14082-9", "Bacteria", "COMPONENT", "Primary", "http://loinc.org/property/COMPONENT")
+				+ line("1000-9", "LP6879-3", "Point in time", "TIME", "Primary", "http://loinc.org/property/TIME_ASPCT"));
+		write(new File(folder, "MULTI-AXIAL_HIERARCHY.CSV"),
+				line("PATH_TO_ROOT", "SEQUENCE", "IMMEDIATE_PARENT", "CODE", "CODE_TEXT")
+				+ line("", "1", "", "LP29693-9", "Microbiology")
+				+ line("LP29693-9", "1", "LP29693-9", "LP14082-9", "Bacteria node")
+				+ line("LP29693-9.LP14082-9", "1", "LP14082-9", "10000-8", "Bacteria identified in Blood by Culture")
+				+ line("LP29693-9.LP14082-9", "2", "LP14082-9", "10001-6", "Bacteria identified in Urine by Culture"));
+		return folder;
+	}
+
+	static List<TtkConceptChronicle> read(File jbin) throws IOException
+	{
+		List<TtkConceptChronicle> result = new ArrayList<>();
+		JbinReader reader = new JbinReader(jbin);
+		try
+		{
+			TtkConceptChronicle concept = reader.next();
+			while (concept != null)
+			{
+				result.add(concept);
+				concept = reader.next();
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the records of each concept, serialized (as text, so that whole files compare with equals) - in file order, for a
+	 * concept written in several pieces
+	 */
+	static Map<UUID, String> byUuid(List<TtkConceptChronicle> concepts) throws IOException
+	{
+		HashMap<UUID, String> result = new HashMap<>();
+		for (TtkConceptChronicle concept : concepts)
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			concept.writeExternal(out);
+			out.flush();
+			String previous = result.get(concept.getPrimordialUuid());
+			result.put(concept.getPrimordialUuid(), (previous == null ? "" : previous) + new String(bytes.toByteArray(), Charset.forName("ISO-8859-1")));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the one concept with a description of exactly this text
+	 */
+	static TtkConceptChronicle find(List<TtkConceptChronicle> concepts, String text)
+	{
+		TtkConceptChronicle result = null;
+		for (TtkConceptChronicle concept : concepts)
+		{
+			if (concept.getDescriptions() != null)
+			{
+				for (TtkDescriptionChronicle d : concept.getDescriptions())
+				{
+					if (text.equals(d.getText()))
+					{
+						if (result != null && result != concept)
+						{
+							fail("More than one concept named " + text);
+						}
+						result = concept;
+					}
+				}
+			}
+		}
+		assertNotNull("No concept named " + text, result);
+		return result;
+	}
+
+	static List<TtkRelationshipChronicle> relationships(TtkConceptChronicle concept)
+	{
+		return (concept.getRelationships() == null ? new ArrayList<TtkRelationshipChronicle>() : concept.getRelationships());
+	}
+
+	private static void write(File f, String content) throws IOException
+	{
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(f), Charset.forName("UTF-8")))
+		{
+			out.write(content);
+		}
+	}
+
+	private static String line(String... fields)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (i > 0)
+			{
+				sb.append(',');
+			}
+			sb.append('"').append(fields[i].replace("\"", "\"\"")).append('"');
+		}
+		return sb.append("\r\n").toString();
+	}
+}
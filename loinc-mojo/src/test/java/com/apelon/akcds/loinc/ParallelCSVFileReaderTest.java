@@ -0,0 +1,211 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * {@link ParallelCSVFileReaderTest}
+ *
+ * The parallel reader must hand out exactly the rows of a sequential {@link CSVFileReader} read - checked on generated files big
+ * enough to be cut into several ranges, dense with the fields that make finding a record boundary hard: quoted line breaks (LF and
+ * CRLF), quoted commas, doubled quotes, and empty quoted fields at the start of a line.
+ */
+public class ParallelCSVFileReaderTest
+{
+	private static final String[] HEADER = new String[] {"LOINC_NUM", "COMPONENT", "COMMENTS", "STATUS", "EXMPL_ANSWERS"};
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void sameRowsAsSequentialRead() throws IOException
+	{
+		for (long seed = 1; seed <= 2; seed++)
+		{
+			File folder = writeRelease(seed, 30000, false);
+			assertSameRows(folder, 4, false);
+			assertSameRows(folder, 3, true);
+		}
+	}
+
+	@Test
+	public void sameRowsWithByteOrderMark() throws IOException
+	{
+		assertSameRows(writeRelease(3, 30000, true), 2, false);
+	}
+
+	@Test
+	public void smallFileIsOneRange() throws IOException
+	{
+		assertSameRows(writeRelease(4, 20, false), 4, false);
+	}
+
+	/**
+	 * Read the folder's loinc.csv both ways, and compare every row.
+	 * @param batches read the parallel side with readBatch, rather than readLine
+	 */
+	private void assertSameRows(File folder, int threads, boolean batches) throws IOException
+	{
+		File f = new File(folder, "loinc.csv");
+		CSVFileReader sequential = new CSVFileReader(f);
+		ParallelCSVFileReader parallel = new ParallelCSVFileReader(f, threads);
+		try
+		{
+			assertArrayEquals(sequential.getHeader(), parallel.getHeader());
+			assertEquals(sequential.getVersion(), parallel.getVersion());
+			assertEquals(sequential.getReleaseDate(), parallel.getReleaseDate());
+			int rows = 0;
+			if (batches)
+			{
+				RowBatch batch = parallel.newBatch(777);
+				int read = parallel.readBatch(batch);
+				while (read > 0)
+				{
+					for (int row = 0; row < read; row++)
+					{
+						assertArrayEquals("row " + rows, sequential.readLine(), batch.getRow(row));
+						rows++;
+					}
+					read = parallel.readBatch(batch);
+				}
+			}
+			else
+			{
+				String[] expected = sequential.readLine();
+				while (expected != null)
+				{
+					assertArrayEquals("row " + rows, expected, parallel.readLine());
+					rows++;
+					expected = sequential.readLine();
+				}
+				assertNull(parallel.readLine());
+			}
+			assertNull(sequential.readLine());
+			assertTrue(rows > 0);
+		}
+		finally
+		{
+			sequential.close();
+			parallel.close();
+		}
+	}
+
+	private File writeRelease(long seed, int rows, boolean bom) throws IOException
+	{
+		File folder = temp.newFolder();
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(folder, "loinc_releasenotes.txt")), Charset.defaultCharset()))
+		{
+			out.write("LOINC | Version 2.48\nReleased 2014-06-27\n");
+		}
+		Random random = new Random(seed);
+		FileOutputStream fos = new FileOutputStream(new File(folder, "loinc.csv"));
+		if (bom)
+		{
+			fos.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+		}
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(fos, Charset.defaultCharset())))
+		{
+			out.write(line(HEADER));
+			for (int i = 0; i < rows; i++)
+			{
+				String[] row = new String[HEADER.length];
+				row[0] = (random.nextInt(10) == 0 ? "" : (10000 + i) + "-" + random.nextInt(10));
+				for (int col = 1; col < row.length; col++)
+				{
+					row[col] = field(random);
+				}
+				out.write(line(row));
+			}
+		}
+		return folder;
+	}
+
+	private static String line(String[] fields)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (i > 0)
+			{
+				sb.append(',');
+			}
+			sb.append('"').append(fields[i].replace("\"", "\"\"")).append('"');
+		}
+		return sb.append("\r\n").toString();
+	}
+
+	/**
+	 * A field value - often with line breaks, commas and quotes, sometimes empty, sometimes long enough to straddle a range end.
+	 */
+	private static String field(Random random)
+	{
+		List<String> pieces = new ArrayList<>();
+		int count = random.nextInt(random.nextInt(50) == 0 ? 400 : 12);
+		for (int i = 0; i < count; i++)
+		{
+			switch (random.nextInt(9))
+			{
+				case 0:
+					pieces.add("\n");
+					break;
+				case 1:
+					pieces.add("\r\n");
+					break;
+				case 2:
+					pieces.add(",");
+					break;
+				case 3:
+					pieces.add("\"");
+					break;
+				case 4:
+					pieces.add("\"\"");
+					break;
+				case 5:
+					pieces.add("mg/dL");
+					break;
+				default:
+					pieces.add("Glucose " + random.nextInt(1000));
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String s : pieces)
+		{
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+}
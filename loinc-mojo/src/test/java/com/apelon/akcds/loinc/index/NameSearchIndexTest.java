@@ -0,0 +1,103 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * {@link NameSearchIndexTest}
+ */
+public class NameSearchIndexTest
+{
+	@ClassRule
+	public static TemporaryFolder temp = new TemporaryFolder();
+
+	private static NameSearchIndex index_;
+
+	@BeforeClass
+	public static void build() throws IOException
+	{
+		NameSearchIndex.Builder builder = new NameSearchIndex.Builder();
+		add(builder, "2345-7", "Glucose [Mass/volume] in Serum or Plasma", "Glucose SerPl-mCnc");
+		add(builder, "2339-0", "Glucose [Mass/volume] in Blood", "Glucose Bld-mCnc");
+		add(builder, "2160-0", "Creatinine [Mass/volume] in Serum or Plasma", "Creat SerPl-mCnc");
+		File file = new File(temp.getRoot(), "loincNameIndex.bin");
+		builder.write(file);
+		index_ = new NameSearchIndex(file);
+	}
+
+	private static void add(NameSearchIndex.Builder builder, String code, String longName, String shortName)
+	{
+		builder.startCode(code);
+		builder.addName("LONG_COMMON_NAME", longName);
+		builder.addName("SHORTNAME", shortName);
+		builder.commit();
+	}
+
+	private static List<String> codes(List<NameSearchIndex.Hit> hits)
+	{
+		ArrayList<String> result = new ArrayList<>();
+		for (NameSearchIndex.Hit hit : hits)
+		{
+			result.add(hit.getCode());
+		}
+		return result;
+	}
+
+	@Test
+	public void lastTokenIsPrefix()
+	{
+		List<String> codes = codes(index_.search("glucose ser", 10));
+		assertEquals(1, codes.size());
+		assertEquals("2345-7", codes.get(0));
+		assertEquals(2, codes(index_.search("gluc", 10)).size());
+	}
+
+	@Test
+	public void otherTokensMustMatchWholeWords()
+	{
+		// "gluc" isn't a word of any name - only the last token may be a prefix
+		assertTrue(codes(index_.search("gluc serum", 10)).isEmpty());
+		assertTrue(codes(index_.search("gluc ", 10)).isEmpty());
+		assertEquals(2, codes(index_.search("glucose ", 10)).size());
+	}
+
+	@Test
+	public void everyTokenMustMatch()
+	{
+		assertTrue(codes(index_.search("creatinine blood", 10)).isEmpty());
+		assertEquals("2160-0", codes(index_.search("creatinine plasma", 10)).get(0));
+	}
+
+	@Test
+	public void fuzzyFindsMisspellings()
+	{
+		assertTrue(codes(index_.fuzzySearch("glucoze", 10)).contains("2345-7"));
+	}
+}
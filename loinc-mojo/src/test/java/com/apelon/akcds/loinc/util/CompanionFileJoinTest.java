@@ -0,0 +1,203 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * {@link CompanionFileJoinTest}
+ */
+public class CompanionFileJoinTest
+{
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void sortedFileIsReadInPlace() throws IOException
+	{
+		File f = write("map_to.csv", "LOINC,MAP_TO,COMMENT", "1000-1,2000-2,a", "1000-1,3000-3,b", "1001-9,4000-4,", "1003-5,5000-5,c");
+		try (CompanionFileJoin join = new CompanionFileJoin(f, "LOINC", 100, temp.getRoot()))
+		{
+			assertFalse(join.wasSorted());
+			assertEquals(4, join.getRowCount());
+			assertRows(join.get("0999-2"));
+			assertRows(join.get("1000-1"), "1000-1,2000-2,a", "1000-1,3000-3,b");
+			// The same key again is not a step back - its rows have been handed out
+			assertRows(join.get("1000-1"));
+			assertRows(join.get("1002-7"));
+			assertRows(join.get("1003-5"), "1003-5,5000-5,c");
+			assertRows(join.get("9999-9"));
+		}
+	}
+
+	/**
+	 * An unsorted file, spilled a row at a time - rows with the same key still come back in file order.
+	 */
+	@Test
+	public void unsortedFileIsSortedStably() throws IOException
+	{
+		Random random = new Random(7);
+		ArrayList<String> rows = new ArrayList<>();
+		for (int i = 0; i < 500; i++)
+		{
+			rows.add("10" + random.nextInt(20) + "-0," + i);
+		}
+		ArrayList<String> lines = new ArrayList<>(rows);
+		lines.add(0, "LoincNumber,Sequence");
+		File f = write("LoincPartLink.csv", lines.toArray(new String[lines.size()]));
+
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+		{
+			keys.add("10" + i + "-0");
+		}
+		Collections.sort(keys, CompanionFileJoin.LOINC_NUM_ORDER);
+		try (CompanionFileJoin join = new CompanionFileJoin(f, "LoincNumber", 5, temp.getRoot()))
+		{
+			assertTrue(join.wasSorted());
+			int joined = 0;
+			for (String key : keys)
+			{
+				ArrayList<String> expected = new ArrayList<>();
+				for (String row : rows)
+				{
+					if (row.startsWith(key + ","))
+					{
+						expected.add(row);
+					}
+				}
+				assertRows(join.get(key), expected.toArray(new String[expected.size()]));
+				joined += expected.size();
+			}
+			assertEquals(500, joined);
+		}
+	}
+
+	/**
+	 * The release files ignore the hyphen when they sort - 1000-9 comes after 10001-6.  Both sides of the join must follow them.
+	 */
+	@Test
+	public void releaseOrderIsJoinedInPlace() throws IOException
+	{
+		String[] releaseOrder = new String[] {"10000-8", "10001-6", "1000-9", "10009-9", "10010-9", "1001-7"};
+		File f = write("map_to.csv", "LOINC,MAP_TO,COMMENT", "10000-8,1,", "1000-9,2,", "1000-9,3,", "10010-9,4,", "1001-7,5,");
+		try (CompanionFileJoin join = new CompanionFileJoin(f, "LOINC", 100, temp.getRoot()))
+		{
+			assertFalse(join.wasSorted());
+			assertRows(join.get(releaseOrder[0]), "10000-8,1,");
+			assertRows(join.get(releaseOrder[1]));
+			assertRows(join.get(releaseOrder[2]), "1000-9,2,", "1000-9,3,");
+			assertRows(join.get(releaseOrder[3]));
+			assertRows(join.get(releaseOrder[4]), "10010-9,4,");
+			assertRows(join.get(releaseOrder[5]), "1001-7,5,");
+		}
+
+		// A companion file in plain String order is sorted into the release order
+		f = write("map_to.csv", "LOINC,MAP_TO,COMMENT", "1000-9,2,", "10000-8,1,", "1001-7,5,", "10010-9,4,");
+		try (CompanionFileJoin join = new CompanionFileJoin(f, "LOINC", 100, temp.getRoot()))
+		{
+			assertTrue(join.wasSorted());
+			assertRows(join.get(releaseOrder[0]), "10000-8,1,");
+			assertRows(join.get(releaseOrder[2]), "1000-9,2,");
+			assertRows(join.get(releaseOrder[4]), "10010-9,4,");
+			assertRows(join.get(releaseOrder[5]), "1001-7,5,");
+		}
+
+		ArrayList<String> sorted = new ArrayList<>(Arrays.asList(releaseOrder));
+		Collections.shuffle(sorted, new Random(3));
+		Collections.sort(sorted, CompanionFileJoin.LOINC_NUM_ORDER);
+		assertEquals(Arrays.asList(releaseOrder), sorted);
+	}
+
+	@Test
+	public void backwardProbeFails() throws IOException
+	{
+		File f = write("map_to.csv", "LOINC,MAP_TO,COMMENT", "1000-1,2000-2,", "1003-5,5000-5,");
+		try (CompanionFileJoin join = new CompanionFileJoin(f, "LOINC", 100, temp.getRoot()))
+		{
+			join.get("1003-5");
+			try
+			{
+				join.get("1000-1");
+				fail("A key less than the last one must not be joined");
+			}
+			catch (IOException e)
+			{
+				assertTrue(e.getMessage(), e.getMessage().contains("map_to.csv") && e.getMessage().contains("1000-1"));
+			}
+		}
+	}
+
+	@Test
+	public void distinctValuesAndShortRows() throws IOException
+	{
+		File f = write("LoincPartLink.csv", "\uFEFFLoincNumber,PartNumber,Property", "1000-1,LP1,http://loinc.org/property/COMPONENT",
+				"1000-1,LP2", "1001-9,LP3,http://loinc.org/property/SYSTEM", "1001-9,LP4,http://loinc.org/property/COMPONENT");
+		try (CompanionFileJoin join = new CompanionFileJoin(f, "LoincNumber", 100, temp.getRoot(), "Property", "Missing"))
+		{
+			assertEquals(Arrays.asList("http://loinc.org/property/COMPONENT", "http://loinc.org/property/SYSTEM"),
+					new ArrayList<>(join.getDistinctValues("Property")));
+			assertTrue(join.getDistinctValues("Missing").isEmpty());
+			List<String[]> rows = join.get("1000-1");
+			assertEquals(2, rows.size());
+			assertArrayEquals(new String[] {"1000-1", "LP2", null}, rows.get(1));
+		}
+	}
+
+	private File write(String name, String ... lines) throws IOException
+	{
+		File f = new File(temp.newFolder(), name);
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8))
+		{
+			for (String line : lines)
+			{
+				out.write(line + "\r\n");
+			}
+		}
+		return f;
+	}
+
+	private static void assertRows(List<String[]> actual, String ... expected)
+	{
+		assertEquals(expected.length, actual.size());
+		for (int i = 0; i < expected.length; i++)
+		{
+			assertArrayEquals(expected[i].split(",", -1), actual.get(i));
+		}
+	}
+}
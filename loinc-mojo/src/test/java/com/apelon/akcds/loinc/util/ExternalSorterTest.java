@@ -0,0 +1,165 @@
+/**
+ * Copyright Notice
+ *
+ * This is a work of the U.S. Government and is not subject to copyright
+ * protection in the United States. Foreign copyrights may apply.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.apelon.akcds.loinc.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.apelon.akcds.loinc.util.ExternalSorter.RecordSource;
+
+/**
+ *
+ * {@link ExternalSorterTest}
+ *
+ * Records are a key and the order they were added in - only the key is compared, so the add order shows whether the sort is stable.
+ */
+public class ExternalSorterTest
+{
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private static final ExternalSorter.RecordCodec<int[]> CODEC = new ExternalSorter.RecordCodec<int[]>()
+	{
+		@Override
+		public void write(int[] record, DataOutputStream out) throws IOException
+		{
+			out.writeInt(record[0]);
+			out.writeInt(record[1]);
+		}
+
+		@Override
+		public int[] read(DataInputStream in) throws IOException
+		{
+			return new int[] {in.readInt(), in.readInt()};
+		}
+	};
+
+	private static final Comparator<int[]> BY_KEY = new Comparator<int[]>()
+	{
+		@Override
+		public int compare(int[] o1, int[] o2)
+		{
+			return Integer.compare(o1[0], o2[0]);
+		}
+	};
+
+	@Test
+	public void inMemory() throws IOException
+	{
+		File dir = temp.newFolder();
+		List<int[]> records = records(1, 500, 20);
+		ExternalSorter<int[]> sorter = sort(records, 1000, dir);
+		assertFalse(sorter.hasSpilled());
+		assertSorted(records, sorter);
+	}
+
+	@Test
+	public void spillAndMerge() throws IOException
+	{
+		File dir = temp.newFolder();
+		List<int[]> records = records(2, 5000, 1000);
+		ExternalSorter<int[]> sorter = sort(records, 400, dir);
+		assertTrue(sorter.hasSpilled());
+		assertEquals(5000, sorter.getRecordCount());
+		assertSorted(records, sorter);
+		assertEquals("run files left behind", 0, dir.list().length);
+	}
+
+	/**
+	 * More runs than are merged at once, so some are merged ahead of the final merge - with few keys, so most records tie.
+	 */
+	@Test
+	public void stableAcrossIntermediateMerges() throws IOException
+	{
+		File dir = temp.newFolder();
+		List<int[]> records = records(3, 3000, 7);
+		// 3000 / 10 = 300 runs
+		ExternalSorter<int[]> sorter = sort(records, 10, dir);
+		assertSorted(records, sorter);
+		assertEquals("run files left behind", 0, dir.list().length);
+	}
+
+	@Test
+	public void empty() throws IOException
+	{
+		ExternalSorter<int[]> sorter = new ExternalSorter<>(CODEC, BY_KEY, 10, temp.newFolder());
+		RecordSource<int[]> source = sorter.sorted();
+		assertNull(source.next());
+		source.close();
+		sorter.close();
+	}
+
+	private static List<int[]> records(long seed, int count, int keys)
+	{
+		Random random = new Random(seed);
+		ArrayList<int[]> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			result.add(new int[] {random.nextInt(keys), i});
+		}
+		return result;
+	}
+
+	private static ExternalSorter<int[]> sort(List<int[]> records, int maxRecordsInMemory, File dir) throws IOException
+	{
+		ExternalSorter<int[]> sorter = new ExternalSorter<>(CODEC, BY_KEY, maxRecordsInMemory, dir);
+		for (int[] record : records)
+		{
+			sorter.add(record);
+		}
+		return sorter;
+	}
+
+	/**
+	 * Compare with {@link Collections#sort(List, Comparator)}, which is stable, then close the sorter.
+	 */
+	private static void assertSorted(List<int[]> records, ExternalSorter<int[]> sorter) throws IOException
+	{
+		ArrayList<int[]> expected = new ArrayList<>(records);
+		Collections.sort(expected, BY_KEY);
+		RecordSource<int[]> source = sorter.sorted();
+		try
+		{
+			for (int i = 0; i < expected.size(); i++)
+			{
+				assertArrayEquals("record " + i, expected.get(i), source.next());
+			}
+			assertNull(source.next());
+		}
+		finally
+		{
+			source.close();
+			sorter.close();
+		}
+	}
+}